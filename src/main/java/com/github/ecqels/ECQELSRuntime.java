@@ -19,15 +19,13 @@ package com.github.ecqels;
 import com.github.ecqels.continuous.ContinuousConstruct;
 import com.github.ecqels.continuous.ContinuousQuery;
 import com.github.ecqels.continuous.ContinuousSelect;
+import com.github.ecqels.stream.MicroBatcher;
 import com.github.ecqels.stream.RDFStream;
 import com.github.ecqels.stream.RunnableRDFStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
 import org.apache.jena.graph.Node;
 import org.apache.jena.graph.Triple;
 import org.apache.jena.query.Query;
@@ -43,13 +41,20 @@ public class ECQELSRuntime {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ECQELSRuntime.class);
     private final Engine engine;
-    private final ExecutorService executorService;
     private final List<RDFStream> streams = new ArrayList<>();
     private boolean running = false;
+    private volatile MicroBatcher batcher;
 
     public ECQELSRuntime() {
-        engine = new Engine();
-        executorService = Executors.newCachedThreadPool();
+        this(ExecutionModel.createDefault());
+    }
+
+    /**
+     * Creates a runtime whose engine, refreshes and runnable streams all run
+     * on the given execution model.
+     */
+    public ECQELSRuntime(ExecutionModel executionModel) {
+        engine = new Engine(executionModel);
     }
 
     public void registerStream(RDFStream stream, String metadataGraph, String metadata) {
@@ -65,6 +70,24 @@ public class ECQELSRuntime {
         }
     }
 
+    /**
+     * Routes all subsequent single-triple send calls through a micro-batcher
+     * that forwards them via sendBatch. Results are thereby delayed by at
+     * most maxDelay milliseconds.
+     */
+    public void enableBatching(int maxBatchSize, long maxDelay) {
+        disableBatching();
+        batcher = new MicroBatcher(engine, maxBatchSize, maxDelay);
+    }
+
+    public void disableBatching() {
+        MicroBatcher current = batcher;
+        batcher = null;
+        if (current != null) {
+            current.stop();
+        }
+    }
+
     public Engine getEngine() {
         return engine;
     }
@@ -74,7 +97,7 @@ public class ECQELSRuntime {
         if (running && stream instanceof RunnableRDFStream) {
             RunnableRDFStream runnable = (RunnableRDFStream) stream;
             if (!runnable.isRunning()) {
-                executorService.execute(runnable);
+                engine.getExecutionModel().getLongRunningExecutor().execute(runnable);
             };
         }
     }
@@ -90,7 +113,7 @@ public class ECQELSRuntime {
             if (stream instanceof RunnableRDFStream) {
                 RunnableRDFStream runnable = (RunnableRDFStream) stream;
                 if (!runnable.isRunning()) {
-                    executorService.execute(runnable);
+                    engine.getExecutionModel().getLongRunningExecutor().execute(runnable);
                 }
             }
         }
@@ -104,15 +127,10 @@ public class ECQELSRuntime {
 
     public void stop() {
         running = false;
+        disableBatching();
         streams.forEach((stream) -> {
             stream.stop();
         });
-        try {
-            executorService.shutdown();
-            executorService.awaitTermination(10, TimeUnit.SECONDS);
-        } catch (InterruptedException ex) {
-            LOGGER.error("error stopping the ecqels runtime", ex);
-        }
     }
 
     public ContinuousSelect registerSelect(String query) {
@@ -176,7 +194,16 @@ public class ECQELSRuntime {
     }
 
     public void send(Node graph, Node s, Node p, Node o) {
-        engine.send(graph, s, p, o);
+        MicroBatcher currentBatcher = batcher;
+        if (currentBatcher != null) {
+            currentBatcher.send(graph, new Triple(s, p, o));
+        } else {
+            engine.send(graph, s, p, o);
+        }
+    }
+
+    public void sendBatch(Node graph, List<Triple> triples) {
+        engine.sendBatch(graph, triples);
     }
 
     public void sendAsync(Quad quad) {
@@ -21,30 +21,39 @@ import com.github.ecqels.continuous.ContinuousQuery;
 import com.github.ecqels.continuous.ContinuousSelect;
 import com.github.ecqels.lang.parser.ParserECQELS;
 import com.github.ecqels.query.execution.QueryExecutor;
+import com.github.ecqels.query.execution.SharedPlanCache;
+import com.github.ecqels.refresh.RefreshScheduler;
+import com.github.ecqels.stream.IngestionPartitions;
+import com.github.ecqels.stream.IngestionQueue;
+import com.github.ecqels.stream.IngestionQueue.OverflowPolicy;
+import com.github.ecqels.stream.StreamExecutor;
+import com.github.ecqels.window.AlphaNetwork.Routing;
+import com.github.ecqels.window.TimingWheel;
+import com.github.ecqels.window.Window;
+import com.github.ecqels.window.WindowRegistry;
 import java.io.ByteArrayInputStream;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiConsumer;
+import org.apache.jena.ext.com.google.common.collect.Interner;
+import org.apache.jena.ext.com.google.common.collect.Interners;
 import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
 import org.apache.jena.query.Dataset;
 import org.apache.jena.query.DatasetFactory;
 import org.apache.jena.query.Query;
+import org.apache.jena.query.ReadWrite;
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.sparql.core.Quad;
 import org.apache.jena.sparql.engine.ExecutionContext;
-import org.apache.jena.tdb.base.file.FileFactory;
-import org.apache.jena.tdb.base.file.FileSet;
-import org.apache.jena.tdb.base.objectfile.ObjectFile;
-import org.apache.jena.tdb.index.IndexFactory;
 import org.apache.jena.tdb.solver.OpExecutorTDB1;
-import org.apache.jena.tdb.store.nodetable.NodeTable;
-import org.apache.jena.tdb.store.nodetable.NodeTableNative;
-import org.apache.jena.tdb.sys.SystemTDB;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -56,59 +65,229 @@ public class Engine {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(Engine.class);
 
-    private final NodeTable dictionary;
     private final Dataset dataset;
     private final ExecutionContext arqExecutionContext;
-    private final ObjectFile dictionaryFileCache;
-    private final Map<ContinuousQuery<?>, QueryExecutor> registeredQueries = new HashMap<>();
-    private final ExecutorService executorPool;
-    private static final ThreadGroup THREAD_GROUP_NAME = new ThreadGroup("ECQELS execution threads");
+    private final SharedPlanCache sharedPlanCache;
+    private final Map<ContinuousQuery<?>, QueryExecutor> registeredQueries = new ConcurrentHashMap<>();
+    // routing index: stream node -> subscribed queries -> their stream executors listening on that node
+    private final Map<Node, Map<QueryExecutor, List<StreamExecutor>>> streamSubscriptions = new ConcurrentHashMap<>();
+    private final ExecutionModel executionModel;
+    private boolean incrementalEvaluation = false;
+    private boolean reteEvaluation = false;
+    private boolean costBasedOptimization = false;
+    private volatile Interner<Node> nodeInterner;
+    private TimingWheel timingWheel;
+    private RefreshScheduler refreshScheduler;
+    private final WindowRegistry windowRegistry = new WindowRegistry(this);
+    private ForkJoinPool parallelPool;
+    private int bindJoinThreshold = DEFAULT_BIND_JOIN_THRESHOLD;
+    private volatile IngestionPartitions ingestion;
+    private int ingestionCapacity = 10000;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+    private int sampleRate = 10;
+    // bind joins are opt-in, they query the static side once more per refresh
+    public static final int DEFAULT_BIND_JOIN_THRESHOLD = 0;
 
     public Engine() {
-        dictionaryFileCache = FileFactory.createObjectFileMem("temp");
-        dictionary = new NodeTableNative(IndexFactory.buildIndex(FileSet.mem(), SystemTDB.nodeRecordFactory), dictionaryFileCache);
-        this.dataset = DatasetFactory.create();
-        this.arqExecutionContext = new ExecutionContext(dataset.getContext(), dataset.asDatasetGraph().getDefaultGraph(), dataset.asDatasetGraph(), OpExecutorTDB1.OpExecFactoryTDB);
-        this.executorPool = Executors.newCachedThreadPool(new ThreadFactory() {
+        this(ExecutionModel.createDefault());
+    }
 
-            @Override
-            public Thread newThread(Runnable r) {
-                Thread t = new Thread(THREAD_GROUP_NAME, r);
-                t.setDaemon(true);
-                return t;
-            }
-        });
+    /**
+     * @param executionModel the threads the engine and all queries registered
+     * on it run on, shut down together with the engine
+     */
+    public Engine(ExecutionModel executionModel) {
+        if (executionModel == null) {
+            throw new IllegalArgumentException("executionModel must be non-null");
+        }
+        this.executionModel = executionModel;
+        // transactional in-memory dataset: readers work on a snapshot, writers publish new versions on commit
+        this.dataset = DatasetFactory.createTxnMem();
+        this.arqExecutionContext = new ExecutionContext(dataset.getContext(), dataset.asDatasetGraph().getDefaultGraph(), dataset.asDatasetGraph(), OpExecutorTDB1.OpExecFactoryTDB);
+        this.sharedPlanCache = new SharedPlanCache(arqExecutionContext);
     }
 
     public void shutdown() {
         try {
             registeredQueries.values().forEach(q -> q.stop());
+            synchronized (this) {
+                if (timingWheel != null) {
+                    timingWheel.stop();
+                    timingWheel = null;
+                }
+                if (refreshScheduler != null) {
+                    refreshScheduler.stop();
+                    refreshScheduler = null;
+                }
+            }
+            setParallelism(1);
+            synchronized (this) {
+                if (ingestion != null) {
+                    ingestion.stop();
+                    ingestion = null;
+                }
+            }
+            executionModel.shutdown();
             dataset.close();
-            dictionaryFileCache.close();
-            dictionary.close();
         } catch (Exception e) {
             LOGGER.debug("Could not should down correctly", e);
         }
     }
 
+    public ExecutionModel getExecutionModel() {
+        return executionModel;
+    }
+
+    public boolean isIncrementalEvaluation() {
+        return incrementalEvaluation;
+    }
+
+    /**
+     * If enabled, windows of queries registered afterwards maintain their
+     * pattern matches incrementally per added/removed quad instead of
+     * re-evaluating the pattern over the whole window. Aggregates over a
+     * stream are then maintained per group as well.
+     */
+    public void setIncrementalEvaluation(boolean incrementalEvaluation) {
+        this.incrementalEvaluation = incrementalEvaluation;
+    }
+
+    public boolean isReteEvaluation() {
+        return reteEvaluation;
+    }
+
+    /**
+     * If enabled, queries registered afterwards are compiled into a
+     * {@link com.github.ecqels.query.rete.ReteNetwork} that propagates only
+     * the changes of refreshed streams and refreshables instead of executing
+     * the whole query plan on every refresh.
+     */
+    public void setReteEvaluation(boolean reteEvaluation) {
+        this.reteEvaluation = reteEvaluation;
+    }
+
+    public boolean isCostBasedOptimization() {
+        return costBasedOptimization;
+    }
+
+    /**
+     * If enabled, queries registered afterwards are optimized by a
+     * {@link com.github.ecqels.algebra.StreamAwareOptimizer} and re-planned
+     * when the observed cardinalities of their windows and refreshables
+     * drift.
+     */
+    public void setCostBasedOptimization(boolean costBasedOptimization) {
+        this.costBasedOptimization = costBasedOptimization;
+    }
+
+    public boolean isNodeInterning() {
+        return nodeInterner != null;
+    }
+
+    /**
+     * If enabled, the nodes of incoming triples are replaced by a canonical
+     * instance shared by all windows and queries, so that node equality
+     * checks during matching and joining mostly succeed on identity.
+     * Canonical instances are only weakly referenced and are collected once
+     * no window or result refers to them anymore.
+     */
+    public void setNodeInterning(boolean nodeInterning) {
+        this.nodeInterner = nodeInterning ? Interners.newWeakInterner() : null;
+    }
+
+    /**
+     * Enables parallel evaluation of independent join and union branches and
+     * of the windows of multi-stream clauses on a pool with the given number
+     * of threads. Applies to queries registered afterwards; a parallelism of
+     * 1 or less disables parallel evaluation.
+     */
+    public synchronized void setParallelism(int parallelism) {
+        if (parallelPool != null) {
+            parallelPool.shutdown();
+            parallelPool = null;
+        }
+        if (parallelism > 1) {
+            parallelPool = new ForkJoinPool(parallelism);
+        }
+    }
+
+    public int getBindJoinThreshold() {
+        return bindJoinThreshold;
+    }
+
+    /**
+     * Sets the maximum number of stream bindings for which a stream-static
+     * join pushes the join values into the static graph or service instead of
+     * joining with the complete static result. The restricted static query is
+     * only issued when the static side is refreshed, so a graph or service is
+     * not queried more often than its refresh interval. Applies to queries
+     * registered afterwards; 0, the default, disables bind joins.
+     */
+    public void setBindJoinThreshold(int bindJoinThreshold) {
+        if (bindJoinThreshold < 0) {
+            throw new IllegalArgumentException("bindJoinThreshold must be non-negative");
+        }
+        this.bindJoinThreshold = bindJoinThreshold;
+    }
+
+    /**
+     * @return the pool for parallel evaluation or null if disabled
+     */
+    public synchronized ForkJoinPool getParallelPool() {
+        return parallelPool;
+    }
+
+    /**
+     * @return the cache of sub-plan results shared between registered queries
+     */
+    public SharedPlanCache getSharedPlanCache() {
+        return sharedPlanCache;
+    }
+
+    public WindowRegistry getWindowRegistry() {
+        return windowRegistry;
+    }
+
+    /**
+     * @return the timing wheel shared by all time-evicted windows of this
+     * engine, created on first use
+     */
+    public synchronized TimingWheel getTimingWheel() {
+        if (timingWheel == null) {
+            timingWheel = new TimingWheel(executionModel.getScheduler(), executionModel.getExecutor());
+        }
+        return timingWheel;
+    }
+
+    /**
+     * @return the scheduler running the refresh tasks of all queries of this
+     * engine, created on first use
+     */
+    public synchronized RefreshScheduler getRefreshScheduler() {
+        if (refreshScheduler == null) {
+            refreshScheduler = new RefreshScheduler(executionModel.getScheduler(), executionModel.getExecutor());
+        }
+        return refreshScheduler;
+    }
+
     public ExecutionContext getARQExecutionContext() {
         return arqExecutionContext;
     }
 
     public void addRDF(String graphUri, String data, String language) {
-        addRDF(dataset.getNamedModel(graphUri), data, language);
+        updateRDF(graphUri, data, language, true);
     }
 
     public void addRDF(String data, String language) {
-        addRDF(dataset.getDefaultModel(), data, language);
+        updateRDF(null, data, language, true);
     }
 
     public void deleteRDF(String graphUri, String data, String language) {
-        deleteRDF(dataset.getNamedModel(graphUri), data, language);
+        updateRDF(graphUri, data, language, false);
     }
 
     public void deleteRDF(String data, String language) {
-        deleteRDF(dataset.getDefaultModel(), data, language);
+        updateRDF(null, data, language, false);
     }
 
     public Dataset getDataset() {
@@ -148,58 +327,228 @@ public class Engine {
         return result;
     }
 
-    public void sendAsync(final Node graph, final Node s, final Node p, final Node o) {
-        LOGGER.debug("data received on stream " + graph + ": " + s + " " + p + " " + o);
-        for (QueryExecutor query : registeredQueries.values()) {
-            executorPool.submit(() -> {
-                query.send(graph, s, p, o);
-                return null;
+    /**
+     * Subscriptions of a stream are only changed inside compute calls on its
+     * entry, so registering cannot add to an entry that is concurrently
+     * removed because it became empty.
+     */
+    public void registerToStream(Node stream, QueryExecutor query, StreamExecutor executor) {
+        streamSubscriptions.compute(stream, (key, subscribers) -> {
+            Map<QueryExecutor, List<StreamExecutor>> result = subscribers == null ? new ConcurrentHashMap<>() : subscribers;
+            result.computeIfAbsent(query, k -> new CopyOnWriteArrayList<>()).add(executor);
+            return result;
+        });
+    }
+
+    public void unregisterFromStream(Node stream, QueryExecutor query, StreamExecutor executor) {
+        streamSubscriptions.computeIfPresent(stream, (key, subscribers) -> {
+            subscribers.computeIfPresent(query, (k, executors) -> {
+                executors.remove(executor);
+                return executors.isEmpty() ? null : executors;
             });
+            return subscribers.isEmpty() ? null : subscribers;
+        });
+    }
+
+    public List<StreamExecutor> getSubscribedStreams(Node stream, QueryExecutor query) {
+        Map<QueryExecutor, List<StreamExecutor>> subscribers = streamSubscriptions.get(stream);
+        if (subscribers == null || !subscribers.containsKey(query)) {
+            return Collections.emptyList();
         }
+        return subscribers.get(query);
+    }
 
+    /**
+     * Enqueues the triple on the bounded ingestion queue of graph and returns
+     * immediately. Triples of one stream are passed in arrival order and in
+     * batches to {@link #sendBatch(Node, List)} by a drain task on the
+     * executor of the {@link ExecutionModel}.
+     *
+     * @see #configureIngestion(int, OverflowPolicy, int)
+     */
+    public void sendAsync(final Node graph, Node s, Node p, Node o) {
+        LOGGER.debug("data received on stream " + graph + ": " + s + " " + p + " " + o);
+        if (!streamSubscriptions.containsKey(graph)) {
+            return;
+        }
+        if (!getIngestion().offer(graph, new Triple(s, p, o))) {
+            LOGGER.debug("ingestion queue of stream " + graph + " full, triple dropped");
+        }
+    }
+
+    /**
+     * Configures the queues used by {@link #sendAsync(Node, Node, Node, Node)}.
+     * Must be called before the first asynchronous send.
+     *
+     * @param capacity the maximum number of triples waiting per stream
+     * @param policy what to do with triples arriving on a full queue
+     * @param sampleRate for {@link OverflowPolicy#SAMPLE}, one out of
+     * sampleRate overflowing triples is kept
+     */
+    public synchronized void configureIngestion(int capacity, OverflowPolicy policy, int sampleRate) {
+        if (ingestion != null) {
+            throw new IllegalStateException("ingestion already started");
+        }
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be > 0");
+        }
+        if (policy == null) {
+            throw new IllegalArgumentException("policy must be non-null");
+        }
+        if (sampleRate <= 0) {
+            throw new IllegalArgumentException("sampleRate must be > 0");
+        }
+        this.ingestionCapacity = capacity;
+        this.overflowPolicy = policy;
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * @return the ingestion queue of stream, exposing its depth and drop
+     * counter, or null if nothing was sent asynchronously on stream yet
+     */
+    public IngestionQueue getIngestionQueue(Node stream) {
+        IngestionPartitions current = ingestion;
+        return current == null ? null : current.getQueue(stream);
+    }
+
+    public Map<Node, IngestionQueue> getIngestionQueues() {
+        IngestionPartitions current = ingestion;
+        return current == null ? Collections.emptyMap() : current.getQueues();
+    }
+
+    private synchronized IngestionPartitions getIngestion() {
+        if (ingestion == null) {
+            ingestion = new IngestionPartitions(this::sendBatch, executionModel.getExecutor(),
+                    Runtime.getRuntime().availableProcessors(), ingestionCapacity, overflowPolicy, sampleRate);
+        }
+        return ingestion;
     }
 
     public void send(Node graph, Node s, Node p, Node o) {
         LOGGER.debug("data received on stream " + graph + ": " + s + " " + p + " " + o);
-        if (registeredQueries.size() > 1) {
-            List<Callable<Void>> tasks = new ArrayList<>(registeredQueries.size());
-            for (QueryExecutor query : registeredQueries.values()) {
+        if (!streamSubscriptions.containsKey(graph)) {
+            return;
+        }
+        route(graph, Collections.singletonList(new Quad(graph, intern(new Triple(s, p, o)))));
+    }
+
+    public void sendBatch(Node graph, List<Triple> triples) {
+        LOGGER.debug("batch of " + triples.size() + " triples received on stream " + graph);
+        if (triples.isEmpty() || !streamSubscriptions.containsKey(graph)) {
+            return;
+        }
+        final List<Quad> quads = new ArrayList<>(triples.size());
+        for (Triple triple : triples) {
+            quads.add(new Quad(graph, intern(triple)));
+        }
+        route(graph, quads);
+    }
+
+    /**
+     * Routes quads only to the windows on graph whose pattern can match
+     * them, queries none of whose windows received a quad are not notified.
+     */
+    private void route(Node graph, List<Quad> quads) {
+        Routing routing = windowRegistry.route(graph, quads);
+        feedSharedWindows(graph, routing);
+        dispatch(graph, (query, streams) -> query.send(graph, streams, routing));
+    }
+
+    /**
+     * Adds quads once to every window on graph that is shared between
+     * queries, before the queries are notified.
+     */
+    private void feedSharedWindows(Node graph, Routing routing) {
+        for (Window window : windowRegistry.getWindows(graph)) {
+            List<Quad> quads = routing.getQuads(window);
+            if (quads.size() == 1) {
+                window.add(quads.get(0));
+            } else if (!quads.isEmpty()) {
+                window.addAll(quads);
+            }
+        }
+    }
+
+    /**
+     * Replaces the nodes of triple by their canonical instances if node
+     * interning is enabled.
+     *
+     * @see #setNodeInterning(boolean)
+     */
+    private Triple intern(Triple triple) {
+        Interner<Node> interner = nodeInterner;
+        if (interner == null) {
+            return triple;
+        }
+        return new Triple(interner.intern(triple.getSubject()),
+                interner.intern(triple.getPredicate()),
+                interner.intern(triple.getObject()));
+    }
+
+    private void dispatch(Node graph, BiConsumer<QueryExecutor, List<StreamExecutor>> action) {
+        Map<QueryExecutor, List<StreamExecutor>> subscribers = streamSubscriptions.get(graph);
+        if (subscribers == null || subscribers.isEmpty()) {
+            return;
+        }
+        if (subscribers.size() > 1) {
+            List<Callable<Void>> tasks = new ArrayList<>(subscribers.size());
+            for (Map.Entry<QueryExecutor, List<StreamExecutor>> subscriber : subscribers.entrySet()) {
                 tasks.add((Callable<Void>) () -> {
-                    query.send(graph, s, p, o);
+                    action.accept(subscriber.getKey(), subscriber.getValue());
                     return null;
                 });
 
             }
             try {
-                executorPool.invokeAll(tasks);
+                executionModel.getExecutor().invokeAll(tasks);
             } catch (InterruptedException ex) {
                 java.util.logging.Logger.getLogger(Engine.class.getName()).log(java.util.logging.Level.SEVERE, null, ex);
             }
         } else {
-            registeredQueries.values().forEach(q -> q.send(graph, s, p, o));
+            subscribers.forEach(action);
         }
     }
 
     private void unregister(ContinuousQuery query) {
-        if (!registeredQueries.containsKey(query)) {
+        QueryExecutor executor = registeredQueries.remove(query);
+        if (executor == null) {
             return;
         }
-        registeredQueries.get(query).stop();
-        registeredQueries.remove(query);
+        executor.stop();
+        for (Node stream : streamSubscriptions.keySet()) {
+            streamSubscriptions.computeIfPresent(stream, (key, subscribers) -> {
+                subscribers.remove(executor);
+                return subscribers.isEmpty() ? null : subscribers;
+            });
+        }
     }
 
-    private void addRDF(Model model, String data, String language) {
+    /**
+     * Applies the change in a single write transaction. Running queries keep
+     * reading the version of the dataset they started with and see the change
+     * from their next evaluation on, the results of static sub-plans cached
+     * per query, in the shared plan cache and in Rete networks are computed
+     * again then.
+     */
+    private void updateRDF(String graphUri, String data, String language, boolean add) {
         if (data.isEmpty()) {
             return;
         }
         Model temp = ModelFactory.createDefaultModel();
         temp.read(new ByteArrayInputStream(data.getBytes()), null, language);
-        model.add(temp);
-    }
-
-    private void deleteRDF(Model model, String data, String language) {
-        Model temp = ModelFactory.createDefaultModel();
-        temp.read(new ByteArrayInputStream(data.getBytes()), null, language);
-        model.remove(temp);
+        dataset.begin(ReadWrite.WRITE);
+        try {
+            Model model = graphUri == null ? dataset.getDefaultModel() : dataset.getNamedModel(graphUri);
+            if (add) {
+                model.add(temp);
+            } else {
+                model.remove(temp);
+            }
+            dataset.commit();
+        } finally {
+            dataset.end();
+        }
+        sharedPlanCache.invalidate();
     }
 }
@@ -0,0 +1,137 @@
+/*
+ *  Copyright (C) 2016 Michael Jacoby.
+ *
+ *  This library is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation, either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.ecqels;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Threads used by an engine and its runtime. Query evaluations, refreshes and
+ * window notifications run as tasks on a single task executor, all periodic
+ * and delayed work is triggered by a single shared scheduler that only
+ * dispatches to the task executor. Long running loops such as runnable
+ * streams get threads of their own so that they cannot starve the tasks.
+ *
+ * @see Engine#Engine(ExecutionModel)
+ */
+public class ExecutionModel {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ExecutionModel.class);
+    private static final int SCHEDULER_THREADS = 1;
+
+    private final ExecutorService executor;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService longRunningExecutor;
+
+    public ExecutionModel(ExecutorService executor, ScheduledExecutorService scheduler, ExecutorService longRunningExecutor) {
+        if (executor == null || scheduler == null || longRunningExecutor == null) {
+            throw new IllegalArgumentException("executors must be non-null");
+        }
+        this.executor = executor;
+        this.scheduler = scheduler;
+        this.longRunningExecutor = longRunningExecutor;
+    }
+
+    /**
+     * @return virtual threads if the JVM supports them, otherwise a
+     * work-stealing pool with one thread per available processor
+     */
+    public static ExecutionModel createDefault() {
+        ExecutionModel result = virtualThreads();
+        return result != null ? result : workStealing(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @return an execution model running tasks on a work-stealing pool of
+     * the given parallelism
+     */
+    public static ExecutionModel workStealing(int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism must be > 0");
+        }
+        return new ExecutionModel(Executors.newWorkStealingPool(parallelism), createScheduler(), Executors.newCachedThreadPool(daemonThreads("ECQELS stream")));
+    }
+
+    /**
+     * @return an execution model running every task and long running loop
+     * on a virtual thread of its own or null if the JVM does not support
+     * virtual threads
+     */
+    public static ExecutionModel virtualThreads() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return new ExecutionModel((ExecutorService) factory.invoke(null), createScheduler(), (ExecutorService) factory.invoke(null));
+        } catch (ReflectiveOperationException e) {
+            LOGGER.debug("virtual threads not supported", e);
+            return null;
+        }
+    }
+
+    private static ScheduledExecutorService createScheduler() {
+        ScheduledThreadPoolExecutor result = new ScheduledThreadPoolExecutor(SCHEDULER_THREADS, daemonThreads("ECQELS scheduler"));
+        result.setRemoveOnCancelPolicy(true);
+        return result;
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        return r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /**
+     * @return the executor for short tasks
+     */
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * @return the scheduler, tasks scheduled on it must be short or hand
+     * their work to {@link #getExecutor()}
+     */
+    public ScheduledExecutorService getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * @return the executor for tasks that run until they are stopped
+     */
+    public ExecutorService getLongRunningExecutor() {
+        return longRunningExecutor;
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+        executor.shutdown();
+        longRunningExecutor.shutdown();
+        try {
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
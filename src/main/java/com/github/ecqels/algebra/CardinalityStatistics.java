@@ -0,0 +1,80 @@
+/*
+ *  Copyright (C) 2016 Michael Jacoby.
+ *
+ *  This library is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation, either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.ecqels.algebra;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.jena.sparql.algebra.Op;
+
+/**
+ * Cardinalities of sub-plans observed at runtime, i.e. the sizes of window
+ * results, refreshable results and cached static results. Every op keeps an
+ * exponential moving average, so single outliers of a window do not dominate
+ * the estimate.
+ */
+public class CardinalityStatistics {
+
+    public static final double DEFAULT_SMOOTHING = 0.5;
+    private final Map<Op, Double> cardinalities = new ConcurrentHashMap<>();
+    private final double smoothing;
+
+    public CardinalityStatistics() {
+        this(DEFAULT_SMOOTHING);
+    }
+
+    /**
+     * @param smoothing weight of a new observation in (0, 1], 1 keeps only the
+     * latest observation
+     */
+    public CardinalityStatistics(double smoothing) {
+        if (smoothing <= 0 || smoothing > 1) {
+            throw new IllegalArgumentException("smoothing must be in (0, 1]");
+        }
+        this.smoothing = smoothing;
+    }
+
+    public void record(Op op, long cardinality) {
+        if (cardinality < 0) {
+            throw new IllegalArgumentException("cardinality must be non-negative");
+        }
+        cardinalities.merge(op, (double) cardinality, (old, current) -> old + smoothing * (current - old));
+    }
+
+    public boolean contains(Op op) {
+        return cardinalities.containsKey(op);
+    }
+
+    /**
+     * @return the estimated cardinality of op or -1 if it has not been
+     * observed yet
+     */
+    public double getCardinality(Op op) {
+        return cardinalities.getOrDefault(op, -1d);
+    }
+
+    /**
+     * @return the current estimates, not updated afterwards
+     */
+    public Map<Op, Double> snapshot() {
+        return new HashMap<>(cardinalities);
+    }
+
+    public void clear() {
+        cardinalities.clear();
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ *  Copyright (C) 2016 Michael Jacoby.
+ *
+ *  This library is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation, either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.ecqels.algebra;
+
+import com.github.ecqels.lang.op.OpStream;
+import com.github.ecqels.util.Utils;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.jena.sparql.algebra.Op;
+import org.apache.jena.sparql.algebra.OpVars;
+import org.apache.jena.sparql.algebra.TransformCopy;
+import org.apache.jena.sparql.algebra.Transformer;
+import org.apache.jena.sparql.algebra.op.Op1;
+import org.apache.jena.sparql.algebra.op.Op2;
+import org.apache.jena.sparql.algebra.op.OpBGP;
+import org.apache.jena.sparql.algebra.op.OpFilter;
+import org.apache.jena.sparql.algebra.op.OpJoin;
+import org.apache.jena.sparql.algebra.op.OpN;
+import org.apache.jena.sparql.algebra.op.OpUnion;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.expr.Expr;
+import org.apache.jena.sparql.expr.ExprFunctionOp;
+import org.apache.jena.sparql.expr.ExprList;
+import org.apache.jena.sparql.expr.ExprVisitorBase;
+import org.apache.jena.sparql.expr.ExprWalker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Optimizer for continuous queries using the {@link CardinalityStatistics}
+ * observed while the query runs. Filters that only use variables of a stream
+ * pattern are pushed into the {@link OpStream}, so they are applied to the
+ * window result before it is cached and joined. Joins are ordered greedily:
+ * the operand with the smallest estimated cardinality first, then always the
+ * smallest operand sharing a variable with the operands joined so far to
+ * avoid cross products. Operands without statistics are estimated as large
+ * and keep their order.
+ *
+ * The plan is only re-ordered again if an estimate drifted by more than
+ * driftThreshold since the last planning, see {@link #needsReplanning()}.
+ */
+public class StreamAwareOptimizer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StreamAwareOptimizer.class);
+    public static final double DEFAULT_DRIFT_THRESHOLD = 2.0;
+    private static final double UNKNOWN = Double.MAX_VALUE;
+    private final CardinalityStatistics statistics;
+    private final double driftThreshold;
+    private Map<Op, Double> planned = Collections.emptyMap();
+
+    public StreamAwareOptimizer(CardinalityStatistics statistics) {
+        this(statistics, DEFAULT_DRIFT_THRESHOLD);
+    }
+
+    /**
+     * @param driftThreshold factor an estimate has to grow or shrink by since
+     * the last planning to trigger re-planning
+     */
+    public StreamAwareOptimizer(CardinalityStatistics statistics, double driftThreshold) {
+        if (driftThreshold <= 1) {
+            throw new IllegalArgumentException("driftThreshold must be greater than 1");
+        }
+        this.statistics = statistics;
+        this.driftThreshold = driftThreshold;
+    }
+
+    public CardinalityStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Pushes filters into streams and orders joins. Must be applied before
+     * the stream ops are registered, as pushing filters creates new stream ops.
+     */
+    public Op optimize(Op op) {
+        return reorderJoins(pushFilters(op));
+    }
+
+    /**
+     * Orders the joins of op by the current estimates. Only joins are
+     * re-arranged, all other ops including the streams stay the same.
+     */
+    public Op reorderJoins(Op op) {
+        planned = statistics.snapshot();
+        Op result = Transformer.transform(new TransformCopy() {
+            @Override
+            public Op transform(OpJoin opJoin, Op left, Op right) {
+                return order(OpJoin.create(left, right));
+            }
+        }, op);
+        LOGGER.debug("planned {} with cardinalities {}", result, planned);
+        return result;
+    }
+
+    /**
+     * @return whether an estimate changed by more than the drift threshold or
+     * an op was observed for the first time since the last planning
+     */
+    public boolean needsReplanning() {
+        for (Map.Entry<Op, Double> entry : statistics.snapshot().entrySet()) {
+            Double before = planned.get(entry.getKey());
+            if (before == null) {
+                return true;
+            }
+            // smoothed, so empty windows do not cause infinite ratios
+            double ratio = (entry.getValue() + 1) / (before + 1);
+            if (ratio > driftThreshold || ratio < 1 / driftThreshold) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Op order(Op join) {
+        List<Op> operands = new ArrayList<>();
+        flatten(join, operands);
+        List<Op> remaining = new ArrayList<>(operands);
+        Op first = smallest(remaining, null);
+        remaining.remove(first);
+        Op result = first;
+        Set<Var> vars = Utils.visibleVars(first);
+        while (!remaining.isEmpty()) {
+            Op next = smallest(remaining, vars);
+            if (next == null) {
+                next = smallest(remaining, null);
+            }
+            remaining.remove(next);
+            result = OpJoin.create(result, next);
+            vars.addAll(Utils.visibleVars(next));
+        }
+        return result;
+    }
+
+    private void flatten(Op op, List<Op> operands) {
+        if (op instanceof OpJoin) {
+            flatten(((OpJoin) op).getLeft(), operands);
+            flatten(((OpJoin) op).getRight(), operands);
+        } else {
+            operands.add(op);
+        }
+    }
+
+    /**
+     * @return the first operand with the smallest estimate, only considering
+     * operands sharing a variable with vars if vars is non-null
+     */
+    private Op smallest(List<Op> operands, Set<Var> vars) {
+        Op result = null;
+        double min = 0;
+        for (Op operand : operands) {
+            if (vars != null && Collections.disjoint(vars, Utils.visibleVars(operand))) {
+                continue;
+            }
+            double estimate = estimate(operand);
+            if (result == null || estimate < min) {
+                result = operand;
+                min = estimate;
+            }
+        }
+        return result;
+    }
+
+    private double estimate(Op op) {
+        if (statistics.contains(op)) {
+            return statistics.getCardinality(op);
+        }
+        if (op instanceof OpJoin) {
+            return Math.min(estimate(((OpJoin) op).getLeft()), estimate(((OpJoin) op).getRight()));
+        }
+        if (op instanceof OpUnion) {
+            return sum(estimate(((OpUnion) op).getLeft()), estimate(((OpUnion) op).getRight()));
+        }
+        if (op instanceof Op1) {
+            return estimate(((Op1) op).getSubOp());
+        }
+        if (op instanceof Op2) {
+            // optional, minus etc. yield at most as much as the left side for each binding
+            return estimate(((Op2) op).getLeft());
+        }
+        if (op instanceof OpN) {
+            double result = 0;
+            for (Op element : ((OpN) op).getElements()) {
+                result = sum(result, estimate(element));
+            }
+            return result;
+        }
+        return UNKNOWN;
+    }
+
+    private static double sum(double a, double b) {
+        return a == UNKNOWN || b == UNKNOWN ? UNKNOWN : a + b;
+    }
+
+    /**
+     * Moves the expressions of filters over a stream or a join of streams
+     * into the streams that bind all their variables.
+     */
+    public Op pushFilters(Op op) {
+        return Transformer.transform(new TransformCopy() {
+            @Override
+            public Op transform(OpFilter opFilter, Op subOp) {
+                List<Op> operands = new ArrayList<>();
+                flatten(subOp, operands);
+                Map<Op, ExprList> pushed = new IdentityHashMap<>();
+                ExprList remaining = new ExprList();
+                for (Expr expr : opFilter.getExprs()) {
+                    OpStream target = findTarget(expr, operands);
+                    if (target == null) {
+                        remaining.add(expr);
+                    } else {
+                        pushed.computeIfAbsent(target, t -> ExprList.copy(((OpStream) t).getFilters())).add(expr);
+                    }
+                }
+                if (pushed.isEmpty()) {
+                    return super.transform(opFilter, subOp);
+                }
+                Op result = replace(subOp, pushed);
+                return remaining.isEmpty() ? result : OpFilter.filter(remaining, result);
+            }
+        }, op);
+    }
+
+    private static OpStream findTarget(Expr expr, List<Op> operands) {
+        Set<Var> vars = expr.getVarsMentioned();
+        if (vars.isEmpty() || containsPattern(expr)) {
+            return null;
+        }
+        for (Op operand : operands) {
+            if (operand instanceof OpStream
+                    && OpVars.visibleVars(new OpBGP(((OpStream) operand).getPattern())).containsAll(vars)) {
+                return (OpStream) operand;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return whether expr contains EXISTS or NOT EXISTS, which are evaluated
+     * against the complete solution and cannot be moved
+     */
+    private static boolean containsPattern(Expr expr) {
+        boolean[] result = new boolean[1];
+        ExprWalker.walk(new ExprVisitorBase() {
+            @Override
+            public void visit(ExprFunctionOp funcOp) {
+                result[0] = true;
+            }
+        }, expr);
+        return result[0];
+    }
+
+    private static Op replace(Op op, Map<Op, ExprList> pushed) {
+        if (op instanceof OpJoin) {
+            return OpJoin.create(replace(((OpJoin) op).getLeft(), pushed), replace(((OpJoin) op).getRight(), pushed));
+        }
+        if (pushed.containsKey(op)) {
+            return ((OpStream) op).withFilters(pushed.get(op));
+        }
+        return op;
+    }
+}
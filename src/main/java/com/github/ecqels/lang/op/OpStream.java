@@ -22,6 +22,7 @@ import org.apache.jena.graph.Node;
 import org.apache.jena.sparql.algebra.Op;
 import org.apache.jena.sparql.algebra.op.OpBGP;
 import org.apache.jena.sparql.algebra.op.OpExt;
+import org.apache.jena.sparql.algebra.op.OpFilter;
 import org.apache.jena.sparql.algebra.op.OpGraph;
 import org.apache.jena.sparql.algebra.op.OpJoin;
 import org.apache.jena.sparql.core.BasicPattern;
@@ -29,7 +30,9 @@ import org.apache.jena.sparql.engine.ExecutionContext;
 import org.apache.jena.sparql.engine.QueryIterator;
 import org.apache.jena.sparql.engine.iterator.QueryIterNullIterator;
 import org.apache.jena.sparql.engine.main.VarFinder;
+import org.apache.jena.sparql.expr.ExprList;
 import org.apache.jena.sparql.serializer.SerializationContext;
+import org.apache.jena.sparql.sse.writers.WriterExpr;
 import org.apache.jena.sparql.sse.writers.WriterOp;
 import org.apache.jena.sparql.util.FmtUtils;
 import org.apache.jena.sparql.util.NodeIsomorphismMap;
@@ -40,8 +43,17 @@ public class OpStream extends OpExt {
     protected final Node node;
     protected final Op subOp;
     protected final BasicPattern pattern;
+    protected final ExprList filters;
 
     public OpStream(Node node, Op subOp, BasicPattern pattern, WindowInfo windowInfo) {
+        this(node, subOp, pattern, windowInfo, new ExprList());
+    }
+
+    /**
+     * @param filters filters over the variables of pattern, applied to the
+     * window results before they enter the query
+     */
+    public OpStream(Node node, Op subOp, BasicPattern pattern, WindowInfo windowInfo, ExprList filters) {
         super("stream");
         if (node.isVariable() && !VarFinder.fixed(subOp).contains(node)) {
             throw new IllegalArgumentException("node '" + node + "' is variable but is not declared in suboperation '" + subOp + "'");
@@ -50,6 +62,7 @@ public class OpStream extends OpExt {
         this.node = node;
         this.subOp = subOp;
         this.pattern = pattern;
+        this.filters = filters;
     }
 
     public WindowInfo getWindowInfo() {
@@ -68,10 +81,19 @@ public class OpStream extends OpExt {
         return subOp;
     }
 
+    public ExprList getFilters() {
+        return filters;
+    }
+
+    public OpStream withFilters(ExprList filters) {
+        return new OpStream(node, subOp, pattern, windowInfo, filters);
+    }
+
     @Override
     public Op effectiveOp() {
         // TODO integrate pattern
-        return OpJoin.create(new OpGraph(node, new OpBGP(pattern)), subOp);
+        Op result = OpJoin.create(new OpGraph(node, new OpBGP(pattern)), subOp);
+        return filters.isEmpty() ? result : OpFilter.filter(filters, result);
     }
 
     @Override
@@ -96,13 +118,17 @@ public class OpStream extends OpExt {
     @Override
     public void outputArgs(IndentedWriter out, SerializationContext sCxt) {
         out.println(FmtUtils.stringForNode(node, sCxt) + "[" + windowInfo.toString() + "] {" + pattern.toString() + "}");
+        if (!filters.isEmpty()) {
+            WriterExpr.output(out, filters, sCxt);
+            out.ensureStartOfLine();
+        }
         out.ensureStartOfLine();
         WriterOp.output(out, subOp, sCxt);
     }
 
     @Override
     public int hashCode() {
-        return node.hashCode() ^ /*pattern.hashCode() ^*/ windowInfo.hashCode();
+        return node.hashCode() ^ pattern.hashCode() ^ windowInfo.hashCode() ^ filters.hashCode();
     }
 
     @Override
@@ -111,6 +137,10 @@ public class OpStream extends OpExt {
             return false;
         }
         OpStream otherOp = (OpStream) other;
-        return otherOp.node.equals(node) && otherOp.subOp.equalTo(subOp, labelMap) && otherOp.windowInfo.equals(windowInfo);
+        return otherOp.node.equals(node)
+                && otherOp.pattern.equiv(pattern, labelMap)
+                && otherOp.subOp.equalTo(subOp, labelMap)
+                && otherOp.windowInfo.equals(windowInfo)
+                && otherOp.filters.equals(filters);
     }
 }
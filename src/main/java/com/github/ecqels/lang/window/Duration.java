@@ -22,9 +22,9 @@ import java.util.regex.Pattern;
 
 public class Duration {
 
-    protected static final Pattern PATTERN_ELEMENT = Pattern.compile("(\\d+)\\s*(d|h|m|s|ms|ns)");
-    protected static final Pattern PATTERN_SUBELEMENT = Pattern.compile("\\d+\\s*(d|h|m|s|ms|ns)");
-    protected static final Pattern PATTERN_ALL = Pattern.compile("(\\d+\\s*(d|h|m|s|ms|ns)\\s*)+");
+    protected static final Pattern PATTERN_ELEMENT = Pattern.compile("(\\d+)\\s*(d|h|ms|ns|m|s)");
+    protected static final Pattern PATTERN_SUBELEMENT = Pattern.compile("\\d+\\s*(d|h|ms|ns|m|s)");
+    protected static final Pattern PATTERN_ALL = Pattern.compile("(\\d+\\s*(d|h|ms|ns|m|s)\\s*)+");
     protected long nanoTime = 0;
     protected String source;
 
@@ -69,6 +69,19 @@ public class Duration {
         return inNanoSec() / (long) 1E6;
     }
 
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == null || !(obj instanceof Duration)) {
+            return false;
+        }
+        return ((Duration) obj).nanoTime == nanoTime;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(nanoTime);
+    }
+
     @Override
     public String toString() {
         return source;
@@ -16,6 +16,8 @@
  */
 package com.github.ecqels.lang.window;
 
+import java.util.Objects;
+
 /**
  *
  * @author Michael Jacoby <michael.jacoby@iosb.fraunhofer.de>
@@ -91,12 +93,17 @@ public class WindowInfo {
         }
         WindowInfo info = (WindowInfo) obj;
         return info.type.equals(type)
-                && (info.size == size || info.size.equals(size))
+                && Objects.equals(info.size, size)
                 && info.tumbling == tumbling
-                && (info.slide == slide || info.slide.equals(slide))
+                && Objects.equals(info.slide, slide)
                 && info.triples == triples;
     }
 
+    @Override
+    public int hashCode() {
+        return Objects.hash(type, size, slide, triples, tumbling);
+    }
+
     /**
      * @return the size
      */
@@ -16,15 +16,49 @@
  */
 package com.github.ecqels.op;
 
+import com.github.ecqels.lang.op.OpRefreshable;
+import com.github.ecqels.lang.op.OpRefreshableGraph;
+import com.github.ecqels.lang.op.OpRefreshableService;
 import com.github.ecqels.lang.op.OpStream;
+import com.github.ecqels.query.execution.IncrementalAggregation;
 import com.github.ecqels.query.execution.QueryExecutionContext;
+import com.github.ecqels.query.execution.SharedPlanCache;
+import com.github.ecqels.query.execution.StaticHashIndex;
+import com.github.ecqels.query.execution.SymmetricHashJoin;
+import com.github.ecqels.query.iterator.BindingBatch;
 import com.github.ecqels.query.iterator.QueryIteratorCopy;
+import com.github.ecqels.util.Utils;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import org.apache.jena.query.ReadWrite;
 import org.apache.jena.sparql.algebra.Op;
+import org.apache.jena.sparql.algebra.Table;
+import org.apache.jena.sparql.algebra.TableFactory;
+import org.apache.jena.sparql.algebra.op.OpGraph;
+import org.apache.jena.sparql.algebra.op.OpGroup;
+import org.apache.jena.sparql.algebra.op.OpJoin;
+import org.apache.jena.sparql.algebra.op.OpSequence;
+import org.apache.jena.sparql.algebra.op.OpService;
+import org.apache.jena.sparql.algebra.op.OpTable;
+import org.apache.jena.sparql.algebra.op.OpUnion;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.Var;
 import org.apache.jena.sparql.engine.ExecutionContext;
 import org.apache.jena.sparql.engine.QueryIterator;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.engine.binding.BindingFactory;
+import org.apache.jena.sparql.engine.binding.BindingMap;
+import org.apache.jena.sparql.engine.iterator.QueryIterConcat;
+import org.apache.jena.sparql.engine.iterator.QueryIterSingleton;
+import org.apache.jena.sparql.engine.join.Join;
 import org.apache.jena.sparql.engine.main.OpExecutor;
 import static org.apache.jena.sparql.engine.main.OpExecutor.createRootQueryIterator;
 import org.apache.jena.sparql.engine.main.OpExecutorFactory;
+import org.apache.jena.sparql.util.Context;
 import org.apache.jena.tdb.solver.OpExecutorTDB1;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -69,8 +103,14 @@ public class CachedOpExecutor extends OpExecutorTDB1 {
         super(execCxt);
     }
 
+    /**
+     * Applies the caching logic to op and, as ARQ evaluates sub-operators
+     * through this method as well, to every operator of the plan. Cached
+     * results are computed without input bindings and joined with the actual
+     * input, so they do not depend on the evaluation that cached them.
+     */
     @Override
-    public QueryIterator executeOp(Op op, QueryIterator input) {
+    protected QueryIterator exec(Op op, QueryIterator input) {
         long start = System.currentTimeMillis();
         QueryIterator resultToReturn = null;
         String executeType = "[unknown]";
@@ -80,44 +120,41 @@ public class CachedOpExecutor extends OpExecutorTDB1 {
             // force refresh occures with Stream, RefreshableStream, RefreshableGraph, RefreshableService
             if (queryContext.isForceRefresh(op)) {
                 executeType = "[execute]";
-                result = super.executeOp(op, input);
+                result = super.exec(op, input);
             } else if (queryContext.isRefreshed(op)) {
                 executeType = "[cache]";
-                input.close();
-                result = queryContext.getCache().get(op);
+                result = joinWithInput(input, queryContext.getCache().get(op));
             } else if (queryContext.isAffectedFromRefresh(op)) {
                 executeType = "[execute]";
-                result = super.executeOp(op, input);
+                result = super.exec(op, input);
                 //if (queryContext.isCacheable(op)) {
                 //    result = queryContext.getCache().put(op, result);
                 //}
             } else if (queryContext.isCacheable(op)) {
                 if (queryContext.getCache().containsKey(op)) {
                     executeType = "[cache]";
-                    input.close();
+                    result = queryContext.getCache().get(op);
                 } else {
                     executeType = "[execute]";
+                    result = queryContext.getCache().put(op, executeShared(queryContext, op, root()));
                 }
 //                result = queryContext.getCache().put(op,
 //                        queryContext.getCache().containsKey(op)
 //                                ? queryContext.getCache().get(op)
-//                                : super.executeOp(op, input));
-                result = queryContext.getCache().containsKey(op)
-                        ? queryContext.getCache().get(op)
-                        : queryContext.getCache().put(op, super.executeOp(op, input));
-
+//                                : super.exec(op, input));
+                result = joinWithInput(input, result);
             } else if (op instanceof OpStream && queryContext.getCache().containsKey(op)) {
                 //always fetch streams from cache as they are resposnible theirselves to refresh themselves!
                 executeType = "[cache]";
-                result = queryContext.getCache().get(op);
+                result = joinWithInput(input, queryContext.getCache().get(op));
             } else {
                 executeType = "[execute]";
-                result = super.executeOp(op, input);
+                result = super.exec(op, input);
             }
             //resultToReturn = result;
             resultToReturn = printIntermediateResult(op, result);
         } else {
-            resultToReturn = printIntermediateResult(op, super.executeOp(op, input));
+            resultToReturn = printIntermediateResult(op, super.exec(op, input));
         }
         if (LOGGER.isDebugEnabled()) {
             LOGGER.debug("execution type: " + executeType + "executing took " + (System.currentTimeMillis() - start) + "ms for op \n" + op);
@@ -125,8 +162,242 @@ public class CachedOpExecutor extends OpExecutorTDB1 {
         return resultToReturn;
     }
 
+    @Override
+    protected QueryIterator execute(OpJoin opJoin, QueryIterator input) {
+        QueryExecutionContext queryContext = getQueryContext();
+        if (queryContext != null && QueryExecutionContext.isStreamJoin(opJoin)) {
+            return executeStreamJoin(queryContext, opJoin, input);
+        }
+        if (queryContext != null && QueryExecutionContext.isStaticJoin(opJoin)) {
+            return executeStaticJoin(queryContext, opJoin, input);
+        }
+        ForkJoinPool pool = getParallelPool();
+        if (pool == null || isTrivial(opJoin.getLeft()) || isTrivial(opJoin.getRight())) {
+            return super.execute(opJoin, input);
+        }
+        ForkJoinTask<QueryIterator> right = pool.submit(() -> executeBranch(opJoin.getRight(), root()));
+        QueryIterator left = exec(opJoin.getLeft(), input);
+        return Join.join(left, right.join(), execCxt);
+    }
+
+    @Override
+    protected QueryIterator execute(OpUnion opUnion, QueryIterator input) {
+        ForkJoinPool pool = getParallelPool();
+        if (pool == null) {
+            return super.execute(opUnion, input);
+        }
+        BindingBatch inputBatch = BindingBatch.of(input);
+        List<ForkJoinTask<QueryIterator>> branches = new ArrayList<>();
+        for (Op branch : flattenUnion(opUnion)) {
+            branches.add(pool.submit(() -> executeBranch(branch, inputBatch.iterator())));
+        }
+        QueryIterConcat result = new QueryIterConcat(execCxt);
+        branches.forEach(branch -> result.add(branch.join()));
+        return result;
+    }
+
+    @Override
+    protected QueryIterator execute(OpGroup opGroup, QueryIterator input) {
+        QueryExecutionContext queryContext = getQueryContext();
+        if (queryContext == null || !queryContext.isIncrementalAggregation(opGroup)) {
+            return super.execute(opGroup, input);
+        }
+        // the groups are updated with the difference to the last window content instead of regrouping the window
+        IncrementalAggregation aggregation = queryContext.getAggregation(opGroup);
+        Op stream = opGroup.getSubOp();
+        if ((queryContext.isRefreshed(stream) || !aggregation.isInitialized()) && queryContext.getCache().containsKey(stream)) {
+            aggregation.refresh(queryContext.getCache().get(stream), execCxt);
+        }
+        QueryIterator result = aggregation.getResult(execCxt);
+        return joinWithInput(input, result);
+    }
+
+    /**
+     * Joins two streams with a {@link SymmetricHashJoin} kept in the query
+     * context, so only the sides refreshed since the last evaluation are
+     * probed against the other side instead of joining both windows again.
+     */
+    private QueryIterator executeStreamJoin(QueryExecutionContext queryContext, OpJoin opJoin, QueryIterator input) {
+        SymmetricHashJoin join = queryContext.getStreamJoin(opJoin);
+        if (queryContext.isRefreshed(opJoin.getLeft()) && queryContext.getCache().containsKey(opJoin.getLeft())) {
+            join.refreshLeft(queryContext.getCache().get(opJoin.getLeft()));
+        }
+        if (queryContext.isRefreshed(opJoin.getRight()) && queryContext.getCache().containsKey(opJoin.getRight())) {
+            join.refreshRight(queryContext.getCache().get(opJoin.getRight()));
+        }
+        QueryIterator result = join.getResult(execCxt);
+        return joinWithInput(input, result);
+    }
+
+    /**
+     * Joins the refreshable side of opJoin with the other side by probing a
+     * {@link StaticHashIndex} over the refreshable result. The index is kept
+     * until the refreshable side is refreshed again. If the other side yields
+     * few bindings when the refreshable side is refreshed, their join values
+     * are pushed into the refreshable op (bind join) and the index only
+     * covers these values; other bindings arriving before the next refresh
+     * probe an index over the complete cached result instead. The restricted
+     * op is thus evaluated at most once per refresh of the refreshable side.
+     */
+    private QueryIterator executeStaticJoin(QueryExecutionContext queryContext, OpJoin opJoin, QueryIterator input) {
+        boolean staticLeft = opJoin.getLeft() instanceof OpRefreshable;
+        Op staticOp = staticLeft ? opJoin.getLeft() : opJoin.getRight();
+        Op otherOp = staticLeft ? opJoin.getRight() : opJoin.getLeft();
+        List<Var> joinVars = Utils.joinVars(staticOp, otherOp);
+        BindingBatch other = BindingBatch.of(exec(otherOp, root()));
+        if (other.isEmpty()) {
+            input.close();
+            return other.iterator();
+        }
+        StaticHashIndex index = queryContext.getStaticIndex(opJoin);
+        boolean refreshed = queryContext.isRefreshed(staticOp);
+        if (index == null || refreshed || !index.covers(other.getBindings())) {
+            Op restricted = refreshed && other.size() <= queryContext.getBindJoinThreshold()
+                    ? restrict((OpRefreshable) staticOp, joinVars, other)
+                    : null;
+            index = restricted != null
+                    ? new StaticHashIndex(joinVars, executeUncached(restricted), other.getBindings())
+                    : new StaticHashIndex(joinVars, exec(staticOp, root()));
+            queryContext.setStaticIndex(opJoin, index);
+        }
+        QueryIterator result = index.probe(other.iterator(), staticLeft, execCxt);
+        return joinWithInput(input, result);
+    }
+
+    /**
+     * Executes op without the query context. Cached operators ignore their
+     * input, so ops that are not part of the query plan must not be executed
+     * through the cache logic.
+     */
+    private QueryIterator executeUncached(Op op) {
+        return executeUncached(op, execCxt);
+    }
+
+    public static QueryIterator executeUncached(Op op, ExecutionContext execCxt) {
+        Context context = execCxt.getContext().copy();
+        context.remove(QueryExecutionContext.SYMBOL);
+        ExecutionContext uncached = new ExecutionContext(context, execCxt.getActiveGraph(), execCxt.getDataset(), OpExecFactoryTDB);
+        return OpExecFactoryTDB.create(uncached).executeOp(op, createRootQueryIterator(uncached));
+    }
+
+    /**
+     * @return the effective op of refreshable restricted to the distinct join
+     * values of bindings, or null if there are no join variables or a binding
+     * leaves one of them unbound
+     */
+    private static Op restrict(OpRefreshable refreshable, List<Var> joinVars, BindingBatch bindings) {
+        if (joinVars.isEmpty()) {
+            return null;
+        }
+        Set<Binding> values = new LinkedHashSet<>();
+        for (Binding binding : bindings.getBindings()) {
+            BindingMap value = BindingFactory.create();
+            for (Var var : joinVars) {
+                if (!binding.contains(var)) {
+                    return null;
+                }
+                value.add(var, binding.get(var));
+            }
+            values.add(value);
+        }
+        Table table = TableFactory.create(joinVars);
+        values.forEach(table::addBinding);
+        if (refreshable instanceof OpRefreshableGraph) {
+            OpGraph graph = ((OpRefreshableGraph) refreshable).getOp();
+            // the values are evaluated first and substituted into the graph pattern
+            return new OpGraph(graph.getNode(), OpSequence.create(OpTable.create(table), graph.getSubOp()));
+        }
+        if (refreshable instanceof OpRefreshableService) {
+            OpService service = ((OpRefreshableService) refreshable).getOp();
+            // without service element the remote query is generated from the sub op and carries the values
+            return new OpService(service.getService(), OpJoin.create(OpTable.create(table), service.getSubOp()), service.getSilent());
+        }
+        return null;
+    }
+
+    private QueryExecutionContext getQueryContext() {
+        if (!execCxt.getContext().isDefined(QueryExecutionContext.SYMBOL)) {
+            return null;
+        }
+        return (QueryExecutionContext) execCxt.getContext().get(QueryExecutionContext.SYMBOL);
+    }
+
+    private ForkJoinPool getParallelPool() {
+        QueryExecutionContext queryContext = getQueryContext();
+        if (queryContext == null) {
+            return null;
+        }
+        ForkJoinPool pool = queryContext.getParallelPool();
+        return pool == null || pool.isShutdown() ? null : pool;
+    }
+
+    /**
+     * Joins result, computed without input bindings, with input.
+     */
+    private QueryIterator joinWithInput(QueryIterator input, QueryIterator result) {
+        if (isRoot(input)) {
+            input.close();
+            return result;
+        }
+        return Join.join(input, result, execCxt);
+    }
+
+    /**
+     * @return whether input yields only the empty binding, so that the result
+     * of an op evaluated on it does not depend on the caller
+     */
+    private static boolean isRoot(QueryIterator input) {
+        return input instanceof QueryIterSingleton && ((QueryIterSingleton) input).getBinding().isEmpty();
+    }
+
+    private static boolean isTrivial(Op op) {
+        return op instanceof OpTable;
+    }
+
+    /**
+     * Evaluates a branch on a pool thread. The branch gets its own executor as
+     * executors are not thread-safe, runs in a read transaction of its own if
+     * the dataset is transactional, and is materialized so that the work is
+     * actually done on the pool thread.
+     */
+    private QueryIterator executeBranch(Op op, QueryIterator input) {
+        DatasetGraph dataset = execCxt.getDataset();
+        boolean transaction = dataset != null && dataset.supportsTransactions() && !dataset.isInTransaction();
+        if (transaction) {
+            dataset.begin(ReadWrite.READ);
+        }
+        try {
+            return new QueryIteratorCopy(execute(op, input, execCxt), execCxt);
+        } finally {
+            if (transaction) {
+                dataset.end();
+            }
+        }
+    }
+
+    /**
+     * Executes a static op through the engine-wide plan cache so that the
+     * same sub-plan is evaluated once for all queries containing it. Only
+     * results without input bindings are shared, they do not depend on the
+     * calling query.
+     */
+    private QueryIterator executeShared(QueryExecutionContext queryContext, Op op, QueryIterator input) {
+        SharedPlanCache sharedPlanCache = queryContext.getSharedPlanCache();
+        if (sharedPlanCache == null || !SharedPlanCache.isStatic(op) || !isRoot(input)) {
+            return super.exec(op, input);
+        }
+        return sharedPlanCache.get(op, queryContext.getDataVersion(), Long.MAX_VALUE, () -> super.exec(op, input));
+    }
+
+    /**
+     * Logs the result of op if trace logging is enabled. Otherwise the result
+     * is returned as is, so that non-cached operators stay lazily pipelined;
+     * results of cached operators are already materialized by the cache.
+     */
     private QueryIterator printIntermediateResult(Op op, QueryIterator iterator) {
-        // return iterator;
+        if (!LOGGER.isTraceEnabled()) {
+            return iterator;
+        }
         QueryIteratorCopy copy;
         if (iterator instanceof QueryIteratorCopy) {
             copy = (QueryIteratorCopy) iterator;
@@ -134,12 +405,10 @@ public class CachedOpExecutor extends OpExecutorTDB1 {
             copy = new QueryIteratorCopy(iterator, execCxt);
         }
 
-        if (LOGGER.isTraceEnabled()) {
-            QueryIterator temp = copy.copy();
-            LOGGER.trace("result for op " + op);
-            while (temp.hasNext()) {
-                LOGGER.trace("-  " + temp.next() + "\n");
-            }
+        QueryIterator temp = copy.copy();
+        LOGGER.trace("result for op " + op);
+        while (temp.hasNext()) {
+            LOGGER.trace("-  " + temp.next() + "\n");
         }
         QueryIterator result = copy.copy();
         copy.close();
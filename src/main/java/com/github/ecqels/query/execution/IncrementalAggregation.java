@@ -0,0 +1,504 @@
+/*
+ *  Copyright (C) 2016 Michael Jacoby.
+ *
+ *  This library is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation, either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.ecqels.query.execution;
+
+import com.github.ecqels.lang.op.OpStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.apache.jena.graph.Node;
+import org.apache.jena.sparql.algebra.op.OpGroup;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.core.VarExprList;
+import org.apache.jena.sparql.engine.ExecutionContext;
+import org.apache.jena.sparql.engine.QueryIterator;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.engine.binding.BindingFactory;
+import org.apache.jena.sparql.engine.binding.BindingMap;
+import org.apache.jena.sparql.engine.iterator.QueryIterPlainWrapper;
+import org.apache.jena.sparql.expr.Expr;
+import org.apache.jena.sparql.expr.ExprAggregator;
+import org.apache.jena.sparql.expr.ExprEvalException;
+import org.apache.jena.sparql.expr.NodeValue;
+import org.apache.jena.sparql.expr.aggregate.AggAvg;
+import org.apache.jena.sparql.expr.aggregate.AggCount;
+import org.apache.jena.sparql.expr.aggregate.AggCountVar;
+import org.apache.jena.sparql.expr.aggregate.AggMax;
+import org.apache.jena.sparql.expr.aggregate.AggMin;
+import org.apache.jena.sparql.expr.aggregate.AggSum;
+import org.apache.jena.sparql.expr.aggregate.Aggregator;
+import org.apache.jena.sparql.expr.nodevalue.XSDFuncOp;
+
+/**
+ * GROUP BY over a stream that is maintained incrementally. Every group keeps
+ * one accumulator per aggregate that can take values back: COUNT and the
+ * exact integer and decimal parts of SUM and AVG subtract the values of
+ * bindings leaving the window, floats and doubles use compensated summation
+ * that is resynchronized from their values, MIN and MAX keep the values of
+ * the group in a sorted multiset. A refresh only updates the groups
+ * of the bindings that entered or left the window, the results of all other
+ * groups are reused.
+ *
+ * Not thread-safe, used from within the synchronized evaluation of a single
+ * query.
+ *
+ * @see com.github.ecqels.op.CachedOpExecutor
+ */
+public class IncrementalAggregation {
+
+    private final VarExprList groupVars;
+    private final List<ExprAggregator> aggregators;
+    private final Map<Binding, Group> groups = new LinkedHashMap<>();
+    private Map<Binding, Integer> bindings = new HashMap<>();
+    private boolean initialized = false;
+
+    public IncrementalAggregation(OpGroup op) {
+        if (!isSupported(op)) {
+            throw new IllegalArgumentException("unsupported aggregation " + op);
+        }
+        this.groupVars = op.getGroupVars();
+        this.aggregators = op.getAggregators();
+    }
+
+    public IncrementalAggregation(VarExprList groupVars, List<ExprAggregator> aggregators) {
+        if (!isSupported(aggregators)) {
+            throw new IllegalArgumentException("unsupported aggregators " + aggregators);
+        }
+        this.groupVars = groupVars;
+        this.aggregators = aggregators;
+    }
+
+    /**
+     * @return whether op groups a stream and uses only COUNT, SUM, AVG, MIN
+     * and MAX without DISTINCT
+     */
+    public static boolean isSupported(OpGroup op) {
+        return op.getSubOp() instanceof OpStream && isSupported(op.getAggregators());
+    }
+
+    /**
+     * @return whether only COUNT, SUM, AVG, MIN and MAX without DISTINCT are
+     * used
+     */
+    public static boolean isSupported(List<ExprAggregator> aggregators) {
+        for (ExprAggregator aggregator : aggregators) {
+            Aggregator agg = aggregator.getAggregator();
+            if (!(agg instanceof AggCount || agg instanceof AggCountVar || agg instanceof AggSum
+                    || agg instanceof AggAvg || agg instanceof AggMin || agg instanceof AggMax)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean isInitialized() {
+        return initialized;
+    }
+
+    /**
+     * Replaces the grouped bindings, only the difference to the previous
+     * bindings is applied to the groups.
+     */
+    public void refresh(QueryIterator input, ExecutionContext execCxt) {
+        Map<Binding, Integer> current = new HashMap<>();
+        while (input.hasNext()) {
+            current.merge(input.nextBinding(), 1, Integer::sum);
+        }
+        input.close();
+        for (Map.Entry<Binding, Integer> entry : current.entrySet()) {
+            int delta = entry.getValue() - bindings.getOrDefault(entry.getKey(), 0);
+            if (delta > 0) {
+                update(entry.getKey(), delta, execCxt);
+            }
+        }
+        for (Map.Entry<Binding, Integer> entry : bindings.entrySet()) {
+            int delta = current.getOrDefault(entry.getKey(), 0) - entry.getValue();
+            if (delta < 0) {
+                update(entry.getKey(), delta, execCxt);
+            }
+        }
+        bindings = current;
+        initialized = true;
+    }
+
+    public void insert(Binding binding, ExecutionContext execCxt) {
+        bindings.merge(binding, 1, Integer::sum);
+        update(binding, 1, execCxt);
+    }
+
+    public void delete(Binding binding, ExecutionContext execCxt) {
+        Integer count = bindings.get(binding);
+        if (count == null) {
+            return;
+        }
+        if (count == 1) {
+            bindings.remove(binding);
+        } else {
+            bindings.put(binding, count - 1);
+        }
+        update(binding, -1, execCxt);
+    }
+
+    /**
+     * @return one binding per group or, like ARQ's group iterator, a single
+     * binding holding the values of the aggregates over no bindings if the
+     * input is empty
+     */
+    public QueryIterator getResult(ExecutionContext execCxt) {
+        List<Binding> result = new ArrayList<>(groups.size());
+        if (groups.isEmpty()) {
+            BindingMap empty = BindingFactory.create();
+            for (ExprAggregator aggregator : aggregators) {
+                Node value = aggregator.getAggregator().getValueEmpty();
+                if (value != null) {
+                    empty.add(aggregator.getVar(), value);
+                }
+            }
+            result.add(empty);
+        }
+        for (Group group : groups.values()) {
+            result.add(group.getResult());
+        }
+        return new QueryIterPlainWrapper(result.iterator(), execCxt);
+    }
+
+    public int size() {
+        return groups.size();
+    }
+
+    public void clear() {
+        groups.clear();
+        bindings.clear();
+        initialized = false;
+    }
+
+    private void update(Binding binding, int multiplicity, ExecutionContext execCxt) {
+        Binding key = key(binding, execCxt);
+        Group group = groups.computeIfAbsent(key, Group::new);
+        group.update(binding, multiplicity, execCxt);
+        if (group.size <= 0) {
+            groups.remove(key);
+        }
+    }
+
+    private Binding key(Binding binding, ExecutionContext execCxt) {
+        BindingMap key = BindingFactory.create();
+        for (Var var : groupVars.getVars()) {
+            Node value = groupVars.get(var, binding, execCxt);
+            if (value != null) {
+                key.add(var, value);
+            }
+        }
+        return key;
+    }
+
+    private class Group {
+
+        private final Binding key;
+        private final Accumulator[] accumulators;
+        private int size = 0;
+        private Binding result;
+
+        Group(Binding key) {
+            this.key = key;
+            this.accumulators = new Accumulator[aggregators.size()];
+            for (int i = 0; i < accumulators.length; i++) {
+                accumulators[i] = createAccumulator(aggregators.get(i).getAggregator());
+            }
+        }
+
+        void update(Binding binding, int multiplicity, ExecutionContext execCxt) {
+            size += multiplicity;
+            for (Accumulator accumulator : accumulators) {
+                accumulator.update(binding, multiplicity, execCxt);
+            }
+            result = null;
+        }
+
+        Binding getResult() {
+            if (result == null) {
+                BindingMap temp = BindingFactory.create(key);
+                for (int i = 0; i < accumulators.length; i++) {
+                    NodeValue value = accumulators[i].getValue();
+                    if (value != null) {
+                        temp.add(aggregators.get(i).getVar(), value.asNode());
+                    }
+                }
+                result = temp;
+            }
+            return result;
+        }
+    }
+
+    private static Accumulator createAccumulator(Aggregator aggregator) {
+        if (aggregator instanceof AggCount) {
+            return new CountAccumulator(null);
+        }
+        Expr expr = aggregator.getExprList().get(0);
+        if (aggregator instanceof AggCountVar) {
+            return new CountAccumulator(expr);
+        }
+        if (aggregator instanceof AggSum) {
+            return new SumAccumulator(expr, false);
+        }
+        if (aggregator instanceof AggAvg) {
+            return new SumAccumulator(expr, true);
+        }
+        return new ExtremumAccumulator(expr, aggregator instanceof AggMax);
+    }
+
+    /**
+     * Aggregate state of a group that supports adding and removing bindings.
+     */
+    private interface Accumulator {
+
+        void update(Binding binding, int multiplicity, ExecutionContext execCxt);
+
+        /**
+         * @return the aggregate value or null if it is unbound
+         */
+        NodeValue getValue();
+    }
+
+    private static class CountAccumulator implements Accumulator {
+
+        private final Expr expr;
+        private long count = 0;
+
+        CountAccumulator(Expr expr) {
+            this.expr = expr;
+        }
+
+        @Override
+        public void update(Binding binding, int multiplicity, ExecutionContext execCxt) {
+            if (expr != null) {
+                try {
+                    expr.eval(binding, execCxt);
+                } catch (ExprEvalException e) {
+                    return;
+                }
+            }
+            count += multiplicity;
+        }
+
+        @Override
+        public NodeValue getValue() {
+            return NodeValue.makeInteger(count);
+        }
+    }
+
+    /**
+     * Sum of the values per numeric type. Integers and decimals are summed
+     * exactly, so subtracting a value yields the same sum as recomputing it.
+     * Floats and doubles are not, subtracting them would accumulate rounding
+     * errors over a long running window, so they are kept in a
+     * {@link CompensatedSum}. The partial sums are combined with the same type
+     * promotion ARQ applies.
+     */
+    private static class SumAccumulator implements Accumulator {
+
+        private final Expr expr;
+        private final boolean average;
+        private BigInteger integers = BigInteger.ZERO;
+        private BigDecimal decimals = BigDecimal.ZERO;
+        private final CompensatedSum floats = new CompensatedSum();
+        private final CompensatedSum doubles = new CompensatedSum();
+        private long integerCount = 0;
+        private long decimalCount = 0;
+        private long floatCount = 0;
+        private long doubleCount = 0;
+        private long errors = 0;
+
+        SumAccumulator(Expr expr, boolean average) {
+            this.expr = expr;
+            this.average = average;
+        }
+
+        @Override
+        public void update(Binding binding, int multiplicity, ExecutionContext execCxt) {
+            NodeValue value;
+            try {
+                value = expr.eval(binding, execCxt);
+            } catch (ExprEvalException e) {
+                errors += multiplicity;
+                return;
+            }
+            if (!value.isNumber()) {
+                errors += multiplicity;
+            } else if (value.isInteger()) {
+                integers = integers.add(value.getInteger().multiply(BigInteger.valueOf(multiplicity)));
+                integerCount += multiplicity;
+            } else if (value.isDecimal()) {
+                decimals = decimals.add(value.getDecimal().multiply(BigDecimal.valueOf(multiplicity)));
+                decimalCount += multiplicity;
+            } else if (value.isFloat()) {
+                floats.update(value.getFloat(), multiplicity);
+                floatCount += multiplicity;
+            } else {
+                doubles.update(value.getDouble(), multiplicity);
+                doubleCount += multiplicity;
+            }
+        }
+
+        @Override
+        public NodeValue getValue() {
+            if (errors > 0) {
+                return null;
+            }
+            NodeValue total = NodeValue.nvZERO;
+            if (integerCount > 0) {
+                total = XSDFuncOp.numAdd(total, NodeValue.makeInteger(integers));
+            }
+            if (decimalCount > 0) {
+                total = XSDFuncOp.numAdd(total, NodeValue.makeDecimal(decimals));
+            }
+            if (floatCount > 0) {
+                total = XSDFuncOp.numAdd(total, NodeValue.makeFloat((float) floats.getSum()));
+            }
+            if (doubleCount > 0) {
+                total = XSDFuncOp.numAdd(total, NodeValue.makeDouble(doubles.getSum()));
+            }
+            long count = integerCount + decimalCount + floatCount + doubleCount;
+            if (!average || count == 0) {
+                return total;
+            }
+            return XSDFuncOp.numDivide(total, NodeValue.makeInteger(count));
+        }
+    }
+
+    /**
+     * Sum of floating point values with Neumaier's compensated summation.
+     * Added values are applied to the running sum, removed ones are
+     * subtracted as long as fewer values were removed than are left, after
+     * that the sum is recomputed from the multiset of values. The error of
+     * the sum is thereby bounded by the values added since the last
+     * recomputation instead of growing with the lifetime of the window, at
+     * amortized constant cost per value.
+     */
+    private static class CompensatedSum {
+
+        private final Map<Double, Long> values = new HashMap<>();
+        private long count = 0;
+        private long removed = 0;
+        private long nonFinite = 0;
+        private double sum = 0;
+        private double compensation = 0;
+
+        void update(double value, int multiplicity) {
+            long current = values.getOrDefault(value, 0L) + multiplicity;
+            if (current > 0) {
+                values.put(value, current);
+            } else {
+                values.remove(value);
+            }
+            count += multiplicity;
+            if (!Double.isFinite(value)) {
+                nonFinite += multiplicity;
+                return;
+            }
+            if (multiplicity < 0) {
+                removed -= multiplicity;
+                if (removed > count) {
+                    recompute();
+                    return;
+                }
+            }
+            add(value * multiplicity);
+        }
+
+        double getSum() {
+            if (nonFinite > 0) {
+                // infinities and NaN dominate the finite values
+                double result = 0;
+                for (double value : values.keySet()) {
+                    if (!Double.isFinite(value)) {
+                        result += value;
+                    }
+                }
+                return result;
+            }
+            return sum + compensation;
+        }
+
+        private void add(double value) {
+            double total = sum + value;
+            if (Math.abs(sum) >= Math.abs(value)) {
+                compensation += (sum - total) + value;
+            } else {
+                compensation += (value - total) + sum;
+            }
+            sum = total;
+        }
+
+        private void recompute() {
+            sum = 0;
+            compensation = 0;
+            removed = 0;
+            for (Map.Entry<Double, Long> entry : values.entrySet()) {
+                if (Double.isFinite(entry.getKey())) {
+                    add(entry.getKey() * entry.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * MIN or MAX over a sorted multiset of the values of a group.
+     */
+    private static class ExtremumAccumulator implements Accumulator {
+
+        private final Expr expr;
+        private final boolean max;
+        private final TreeMap<NodeValue, Integer> values = new TreeMap<>(NodeValue::compareAlways);
+        private long errors = 0;
+
+        ExtremumAccumulator(Expr expr, boolean max) {
+            this.expr = expr;
+            this.max = max;
+        }
+
+        @Override
+        public void update(Binding binding, int multiplicity, ExecutionContext execCxt) {
+            NodeValue value;
+            try {
+                value = expr.eval(binding, execCxt);
+            } catch (ExprEvalException e) {
+                errors += multiplicity;
+                return;
+            }
+            int count = values.getOrDefault(value, 0) + multiplicity;
+            if (count > 0) {
+                values.put(value, count);
+            } else {
+                values.remove(value);
+            }
+        }
+
+        @Override
+        public NodeValue getValue() {
+            if (errors > 0 || values.isEmpty()) {
+                return null;
+            }
+            return max ? values.lastKey() : values.firstKey();
+        }
+    }
+}
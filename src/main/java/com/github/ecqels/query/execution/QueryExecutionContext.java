@@ -21,12 +21,15 @@ import com.github.ecqels.lang.op.OpStream;
 import com.github.ecqels.query.iterator.QueryIteratorCache;
 import java.util.ArrayList;
 import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
 import org.apache.jena.sparql.algebra.Op;
 import org.apache.jena.sparql.algebra.OpVisitorByType;
 import org.apache.jena.sparql.algebra.OpVisitorByTypeBase;
@@ -36,12 +39,26 @@ import org.apache.jena.sparql.algebra.op.Op1;
 import org.apache.jena.sparql.algebra.op.Op2;
 import org.apache.jena.sparql.algebra.op.OpExt;
 import org.apache.jena.sparql.algebra.op.OpFilter;
+import org.apache.jena.sparql.algebra.op.OpGroup;
+import org.apache.jena.sparql.algebra.op.OpJoin;
 import org.apache.jena.sparql.algebra.op.OpLeftJoin;
 import org.apache.jena.sparql.algebra.op.OpN;
 import org.apache.jena.sparql.engine.ExecutionContext;
 import org.apache.jena.sparql.util.Symbol;
 
 /**
+ * Evaluation state of one query.
+ *
+ * Branches of a join or union may be evaluated on the parallel pool (see
+ * {@link #getParallelPool()}) while sharing this context. Pool threads only
+ * read the plan structure and the refresh state, read and write the op cache
+ * and obtain or replace the join, index and aggregation state of the ops of
+ * their own branch. All of these are safe for concurrent access: the plan
+ * structure and the refresh state are immutable snapshots that are replaced
+ * as a whole, the cache and the per-op state maps are concurrent. Replacing
+ * the plan, the refresh state or the data version is only done by the thread
+ * evaluating the query, before or after an evaluation, never while branches
+ * are running.
  *
  * @author Michael Jacoby <michael.jacoby@iosb.fraunhofer.de>
  */
@@ -50,17 +67,38 @@ public class QueryExecutionContext {
     public static Symbol SYMBOL = Symbol.create(QueryExecutionContext.class.getName());
 
     private final QueryIteratorCache<Op> opCache;
-    private final Map<Op, Op> hierachie = new HashMap<>();
-    private final Set<Op> cachables = new HashSet<>();
-    private final Set<Op> refreshedOps = new HashSet<>();
-    private final Set<Op> opsAffectedFromRefresh = new HashSet<>();
-    private final Set<Op> forceRefresh = new HashSet<>();
+    private volatile Map<Op, Op> hierachie = Collections.emptyMap();
+    private volatile Set<Op> cachables = Collections.emptySet();
+    private volatile Set<Op> refreshedOps = Collections.emptySet();
+    private volatile Set<Op> opsAffectedFromRefresh = Collections.emptySet();
+    private final Set<Op> forceRefresh = ConcurrentHashMap.newKeySet();
+    private volatile SharedPlanCache sharedPlanCache;
+    private volatile long dataVersion;
+    private volatile ForkJoinPool parallelPool;
+    private volatile int bindJoinThreshold;
+    // keyed by identity, equal ops at different positions of the plan have their own state
+    private final Map<OpJoin, SymmetricHashJoin> streamJoins = Collections.synchronizedMap(new IdentityHashMap<>());
+    private final Map<OpJoin, StaticHashIndex> staticIndexes = Collections.synchronizedMap(new IdentityHashMap<>());
+    private final Map<OpGroup, IncrementalAggregation> aggregations = Collections.synchronizedMap(new IdentityHashMap<>());
+    private volatile boolean incrementalAggregation = false;
 
     public QueryExecutionContext(Op op, ExecutionContext context) {
         opCache = new QueryIteratorCache<>(context);
         buildOpHierarchie(op);
     }
 
+    /**
+     * Replaces the plan of the query, e.g. after re-planning. The cached
+     * results are kept, the state of the joins and aggregations of the
+     * previous plan is dropped.
+     */
+    public void setOp(Op op) {
+        streamJoins.clear();
+        staticIndexes.clear();
+        aggregations.clear();
+        buildOpHierarchie(op);
+    }
+
     public boolean isForceRefresh(Op op) {
         return forceRefresh.contains(op);
     }
@@ -70,9 +108,7 @@ public class QueryExecutionContext {
     }
 
     public void removeForceRefresh(Op op) {
-        if (forceRefresh.contains(op)) {
-            forceRefresh.remove(op);
-        }
+        forceRefresh.remove(op);
     }
 
     public QueryIteratorCache<Op> getCache() {
@@ -83,8 +119,117 @@ public class QueryExecutionContext {
         return cachables.contains(op);
     }
 
+    public Set<Op> getCacheables() {
+        return cachables;
+    }
+
+    public SharedPlanCache getSharedPlanCache() {
+        return sharedPlanCache;
+    }
+
+    public void setSharedPlanCache(SharedPlanCache sharedPlanCache) {
+        this.sharedPlanCache = sharedPlanCache;
+    }
+
+    /**
+     * @return the version of the static dataset (see
+     * {@link SharedPlanCache#getVersion()}) read by the current evaluation
+     */
+    public long getDataVersion() {
+        return dataVersion;
+    }
+
+    /**
+     * Sets the version of the static dataset read by the next evaluation.
+     * Cached results of static sub-plans computed on another version are
+     * dropped.
+     */
+    public void setDataVersion(long dataVersion) {
+        if (dataVersion != this.dataVersion) {
+            cachables.stream().filter(SharedPlanCache::isStatic).forEach(opCache::remove);
+        }
+        this.dataVersion = dataVersion;
+    }
+
+    /**
+     * @return the pool to evaluate independent branches on or null if the
+     * query is evaluated sequentially
+     */
+    public ForkJoinPool getParallelPool() {
+        return parallelPool;
+    }
+
+    public void setParallelPool(ForkJoinPool parallelPool) {
+        this.parallelPool = parallelPool;
+    }
+
+    /**
+     * @return whether op joins two streams and is evaluated as
+     * {@link SymmetricHashJoin}
+     */
+    public static boolean isStreamJoin(OpJoin op) {
+        return op.getLeft() instanceof OpStream && op.getRight() instanceof OpStream;
+    }
+
+    /**
+     * @return the join state of op, created on first access
+     */
+    public SymmetricHashJoin getStreamJoin(OpJoin op) {
+        return streamJoins.computeIfAbsent(op, x -> new SymmetricHashJoin(x.getLeft(), x.getRight()));
+    }
+
+    /**
+     * @return whether op joins a refreshable graph or service with a
+     * non-refreshable op, so that the refreshable side can be indexed
+     */
+    public static boolean isStaticJoin(OpJoin op) {
+        return op.getLeft() instanceof OpRefreshable ^ op.getRight() instanceof OpRefreshable;
+    }
+
+    /**
+     * @return the index over the refreshable side of op or null if not built
+     * yet
+     */
+    public StaticHashIndex getStaticIndex(OpJoin op) {
+        return staticIndexes.get(op);
+    }
+
+    public void setStaticIndex(OpJoin op, StaticHashIndex index) {
+        staticIndexes.put(op, index);
+    }
+
+    /**
+     * @return the maximum number of stream bindings pushed into the static
+     * side of a stream-static join, 0 if bind joins are disabled
+     */
+    public int getBindJoinThreshold() {
+        return bindJoinThreshold;
+    }
+
+    public void setBindJoinThreshold(int bindJoinThreshold) {
+        this.bindJoinThreshold = bindJoinThreshold;
+    }
+
+    /**
+     * @return whether op is evaluated as {@link IncrementalAggregation}
+     */
+    public boolean isIncrementalAggregation(OpGroup op) {
+        return incrementalAggregation && IncrementalAggregation.isSupported(op);
+    }
+
+    public void setIncrementalAggregation(boolean incrementalAggregation) {
+        this.incrementalAggregation = incrementalAggregation;
+    }
+
+    /**
+     * @return the aggregation state of op, created on first access
+     */
+    public IncrementalAggregation getAggregation(OpGroup op) {
+        return aggregations.computeIfAbsent(op, IncrementalAggregation::new);
+    }
+
     public List<Op> getRefreshedOps() {
-        return refreshedOps.stream().collect(Collectors.toList());
+        return new ArrayList<>(refreshedOps);
     }
 
     public boolean isRefreshed(Op op) {
@@ -96,10 +241,7 @@ public class QueryExecutionContext {
     }
 
     public Op getParent(Op op) {
-        if (hierachie.containsKey(op)) {
-            return hierachie.get(op);
-        }
-        return null;
+        return hierachie.get(op);
     }
 
     public List<Op> getChildren(Op op) {
@@ -184,8 +326,14 @@ public class QueryExecutionContext {
         return visitor.containsRefreshable;
     }
 
+    /**
+     * Builds the parent relation and the cacheable ops of op and publishes
+     * both at once.
+     */
     private void buildOpHierarchie(Op op) {
         final List<Op> refreshables = new ArrayList<>();
+        final Map<Op, Op> hierachie = new HashMap<>();
+        final Set<Op> cachables = new HashSet<>();
 
         op.visit(new OpVisitorByTypeBase() {
             Op parent = null;
@@ -260,28 +408,32 @@ public class QueryExecutionContext {
                 }
             }
         });
+        this.hierachie = Collections.unmodifiableMap(hierachie);
+        this.cachables = Collections.unmodifiableSet(cachables);
     }
 
     public void clearRefreshedOps() {
-        refreshedOps.clear();
-        opsAffectedFromRefresh.clear();
+        refreshedOps = Collections.emptySet();
+        opsAffectedFromRefresh = Collections.emptySet();
     }
 
     public void setRefreshedOps(List<Op> refreshedOps) {
-        this.refreshedOps.clear();
-        this.refreshedOps.addAll(refreshedOps);
-        opsAffectedFromRefresh.clear();
+        Set<Op> affected = new HashSet<>();
         if (refreshedOps != null) {
             for (Op refreshedOp : refreshedOps) {
-                opsAffectedFromRefresh.add(refreshedOp);
+                affected.add(refreshedOp);
                 Op temp = refreshedOp;
                 while (hierachie.containsKey(temp)) {
                     temp = hierachie.get(temp);
-                    if (!opsAffectedFromRefresh.contains(temp)) {
-                        opsAffectedFromRefresh.add(temp);
+                    if (!affected.contains(temp)) {
+                        affected.add(temp);
                     }
                 }
             }
         }
+        this.refreshedOps = refreshedOps == null
+                ? Collections.emptySet()
+                : Collections.unmodifiableSet(new HashSet<>(refreshedOps));
+        this.opsAffectedFromRefresh = Collections.unmodifiableSet(affected);
     }
 }
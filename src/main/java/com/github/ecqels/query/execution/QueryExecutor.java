@@ -18,6 +18,8 @@ package com.github.ecqels.query.execution;
 
 import com.github.ecqels.Engine;
 import com.github.ecqels.algebra.Algebra;
+import com.github.ecqels.algebra.CardinalityStatistics;
+import com.github.ecqels.algebra.StreamAwareOptimizer;
 import com.github.ecqels.event.NewQueryResultAvailableEvent;
 import com.github.ecqels.event.NewQueryResultAvailableListener;
 import com.github.ecqels.event.RefreshRequestedEvent;
@@ -28,26 +30,30 @@ import com.github.ecqels.lang.op.OpRefreshableService;
 import com.github.ecqels.lang.op.OpStream;
 import com.github.ecqels.op.CachedOpExecutor;
 import com.github.ecqels.query.iterator.QueryIteratorCopy;
+import com.github.ecqels.query.rete.ReteNetwork;
 import com.github.ecqels.refresh.RefreshManager;
 import com.github.ecqels.refresh.RefreshRequest;
 import com.github.ecqels.refresh.RefreshRequest.RefreshRequestSource;
 import com.github.ecqels.refresh.UpdateRefreshIntervalsTransform;
 import com.github.ecqels.stream.StreamExecutor;
 import com.github.ecqels.util.Utils;
+import com.github.ecqels.window.AlphaNetwork.Routing;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
-import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.stream.Collectors;
 import javax.swing.event.EventListenerList;
 import org.apache.jena.graph.Node;
 import org.apache.jena.query.Query;
+import org.apache.jena.query.ReadWrite;
 import org.apache.jena.sparql.algebra.Op;
 import org.apache.jena.sparql.algebra.Transformer;
+import org.apache.jena.sparql.algebra.op.OpExt;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.Quad;
 import org.apache.jena.sparql.core.Var;
 import org.apache.jena.sparql.engine.ExecutionContext;
 import org.apache.jena.sparql.engine.QueryIterator;
@@ -79,12 +85,12 @@ public class QueryExecutor implements RefreshRequestedListener {
     protected Op op;
     protected EventListenerList listeners = new EventListenerList();
     protected final List<StreamExecutor> streams = new ArrayList<>();
-    protected ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
-    protected final BlockingQueue<RefreshRequest> refreshRequestQueue = new LinkedBlockingQueue<>();
     protected List<OpRefreshable> refreshables;
-    protected final RefreshManager refreshManager = new RefreshManager();
+    protected final List<Op> sharedOps = new ArrayList<>();
+    protected final RefreshManager refreshManager;
     protected BindingMap initialBinding = BindingFactory.create();
-    private final Map<Node, List<StreamExecutor>> streamRegistrations = new HashMap<>();
+    protected ReteNetwork reteNetwork;
+    protected StreamAwareOptimizer optimizer;
 
     public QueryExecutor(Engine engine, Query query) {
         this(engine, query, new HashMap<>());
@@ -96,34 +102,52 @@ public class QueryExecutor implements RefreshRequestedListener {
 
         //Op opOptimzed = Algebra.optimize(Algebra.compile(query));
         Op opOptimzed = Algebra.compile(query);
-        this.op = Transformer.transform(new UpdateRefreshIntervalsTransform(opOptimzed), opOptimzed);
+        Op op = Transformer.transform(new UpdateRefreshIntervalsTransform(opOptimzed), opOptimzed);
+        if (engine.isCostBasedOptimization()) {
+            optimizer = new StreamAwareOptimizer(new CardinalityStatistics());
+            op = optimizer.optimize(op);
+        }
+        this.op = op;
+        this.refreshManager = new RefreshManager(engine.getRefreshScheduler());
         this.refreshManager.addRefreshRequestedListener(this);
         initVariableBindings(variableBindings);
         init();
     }
 
     public void registerToStream(Node stream, StreamExecutor executor) {
-        if (!streamRegistrations.containsKey(stream)) {
-            streamRegistrations.put(stream, new ArrayList<>());
-        }
-        streamRegistrations.get(stream).add(executor);
+        engine.registerToStream(stream, this, executor);
     }
 
     public void unregisterFromStream(Node stream, StreamExecutor executor) {
-        if (streamRegistrations.containsKey(stream)) {
-            streamRegistrations.get(stream).remove(executor);
-        }
+        engine.unregisterFromStream(stream, this, executor);
     }
 
     public void send(Node graph, Node s, Node p, Node o) {
+        send(graph, engine.getSubscribedStreams(graph, this), s, p, o);
+    }
+
+    public void send(Node graph, List<StreamExecutor> subscribers, Node s, Node p, Node o) {
+        send(graph, subscribers, Collections.singletonList(new Quad(graph, s, p, o)));
+    }
+
+    public void send(Node graph, List<Quad> quads) {
+        send(graph, engine.getSubscribedStreams(graph, this), quads);
+    }
+
+    public void send(Node graph, List<StreamExecutor> subscribers, List<Quad> quads) {
+        if (quads.isEmpty()) {
+            return;
+        }
+        send(graph, subscribers, engine.getWindowRegistry().route(graph, quads));
+    }
+
+    public void send(Node graph, List<StreamExecutor> subscribers, Routing routing) {
         RefreshRequest request = RefreshRequest.empty();
-        if (streamRegistrations.containsKey(graph)) {
-            for (StreamExecutor stream : streamRegistrations.get(graph)) {
-                request.addSource(stream.send(graph, s, p, o));
-            }
+        for (StreamExecutor stream : subscribers) {
+            request.addSource(stream.send(graph, routing));
         }
         if (!request.getSources().isEmpty()) {
-            // need to update
+            // one refresh for all quads
             execute(request);
         }
     }
@@ -149,28 +173,27 @@ public class QueryExecutor implements RefreshRequestedListener {
         stop = true;
         refreshManager.stop();
         streams.stream().forEach((stream) -> stream.stop());
-        executor.shutdownNow();
+        sharedOps.forEach(sharedOp -> engine.getSharedPlanCache().release(sharedOp));
     }
 
     private void init() {
         buildContexts();
         buildStreams();
         buildRefreshables();
-        executor.execute(() -> {
-            while (!isStop()) {
-                try {
-                    execute(refreshRequestQueue.take());
-                } catch (Exception ex) {
-                    //Logger.getLogger(QueryExecutor.class.getName()).log(Level.SEVERE, null, ex);
-                }
-            }
-        });
+        buildSharedOps();
+        if (engine.isReteEvaluation()) {
+            reteNetwork = new ReteNetwork(op);
+        }
     }
 
     protected void buildContexts() {
         executionContext = new ExecutionContext(new Context(), engine.getARQExecutionContext().getActiveGraph(), engine.getARQExecutionContext().getDataset(), CachedOpExecutor.CQELSOpExecFactory);
         queryExecutionContext = new QueryExecutionContext(op, executionContext);
         executionContext.getContext().set(QueryExecutionContext.SYMBOL, queryExecutionContext);
+        queryExecutionContext.setSharedPlanCache(engine.getSharedPlanCache());
+        queryExecutionContext.setParallelPool(engine.getParallelPool());
+        queryExecutionContext.setBindJoinThreshold(engine.getBindJoinThreshold());
+        queryExecutionContext.setIncrementalAggregation(engine.isIncrementalEvaluation());
     }
 
     protected void buildStreams() {
@@ -206,6 +229,22 @@ public class QueryExecutor implements RefreshRequestedListener {
         refreshables.addAll(Utils.<OpRefreshable, OpRefreshableService>findInstacesOf(op, OpRefreshableService.class));
     }
 
+    /**
+     * Registers the sub-plans of this query that can be shared with other
+     * queries, i.e. static cacheable sub-plans and refreshables.
+     */
+    protected void buildSharedOps() {
+        for (Op cacheable : queryExecutionContext.getCacheables()) {
+            if (SharedPlanCache.isStatic(cacheable)) {
+                sharedOps.add(cacheable);
+            }
+        }
+        for (OpRefreshable refreshable : refreshables) {
+            sharedOps.add((Op) refreshable);
+        }
+        sharedOps.forEach(sharedOp -> engine.getSharedPlanCache().retain(sharedOp));
+    }
+
     protected void startStreams() {
         for (StreamExecutor stream : streams) {
             stream.start();
@@ -218,25 +257,113 @@ public class QueryExecutor implements RefreshRequestedListener {
 
                 @Override
                 public RefreshRequest call() throws Exception {
-                    return new RefreshRequest((Op) refreshable, QC.execute((Op) refreshable, CachedOpExecutor.createRootQueryIterator(executionContext), executionContext));
+                    // refresh timers are aligned, so other queries refreshing the same op in this round are served from the shared result
+                    // the effective op is executed as the refreshable itself would be served from the query cache
+                    return new RefreshRequest((Op) refreshable, engine.getSharedPlanCache().get((Op) refreshable, refreshable.getDuration().inMiliSec() / 2,
+                            () -> QC.execute(((OpExt) refreshable).effectiveOp(), CachedOpExecutor.createRootQueryIterator(executionContext), executionContext)));
                 }
             }, refreshable.getDuration().inMiliSec());
         }
     }
 
+    /**
+     * Evaluates the query for a refresh. Synchronized per query only, the
+     * static dataset is read in a read transaction so that queries evaluate in
+     * parallel on consistent snapshots.
+     */
     protected synchronized void execute(RefreshRequest refreshRequest) {
-        executionContext.getDataset().getLock().enterCriticalSection(true);
+        DatasetGraph dataset = executionContext.getDataset();
+        boolean transaction = dataset.supportsTransactions() && !dataset.isInTransaction();
+        // taken before the snapshot, so results are never tagged newer than the data they are computed on
+        queryExecutionContext.setDataVersion(engine.getSharedPlanCache().getVersion());
+        if (transaction) {
+            dataset.begin(ReadWrite.READ);
+        }
+        try {
+            evaluate(refreshRequest);
+        } finally {
+            if (transaction) {
+                dataset.end();
+            }
+        }
+    }
+
+    private void evaluate(RefreshRequest refreshRequest) {
         List<Op> refreshedOps = new ArrayList<>();
         for (RefreshRequestSource source : refreshRequest.getSources()) {
             queryExecutionContext.getCache().put(source.getOp(), source.getResult());
             refreshedOps.add(source.getOp());
         }
+        if (optimizer != null) {
+            for (Op refreshedOp : refreshedOps) {
+                optimizer.getStatistics().record(refreshedOp, queryExecutionContext.getCache().size(refreshedOp));
+            }
+            if (optimizer.needsReplanning() && replan()) {
+                // the new plan has no join state yet, so all cached sources have to be read again
+                addCachedSources(refreshedOps);
+            }
+        }
         queryExecutionContext.setRefreshedOps(refreshedOps);
-        QueryIterator result = QC.execute(op, initialBinding, executionContext);
+        QueryIterator result;
+        if (reteNetwork != null) {
+            result = reteNetwork.refresh(initialBinding, executionContext, queryExecutionContext);
+        } else {
+            // operators below are evaluated lazily, so the result has to be pulled while the refresh state is still set
+            result = new QueryIteratorCopy(QC.execute(op, initialBinding, executionContext), executionContext);
+        }
         queryExecutionContext.clearRefreshedOps();
+        if (optimizer != null) {
+            recordCacheables();
+        }
         // check if result it is not a dummy result
         processResult(result, queryExecutionContext);
-        executionContext.getDataset().getLock().leaveCriticalSection();
+    }
+
+    /**
+     * Re-orders the joins of the query by the current statistics. Streams and
+     * refreshables stay the same, so windows, schedules and cached results
+     * are kept.
+     *
+     * @return whether the plan changed
+     */
+    private boolean replan() {
+        Op replanned = optimizer.reorderJoins(op);
+        if (replanned.equals(op)) {
+            return false;
+        }
+        LOGGER.debug("re-planned query {}", query);
+        op = replanned;
+        queryExecutionContext.setOp(op);
+        sharedOps.forEach(sharedOp -> engine.getSharedPlanCache().release(sharedOp));
+        sharedOps.clear();
+        buildSharedOps();
+        if (reteNetwork != null) {
+            reteNetwork = new ReteNetwork(op);
+        }
+        return true;
+    }
+
+    private void addCachedSources(List<Op> refreshedOps) {
+        List<Op> sources = new ArrayList<>(Utils.findInstacesOf(op, OpStream.class));
+        sources.addAll(refreshables.stream().map(refreshable -> (Op) refreshable).collect(Collectors.toList()));
+        for (Op source : sources) {
+            if (!refreshedOps.contains(source) && queryExecutionContext.getCache().containsKey(source)) {
+                refreshedOps.add(source);
+            }
+        }
+    }
+
+    /**
+     * Records the sizes of the cached static sub-plans, they are only
+     * evaluated once and never refreshed.
+     */
+    private void recordCacheables() {
+        for (Op cacheable : queryExecutionContext.getCacheables()) {
+            if (SharedPlanCache.isStatic(cacheable) && !optimizer.getStatistics().contains(cacheable)
+                    && queryExecutionContext.getCache().containsKey(cacheable)) {
+                optimizer.getStatistics().record(cacheable, queryExecutionContext.getCache().size(cacheable));
+            }
+        }
     }
 
     private void processResult(QueryIterator result, QueryExecutionContext queryExecutionContext) {
@@ -289,7 +416,6 @@ public class QueryExecutor implements RefreshRequestedListener {
 
     @Override
     public void refreshRequested(RefreshRequestedEvent e) {
-        //refreshRequestQueue.add(e.getRefreshRequest());
         execute(e.getRefreshRequest());
     }
 
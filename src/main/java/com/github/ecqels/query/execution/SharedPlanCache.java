@@ -0,0 +1,292 @@
+/*
+ *  Copyright (C) 2016 Michael Jacoby.
+ *
+ *  This library is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation, either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.ecqels.query.execution;
+
+import com.github.ecqels.lang.op.OpRefreshable;
+import com.github.ecqels.lang.op.OpRefreshableGraph;
+import com.github.ecqels.lang.op.OpRefreshableService;
+import com.github.ecqels.lang.op.OpStream;
+import com.github.ecqels.query.iterator.QueryIteratorCopy;
+import com.github.ecqels.util.Utils;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.sparql.algebra.Op;
+import org.apache.jena.sparql.algebra.OpVisitorByType;
+import org.apache.jena.sparql.algebra.OpWalker.WalkerVisitor;
+import org.apache.jena.sparql.algebra.op.Op0;
+import org.apache.jena.sparql.algebra.op.Op1;
+import org.apache.jena.sparql.algebra.op.Op2;
+import org.apache.jena.sparql.algebra.op.OpBGP;
+import org.apache.jena.sparql.algebra.op.OpExt;
+import org.apache.jena.sparql.algebra.op.OpFilter;
+import org.apache.jena.sparql.algebra.op.OpGraph;
+import org.apache.jena.sparql.algebra.op.OpLeftJoin;
+import org.apache.jena.sparql.algebra.op.OpN;
+import org.apache.jena.sparql.algebra.op.OpQuadPattern;
+import org.apache.jena.sparql.algebra.op.OpService;
+import org.apache.jena.sparql.algebra.op.OpTriple;
+import org.apache.jena.sparql.engine.ExecutionContext;
+import org.apache.jena.sparql.engine.QueryIterator;
+import org.apache.jena.sparql.util.NodeIsomorphismMap;
+
+/**
+ * Engine-wide cache of sub-plan results shared between registered queries.
+ * Sub-plans are identified by structural equality modulo blank node
+ * variables, so a sub-plan occurring in several queries is evaluated once and
+ * its result is handed to every query as a copy.
+ *
+ * Entries are reference-counted by the queries that contain the sub-plan and
+ * dropped when the last of them is unregistered. Results are tagged with the
+ * version of the static dataset they were computed on, every committed update
+ * of the dataset starts a new version and thereby invalidates all results.
+ */
+public class SharedPlanCache {
+
+    private final Map<OpKey, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong version = new AtomicLong();
+    private final ExecutionContext context;
+
+    public SharedPlanCache(ExecutionContext context) {
+        this.context = context;
+    }
+
+    /**
+     * @return true if the result of op only depends on the static dataset
+     * and can therefore be shared without expiry
+     */
+    public static boolean isStatic(Op op) {
+        return !Utils.checkContainsInstacesOf(op, OpStream.class, OpRefreshable.class);
+    }
+
+    public void retain(Op op) {
+        entries.compute(new OpKey(op), (key, entry) -> {
+            Entry result = entry == null ? new Entry() : entry;
+            result.references++;
+            return result;
+        });
+    }
+
+    public void release(Op op) {
+        entries.computeIfPresent(new OpKey(op), (key, entry) -> {
+            entry.references--;
+            return entry.references > 0 ? entry : null;
+        });
+    }
+
+    /**
+     * @return the current version of the static dataset
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * Starts a new version of the static dataset, to be called after an
+     * update was committed. Results computed on older versions are not
+     * handed out anymore.
+     */
+    public void invalidate() {
+        version.incrementAndGet();
+    }
+
+    /**
+     * Returns the shared result of op, computing it if there is none or the
+     * existing one is older than maxAge milliseconds. compute must open its
+     * own read transaction, so that it reads at least the current version.
+     * Ops that were not retained before are computed without being cached.
+     */
+    public QueryIterator get(Op op, long maxAge, Supplier<QueryIterator> compute) {
+        return get(op, getVersion(), maxAge, compute);
+    }
+
+    /**
+     * Returns the shared result of op, computing it if there is none, the
+     * existing one was computed on a version older than dataVersion or is
+     * older than maxAge milliseconds. Ops that were not retained before are
+     * computed without being cached.
+     *
+     * @param dataVersion the version read by compute, to be taken by
+     * {@link #getVersion()} before the read transaction of compute started
+     */
+    public QueryIterator get(Op op, long dataVersion, long maxAge, Supplier<QueryIterator> compute) {
+        Entry entry = entries.get(new OpKey(op));
+        if (entry == null) {
+            return compute.get();
+        }
+        synchronized (entry) {
+            long now = System.currentTimeMillis();
+            if (entry.result == null || entry.version < dataVersion || now - entry.timestamp > maxAge) {
+                QueryIteratorCopy result = new QueryIteratorCopy(compute.get(), context);
+                result.close();
+                entry.result = result;
+                entry.version = dataVersion;
+                entry.timestamp = now;
+            }
+            return entry.result.copy();
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private static class Entry {
+
+        private int references = 0;
+        private QueryIteratorCopy result;
+        private long version;
+        private long timestamp;
+    }
+
+    private static class OpKey {
+
+        private final Op op;
+        private final int hash;
+
+        OpKey(Op op) {
+            this.op = op;
+            this.hash = hash(op);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == null || !(obj instanceof OpKey)) {
+                return false;
+            }
+            return op.equalTo(((OpKey) obj).op, new NodeIsomorphismMap());
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        /**
+         * Hashes the structure of op, i.e. the types of the operators and the
+         * constant nodes of their patterns. Variables and blank nodes are
+         * left out, so ops that are equal modulo renaming get the same hash.
+         */
+        private static int hash(Op op) {
+            HashVisitor visitor = new HashVisitor();
+            op.visit(new WalkerVisitor(visitor) {
+                @Override
+                protected void visitExt(OpExt op) {
+                    if (op instanceof OpStream) {
+                        ((OpStream) op).getSubOp().visit(this);
+                    }
+                    if (op instanceof OpRefreshableGraph) {
+                        ((OpRefreshableGraph) op).getOp().visit(this);
+                    }
+                    if (op instanceof OpRefreshableService) {
+                        ((OpRefreshableService) op).getOp().visit(this);
+                    }
+                    super.visitExt(op);
+                }
+            });
+            return visitor.hash;
+        }
+    }
+
+    private static class HashVisitor extends OpVisitorByType {
+
+        private int hash = 1;
+
+        @Override
+        public void visit(OpBGP op) {
+            op.getPattern().forEach(this::add);
+            visit0(op);
+        }
+
+        @Override
+        public void visit(OpTriple op) {
+            add(op.getTriple());
+            visit0(op);
+        }
+
+        @Override
+        public void visit(OpQuadPattern op) {
+            add(op.getGraphNode());
+            op.getBasicPattern().forEach(this::add);
+            visit0(op);
+        }
+
+        @Override
+        public void visit(OpGraph op) {
+            add(op.getNode());
+            visit1(op);
+        }
+
+        @Override
+        public void visit(OpService op) {
+            add(op.getService());
+            visit1(op);
+        }
+
+        @Override
+        protected void visitN(OpN op) {
+            add(op);
+        }
+
+        @Override
+        protected void visit2(Op2 op) {
+            add(op);
+        }
+
+        @Override
+        protected void visit1(Op1 op) {
+            add(op);
+        }
+
+        @Override
+        protected void visit0(Op0 op) {
+            add(op);
+        }
+
+        @Override
+        protected void visitExt(OpExt op) {
+            // extensions compare by instanceof, so their type is left out
+        }
+
+        @Override
+        protected void visitFilter(OpFilter op) {
+            add(op);
+        }
+
+        @Override
+        protected void visitLeftJoin(OpLeftJoin op) {
+            add(op);
+        }
+
+        private void add(Op op) {
+            hash = 31 * hash + op.getClass().getName().hashCode();
+        }
+
+        private void add(Triple triple) {
+            add(triple.getSubject());
+            add(triple.getPredicate());
+            add(triple.getObject());
+        }
+
+        private void add(Node node) {
+            hash = 31 * hash + (node.isVariable() || node.isBlank() ? 0 : node.hashCode());
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ *  Copyright (C) 2016 Michael Jacoby.
+ *
+ *  This library is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation, either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.ecqels.query.execution;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.jena.graph.Node;
+import org.apache.jena.sparql.algebra.Algebra;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.engine.ExecutionContext;
+import org.apache.jena.sparql.engine.QueryIterator;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.engine.iterator.QueryIterPlainWrapper;
+
+/**
+ * Hash index over the result of a refreshable op, i.e. the static side of a
+ * stream-static join. Built once per refresh of the static side, every stream
+ * binding then probes the index instead of being joined with the complete
+ * static result.
+ *
+ * Bindings that leave a join variable unbound cannot be hashed, they are kept
+ * apart and checked for compatibility on every probe.
+ *
+ * An index built from a static result restricted to the join values of some
+ * stream bindings (bind join) is only complete for these join values, see
+ * {@link #covers(List)}.
+ */
+public class StaticHashIndex {
+
+    private final List<Var> joinVars;
+    private final Map<List<Node>, List<Binding>> index = new HashMap<>();
+    private final List<Binding> unbound = new ArrayList<>();
+    // join values the index is complete for, null if complete for all
+    private final Set<List<Node>> covered;
+
+    public StaticHashIndex(List<Var> joinVars, QueryIterator bindings) {
+        this(joinVars, bindings, null);
+    }
+
+    /**
+     * @param bindings the static result restricted to the join values of
+     * probes
+     * @param probes the stream bindings the static result was restricted to
+     * or null if it is complete
+     */
+    public StaticHashIndex(List<Var> joinVars, QueryIterator bindings, List<Binding> probes) {
+        this.joinVars = joinVars;
+        if (probes == null) {
+            covered = null;
+        } else {
+            covered = new HashSet<>();
+            for (Binding probe : probes) {
+                List<Node> key = key(probe);
+                if (key != null) {
+                    covered.add(key);
+                }
+            }
+        }
+        while (bindings.hasNext()) {
+            Binding binding = bindings.nextBinding();
+            List<Node> key = key(binding);
+            if (key == null) {
+                unbound.add(binding);
+            } else {
+                index.computeIfAbsent(key, k -> new ArrayList<>()).add(binding);
+            }
+        }
+        bindings.close();
+    }
+
+    /**
+     * Joins each binding of input with the matching static bindings.
+     *
+     * @param staticLeft whether the static side is the left side of the join,
+     * only determines the order in which bindings are merged
+     */
+    public QueryIterator probe(QueryIterator input, boolean staticLeft, ExecutionContext execCxt) {
+        List<Binding> result = new ArrayList<>();
+        while (input.hasNext()) {
+            Binding binding = input.nextBinding();
+            List<Node> key = key(binding);
+            if (key == null) {
+                // unbound join variable, compatible to every static binding
+                index.values().forEach(matches -> merge(binding, matches, staticLeft, result));
+            } else {
+                merge(binding, index.getOrDefault(key, Collections.emptyList()), staticLeft, result);
+            }
+            merge(binding, unbound, staticLeft, result);
+        }
+        input.close();
+        return new QueryIterPlainWrapper(result.iterator(), execCxt);
+    }
+
+    /**
+     * @return whether probing with bindings yields the same result as
+     * probing an index over the complete static result
+     */
+    public boolean covers(List<Binding> bindings) {
+        if (covered == null) {
+            return true;
+        }
+        for (Binding binding : bindings) {
+            List<Node> key = key(binding);
+            if (key == null || !covered.contains(key)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int size() {
+        return unbound.size() + index.values().stream().mapToInt(List::size).sum();
+    }
+
+    private static void merge(Binding binding, List<Binding> matches, boolean staticLeft, List<Binding> result) {
+        for (Binding match : matches) {
+            Binding merged = staticLeft ? Algebra.merge(match, binding) : Algebra.merge(binding, match);
+            if (merged != null) {
+                result.add(merged);
+            }
+        }
+    }
+
+    /**
+     * @return the values of the join variables or null if one is unbound
+     */
+    private List<Node> key(Binding binding) {
+        List<Node> key = new ArrayList<>(joinVars.size());
+        for (Var var : joinVars) {
+            Node value = binding.get(var);
+            if (value == null) {
+                return null;
+            }
+            key.add(value);
+        }
+        return key;
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ *  Copyright (C) 2016 Michael Jacoby.
+ *
+ *  This library is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation, either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.ecqels.query.execution;
+
+import com.github.ecqels.util.Utils;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.jena.graph.Node;
+import org.apache.jena.sparql.algebra.Algebra;
+import org.apache.jena.sparql.algebra.Op;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.engine.ExecutionContext;
+import org.apache.jena.sparql.engine.QueryIterator;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.engine.iterator.QueryIterPlainWrapper;
+
+/**
+ * Join of two stream results that is maintained incrementally. Each side
+ * keeps a hash table of its bindings keyed on the shared variables, a binding
+ * entering or leaving one side is only probed against the table of the other
+ * side. The join result is kept as multiset as well and therefore only
+ * changes by the matches of the changed bindings.
+ *
+ * Not thread-safe, used from within the synchronized evaluation of a single
+ * query.
+ *
+ * @see com.github.ecqels.op.CachedOpExecutor
+ */
+public class SymmetricHashJoin {
+
+    private final List<Var> joinVars;
+    private final Side left = new Side();
+    private final Side right = new Side();
+    private final Map<Binding, Integer> result = new LinkedHashMap<>();
+
+    public SymmetricHashJoin(Op left, Op right) {
+        this.joinVars = Utils.joinVars(left, right);
+    }
+
+    public List<Var> getJoinVars() {
+        return Collections.unmodifiableList(joinVars);
+    }
+
+    /**
+     * Replaces the bindings of the left side, only the difference to the
+     * previous bindings is joined.
+     */
+    public void refreshLeft(QueryIterator bindings) {
+        refresh(left, right, true, bindings);
+    }
+
+    /**
+     * Replaces the bindings of the right side, only the difference to the
+     * previous bindings is joined.
+     */
+    public void refreshRight(QueryIterator bindings) {
+        refresh(right, left, false, bindings);
+    }
+
+    public void insertLeft(Binding binding) {
+        update(left, right, true, binding, 1);
+    }
+
+    public void insertRight(Binding binding) {
+        update(right, left, false, binding, 1);
+    }
+
+    public void deleteLeft(Binding binding) {
+        update(left, right, true, binding, -1);
+    }
+
+    public void deleteRight(Binding binding) {
+        update(right, left, false, binding, -1);
+    }
+
+    public QueryIterator getResult(ExecutionContext execCxt) {
+        List<Binding> bindings = new ArrayList<>();
+        for (Map.Entry<Binding, Integer> entry : result.entrySet()) {
+            for (int i = 0; i < entry.getValue(); i++) {
+                bindings.add(entry.getKey());
+            }
+        }
+        return new QueryIterPlainWrapper(bindings.iterator(), execCxt);
+    }
+
+    public int size() {
+        return result.values().stream().mapToInt(Integer::intValue).sum();
+    }
+
+    public void clear() {
+        left.clear();
+        right.clear();
+        result.clear();
+    }
+
+    private void refresh(Side side, Side other, boolean isLeft, QueryIterator bindings) {
+        Map<Binding, Integer> current = new HashMap<>();
+        while (bindings.hasNext()) {
+            current.merge(bindings.nextBinding(), 1, Integer::sum);
+        }
+        bindings.close();
+        for (Map.Entry<Binding, Integer> entry : new ArrayList<>(side.counts.entrySet())) {
+            int diff = current.getOrDefault(entry.getKey(), 0) - entry.getValue();
+            if (diff < 0) {
+                update(side, other, isLeft, entry.getKey(), diff);
+            }
+        }
+        for (Map.Entry<Binding, Integer> entry : current.entrySet()) {
+            int diff = entry.getValue() - side.counts.getOrDefault(entry.getKey(), 0);
+            if (diff > 0) {
+                update(side, other, isLeft, entry.getKey(), diff);
+            }
+        }
+    }
+
+    private void update(Side side, Side other, boolean isLeft, Binding binding, int count) {
+        List<Node> key = key(binding);
+        if (!side.update(key, binding, count)) {
+            return;
+        }
+        Map<Binding, Integer> matches = other.table.get(key);
+        if (matches == null) {
+            return;
+        }
+        for (Map.Entry<Binding, Integer> match : matches.entrySet()) {
+            Binding merged = isLeft
+                    ? Algebra.merge(binding, match.getKey())
+                    : Algebra.merge(match.getKey(), binding);
+            if (merged != null) {
+                add(result, merged, count * match.getValue());
+            }
+        }
+    }
+
+    private List<Node> key(Binding binding) {
+        List<Node> key = new ArrayList<>(joinVars.size());
+        for (Var var : joinVars) {
+            key.add(binding.get(var));
+        }
+        return key;
+    }
+
+    private static boolean add(Map<Binding, Integer> multiset, Binding binding, int count) {
+        int current = multiset.getOrDefault(binding, 0);
+        if (current + count < 0) {
+            return false;
+        }
+        if (current + count == 0) {
+            multiset.remove(binding);
+        } else {
+            multiset.put(binding, current + count);
+        }
+        return true;
+    }
+
+    private static class Side {
+
+        private final Map<List<Node>, Map<Binding, Integer>> table = new HashMap<>();
+        private final Map<Binding, Integer> counts = new HashMap<>();
+
+        /**
+         * @return false if binding is deleted more often than it was inserted
+         */
+        private boolean update(List<Node> key, Binding binding, int count) {
+            if (!add(counts, binding, count)) {
+                return false;
+            }
+            Map<Binding, Integer> bucket = table.computeIfAbsent(key, k -> new LinkedHashMap<>());
+            add(bucket, binding, count);
+            if (bucket.isEmpty()) {
+                table.remove(key);
+            }
+            return true;
+        }
+
+        private void clear() {
+            table.clear();
+            counts.clear();
+        }
+    }
+}
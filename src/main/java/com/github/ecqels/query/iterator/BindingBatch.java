@@ -0,0 +1,131 @@
+/*
+ *  Copyright (C) 2016 Michael Jacoby.
+ *
+ *  This library is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation, either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.ecqels.query.iterator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.apache.jena.atlas.io.IndentedWriter;
+import org.apache.jena.sparql.engine.QueryIterator;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.engine.iterator.QueryIter;
+import org.apache.jena.sparql.serializer.SerializationContext;
+
+/**
+ * Immutable, materialized sequence of bindings. Batches are shared between
+ * caches, operators and listeners instead of being copied: every consumer
+ * reads the batch through its own {@link BatchIterator}, and materializing an
+ * untouched batch iterator again yields the same batch.
+ */
+public class BindingBatch {
+
+    public static final BindingBatch EMPTY = new BindingBatch(Collections.emptyList());
+
+    private final List<Binding> bindings;
+
+    private BindingBatch(List<Binding> bindings) {
+        this.bindings = bindings;
+    }
+
+    /**
+     * Materializes iterator into a batch and closes it. If iterator is an
+     * untouched iterator over a batch (or a {@link QueryIteratorCopy} of one),
+     * that batch is returned without copying.
+     */
+    public static BindingBatch of(QueryIterator iterator) {
+        BindingBatch shared = sharedBatch(iterator);
+        if (shared != null) {
+            iterator.close();
+            return shared;
+        }
+        List<Binding> bindings = new ArrayList<>();
+        while (iterator.hasNext()) {
+            bindings.add(iterator.nextBinding());
+        }
+        iterator.close();
+        return bindings.isEmpty() ? EMPTY : new BindingBatch(Collections.unmodifiableList(bindings));
+    }
+
+    private static BindingBatch sharedBatch(QueryIterator iterator) {
+        if (iterator instanceof BatchIterator) {
+            return ((BatchIterator) iterator).isUntouched() ? ((BatchIterator) iterator).batch : null;
+        }
+        if (iterator instanceof QueryIteratorCopy) {
+            return sharedBatch(((QueryIteratorCopy) iterator).iterator);
+        }
+        return null;
+    }
+
+    public List<Binding> getBindings() {
+        return bindings;
+    }
+
+    public int size() {
+        return bindings.size();
+    }
+
+    public boolean isEmpty() {
+        return bindings.isEmpty();
+    }
+
+    /**
+     * @return a new iterator over this batch
+     */
+    public QueryIterator iterator() {
+        return new BatchIterator(this);
+    }
+
+    public static class BatchIterator extends QueryIter {
+
+        private final BindingBatch batch;
+        private int position = 0;
+        private boolean closed = false;
+
+        BatchIterator(BindingBatch batch) {
+            super(null);
+            this.batch = batch;
+        }
+
+        boolean isUntouched() {
+            return position == 0 && !closed;
+        }
+
+        @Override
+        protected boolean hasNextBinding() {
+            return position < batch.bindings.size();
+        }
+
+        @Override
+        protected Binding moveToNextBinding() {
+            return batch.bindings.get(position++);
+        }
+
+        @Override
+        protected void closeIterator() {
+            closed = true;
+        }
+
+        @Override
+        protected void requestCancel() {
+        }
+
+        @Override
+        public void output(IndentedWriter out, SerializationContext sCxt) {
+            out.print("BindingBatch[" + batch.size() + "]");
+        }
+    }
+}
@@ -43,8 +43,9 @@ public class QueryIteratorCache<T> {
         if (cache.containsKey(key)) {
             cache.get(key).close();
         }
-        cache.put(key, new QueryIteratorCopy(value, context));
-        return cache.get(key);
+        QueryIteratorCopy copy = new QueryIteratorCopy(value, context);
+        cache.put(key, copy);
+        return copy.copy();
     }
 
     public QueryIterator get(T key) {
@@ -55,6 +56,15 @@ public class QueryIteratorCache<T> {
         return null;
     }
 
+    /**
+     * @return the number of bindings cached for key or -1 if nothing is
+     * cached
+     */
+    public int size(T key) {
+        QueryIteratorCopy iterator = cache.get(key);
+        return iterator == null ? -1 : iterator.elements().size();
+    }
+
     public QueryIterator remove(T key) {
         return cache.remove(key);
     }
@@ -16,15 +16,12 @@
  */
 package com.github.ecqels.query.iterator;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import org.apache.jena.atlas.io.IndentedWriter;
 import org.apache.jena.sparql.engine.ExecutionContext;
 import org.apache.jena.sparql.engine.QueryIterator;
 import org.apache.jena.sparql.engine.binding.Binding;
 import org.apache.jena.sparql.engine.iterator.QueryIter;
-import org.apache.jena.sparql.engine.iterator.QueryIterPlainWrapper;
 import org.apache.jena.sparql.serializer.SerializationContext;
 
 /**
@@ -33,18 +30,13 @@ import org.apache.jena.sparql.serializer.SerializationContext;
  */
 public class QueryIteratorCopy extends QueryIter {
 
-    List<Binding> elements = new ArrayList<>();
-    QueryIterator iterator;
+    final BindingBatch batch;
+    final QueryIterator iterator;
 
     public QueryIteratorCopy(QueryIterator qIter, ExecutionContext execContext) {
         super(execContext);
-        synchronized (this) {
-            for (; qIter.hasNext();) {
-                elements.add(qIter.nextBinding());
-            }
-            qIter.close();
-            iterator = copy();
-        }
+        batch = BindingBatch.of(qIter);
+        iterator = batch.iterator();
     }
 
     @Override
@@ -60,11 +52,15 @@ public class QueryIteratorCopy extends QueryIter {
     }
 
     public List<Binding> elements() {
-        return Collections.unmodifiableList(elements);
+        return batch.getBindings();
+    }
+
+    public BindingBatch getBatch() {
+        return batch;
     }
 
     public QueryIterator copy() {
-        return new QueryIterPlainWrapper(elements.iterator());
+        return batch.iterator();
     }
 
     @Override
@@ -0,0 +1,147 @@
+/*
+ *  Copyright (C) 2016 Michael Jacoby.
+ *
+ *  This library is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation, either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.ecqels.query.rete;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import org.apache.jena.sparql.engine.QueryIterator;
+import org.apache.jena.sparql.engine.binding.Binding;
+
+/**
+ * Multiset of bindings, the memory of a node of a {@link ReteNetwork}.
+ */
+class BindingMultiset implements Iterable<Binding> {
+
+    private Map<Binding, Integer> counts = new HashMap<>();
+    private int size = 0;
+
+    public int count(Binding binding) {
+        return counts.getOrDefault(binding, 0);
+    }
+
+    /**
+     * @return the multiplicity of binding after adding delta to it
+     */
+    public int add(Binding binding, int delta) {
+        int count = count(binding) + delta;
+        if (count < 0) {
+            // deletion of a binding that was never inserted
+            delta -= count;
+            count = 0;
+        }
+        if (count == 0) {
+            counts.remove(binding);
+        } else {
+            counts.put(binding, count);
+        }
+        size += delta;
+        return count;
+    }
+
+    public void apply(Delta delta) {
+        delta.getInserted().forEach(binding -> add(binding, 1));
+        delta.getDeleted().forEach(binding -> add(binding, -1));
+    }
+
+    /**
+     * Replaces the content by bindings.
+     *
+     * @return the difference to the previous content
+     */
+    public Delta replace(QueryIterator bindings) {
+        List<Binding> current = new ArrayList<>();
+        while (bindings.hasNext()) {
+            current.add(bindings.nextBinding());
+        }
+        bindings.close();
+        return replace(current);
+    }
+
+    public Delta replace(List<Binding> bindings) {
+        Map<Binding, Integer> current = new HashMap<>();
+        bindings.forEach(binding -> current.merge(binding, 1, Integer::sum));
+        List<Binding> inserted = new ArrayList<>();
+        List<Binding> deleted = new ArrayList<>();
+        for (Map.Entry<Binding, Integer> entry : current.entrySet()) {
+            for (int i = count(entry.getKey()); i < entry.getValue(); i++) {
+                inserted.add(entry.getKey());
+            }
+        }
+        for (Map.Entry<Binding, Integer> entry : counts.entrySet()) {
+            for (int i = current.getOrDefault(entry.getKey(), 0); i < entry.getValue(); i++) {
+                deleted.add(entry.getKey());
+            }
+        }
+        counts = current;
+        size = bindings.size();
+        return inserted.isEmpty() && deleted.isEmpty() ? Delta.EMPTY : new Delta(inserted, deleted);
+    }
+
+    public Map<Binding, Integer> asMap() {
+        return Collections.unmodifiableMap(counts);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        counts.clear();
+        size = 0;
+    }
+
+    /**
+     * @return every binding as often as it is contained
+     */
+    @Override
+    public Iterator<Binding> iterator() {
+        Iterator<Map.Entry<Binding, Integer>> entries = counts.entrySet().iterator();
+        return new Iterator<Binding>() {
+
+            private Binding current;
+            private int remaining = 0;
+
+            @Override
+            public boolean hasNext() {
+                return remaining > 0 || entries.hasNext();
+            }
+
+            @Override
+            public Binding next() {
+                if (remaining == 0) {
+                    if (!entries.hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    Map.Entry<Binding, Integer> entry = entries.next();
+                    current = entry.getKey();
+                    remaining = entry.getValue();
+                }
+                remaining--;
+                return current;
+            }
+        };
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ *  Copyright (C) 2016 Michael Jacoby.
+ *
+ *  This library is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation, either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.ecqels.query.rete;
+
+import java.util.Collections;
+import java.util.List;
+import org.apache.jena.sparql.engine.binding.Binding;
+
+/**
+ * Change of the output of a {@link ReteNode}: the bindings inserted and
+ * deleted by a refresh, both as multisets.
+ */
+class Delta {
+
+    public static final Delta EMPTY = new Delta(Collections.emptyList(), Collections.emptyList());
+
+    private final List<Binding> inserted;
+    private final List<Binding> deleted;
+
+    public Delta(List<Binding> inserted, List<Binding> deleted) {
+        this.inserted = inserted;
+        this.deleted = deleted;
+    }
+
+    public List<Binding> getInserted() {
+        return inserted;
+    }
+
+    public List<Binding> getDeleted() {
+        return deleted;
+    }
+
+    public boolean isEmpty() {
+        return inserted.isEmpty() && deleted.isEmpty();
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ *  Copyright (C) 2016 Michael Jacoby.
+ *
+ *  This library is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation, either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.ecqels.query.rete;
+
+import com.github.ecqels.query.execution.QueryExecutionContext;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.jena.sparql.algebra.Op;
+import org.apache.jena.sparql.engine.ExecutionContext;
+import org.apache.jena.sparql.engine.binding.Binding;
+
+/**
+ * DISTINCT and REDUCED. Counts the multiplicity of every input binding and
+ * only emits a binding when its count changes from or to zero.
+ */
+class DistinctNode extends ReteNode {
+
+    private final BindingMultiset counts = new BindingMultiset();
+
+    public DistinctNode(Op op, ReteNode child) {
+        super(op, child);
+    }
+
+    @Override
+    protected Delta evaluate(ExecutionContext execCxt, QueryExecutionContext queryContext) {
+        Delta delta = children.get(0).propagate(execCxt, queryContext);
+        if (delta.isEmpty()) {
+            return Delta.EMPTY;
+        }
+        List<Binding> inserted = new ArrayList<>();
+        List<Binding> deleted = new ArrayList<>();
+        for (Binding binding : delta.getInserted()) {
+            if (counts.add(binding, 1) == 1) {
+                inserted.add(binding);
+            }
+        }
+        for (Binding binding : delta.getDeleted()) {
+            if (counts.count(binding) > 0 && counts.add(binding, -1) == 0) {
+                deleted.add(binding);
+            }
+        }
+        return new Delta(inserted, deleted);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ *  Copyright (C) 2016 Michael Jacoby.
+ *
+ *  This library is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation, either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.ecqels.query.rete;
+
+import com.github.ecqels.query.execution.QueryExecutionContext;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.jena.graph.Node;
+import org.apache.jena.sparql.algebra.op.OpExtend;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.core.VarExprList;
+import org.apache.jena.sparql.engine.ExecutionContext;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.engine.binding.BindingFactory;
+import org.apache.jena.sparql.engine.binding.BindingMap;
+
+/**
+ * BIND, evaluation errors leave the variable unbound. Extended bindings are
+ * remembered per input binding, so a deletion removes exactly the binding
+ * that was inserted.
+ */
+class ExtendNode extends ReteNode {
+
+    private final VarExprList exprs;
+    private final Map<Binding, Extension> extensions = new HashMap<>();
+
+    public ExtendNode(OpExtend op, ReteNode child) {
+        super(op, child);
+        this.exprs = op.getVarExprList();
+    }
+
+    @Override
+    protected Delta evaluate(ExecutionContext execCxt, QueryExecutionContext queryContext) {
+        Delta delta = children.get(0).propagate(execCxt, queryContext);
+        if (delta.isEmpty()) {
+            return Delta.EMPTY;
+        }
+        List<Binding> inserted = new ArrayList<>();
+        List<Binding> deleted = new ArrayList<>();
+        for (Binding binding : delta.getInserted()) {
+            Extension extension = extensions.computeIfAbsent(binding, b -> new Extension(extend(b, execCxt)));
+            extension.count++;
+            if (extension.binding != null) {
+                inserted.add(extension.binding);
+            }
+        }
+        for (Binding binding : delta.getDeleted()) {
+            Extension extension = extensions.get(binding);
+            if (extension == null) {
+                continue;
+            }
+            if (--extension.count == 0) {
+                extensions.remove(binding);
+            }
+            if (extension.binding != null) {
+                deleted.add(extension.binding);
+            }
+        }
+        return new Delta(inserted, deleted);
+    }
+
+    private Binding extend(Binding binding, ExecutionContext execCxt) {
+        BindingMap result = BindingFactory.create(binding);
+        for (Var var : exprs.getVars()) {
+            Node value = exprs.get(var, result, execCxt);
+            if (value == null) {
+                continue;
+            }
+            if (result.contains(var)) {
+                if (!value.equals(result.get(var))) {
+                    return null;
+                }
+                continue;
+            }
+            result.add(var, value);
+        }
+        return result;
+    }
+
+    private static class Extension {
+
+        private final Binding binding;
+        private int count = 0;
+
+        private Extension(Binding binding) {
+            this.binding = binding;
+        }
+    }
+}
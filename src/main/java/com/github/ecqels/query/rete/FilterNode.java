@@ -0,0 +1,64 @@
+/*
+ *  Copyright (C) 2016 Michael Jacoby.
+ *
+ *  This library is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation, either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.ecqels.query.rete;
+
+import com.github.ecqels.query.execution.QueryExecutionContext;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.jena.sparql.algebra.op.OpFilter;
+import org.apache.jena.sparql.engine.ExecutionContext;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.expr.ExprList;
+
+/**
+ * Filters inserted bindings. The bindings that passed are remembered, so
+ * deletions are not evaluated again and stay consistent even for
+ * non-deterministic expressions.
+ */
+class FilterNode extends ReteNode {
+
+    private final ExprList exprs;
+    private final BindingMultiset passed = new BindingMultiset();
+
+    public FilterNode(OpFilter op, ReteNode child) {
+        super(op, child);
+        this.exprs = op.getExprs();
+    }
+
+    @Override
+    protected Delta evaluate(ExecutionContext execCxt, QueryExecutionContext queryContext) {
+        Delta delta = children.get(0).propagate(execCxt, queryContext);
+        if (delta.isEmpty()) {
+            return Delta.EMPTY;
+        }
+        List<Binding> inserted = new ArrayList<>();
+        List<Binding> deleted = new ArrayList<>();
+        for (Binding binding : delta.getInserted()) {
+            if (passed.count(binding) > 0 || exprs.isSatisfied(binding, execCxt)) {
+                passed.add(binding, 1);
+                inserted.add(binding);
+            }
+        }
+        for (Binding binding : delta.getDeleted()) {
+            if (passed.count(binding) > 0) {
+                passed.add(binding, -1);
+                deleted.add(binding);
+            }
+        }
+        return new Delta(inserted, deleted);
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ *  Copyright (C) 2016 Michael Jacoby.
+ *
+ *  This library is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation, either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.ecqels.query.rete;
+
+import com.github.ecqels.query.execution.IncrementalAggregation;
+import com.github.ecqels.query.execution.QueryExecutionContext;
+import org.apache.jena.sparql.algebra.op.OpGroup;
+import org.apache.jena.sparql.engine.ExecutionContext;
+import org.apache.jena.sparql.engine.binding.Binding;
+
+/**
+ * GROUP BY maintained by an {@link IncrementalAggregation}, the output delta
+ * is the difference of the group results before and after the refresh.
+ */
+class GroupNode extends ReteNode {
+
+    private final IncrementalAggregation aggregation;
+    private final BindingMultiset output = new BindingMultiset();
+
+    public GroupNode(OpGroup op, ReteNode child) {
+        super(op, child);
+        this.aggregation = new IncrementalAggregation(op.getGroupVars(), op.getAggregators());
+    }
+
+    @Override
+    protected Delta evaluate(ExecutionContext execCxt, QueryExecutionContext queryContext) {
+        Delta delta = children.get(0).propagate(execCxt, queryContext);
+        if (delta.isEmpty() && isInitialized()) {
+            return Delta.EMPTY;
+        }
+        for (Binding binding : delta.getInserted()) {
+            aggregation.insert(binding, execCxt);
+        }
+        for (Binding binding : delta.getDeleted()) {
+            aggregation.delete(binding, execCxt);
+        }
+        return output.replace(aggregation.getResult(execCxt));
+    }
+}
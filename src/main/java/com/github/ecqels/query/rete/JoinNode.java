@@ -0,0 +1,126 @@
+/*
+ *  Copyright (C) 2016 Michael Jacoby.
+ *
+ *  This library is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation, either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.ecqels.query.rete;
+
+import com.github.ecqels.query.execution.QueryExecutionContext;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.jena.graph.Node;
+import org.apache.jena.sparql.algebra.Algebra;
+import org.apache.jena.sparql.algebra.Op;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.engine.ExecutionContext;
+import org.apache.jena.sparql.engine.binding.Binding;
+
+/**
+ * Beta node joining the outputs of two nodes. Both sides are kept in a hash
+ * memory on the join variables, so a delta of one side only probes the
+ * matching bindings of the other side. The left delta is joined with the
+ * right side as it was before this refresh, the right delta with the already
+ * updated left side, which together is exactly the change of the join.
+ */
+class JoinNode extends ReteNode {
+
+    private final List<Var> joinVars;
+    private final Memory leftMemory = new Memory();
+    private final Memory rightMemory = new Memory();
+
+    public JoinNode(Op op, ReteNode left, ReteNode right, List<Var> joinVars) {
+        super(op, left, right);
+        this.joinVars = joinVars;
+    }
+
+    @Override
+    protected Delta evaluate(ExecutionContext execCxt, QueryExecutionContext queryContext) {
+        Delta left = children.get(0).propagate(execCxt, queryContext);
+        Delta right = children.get(1).propagate(execCxt, queryContext);
+        if (left.isEmpty() && right.isEmpty()) {
+            return Delta.EMPTY;
+        }
+        List<Binding> inserted = new ArrayList<>();
+        List<Binding> deleted = new ArrayList<>();
+        for (Binding binding : left.getInserted()) {
+            rightMemory.probe(binding, true, inserted);
+            leftMemory.add(binding, 1);
+        }
+        for (Binding binding : left.getDeleted()) {
+            rightMemory.probe(binding, true, deleted);
+            leftMemory.add(binding, -1);
+        }
+        for (Binding binding : right.getInserted()) {
+            leftMemory.probe(binding, false, inserted);
+            rightMemory.add(binding, 1);
+        }
+        for (Binding binding : right.getDeleted()) {
+            leftMemory.probe(binding, false, deleted);
+            rightMemory.add(binding, -1);
+        }
+        return new Delta(inserted, deleted);
+    }
+
+    private List<Node> key(Binding binding) {
+        List<Node> key = new ArrayList<>(joinVars.size());
+        for (Var var : joinVars) {
+            Node value = binding.get(var);
+            if (value == null) {
+                return null;
+            }
+            key.add(value);
+        }
+        return key;
+    }
+
+    private class Memory {
+
+        private final Map<List<Node>, BindingMultiset> index = new HashMap<>();
+        // bindings leaving a join variable unbound, compatible to every key
+        private final BindingMultiset unbound = new BindingMultiset();
+
+        private void add(Binding binding, int delta) {
+            List<Node> key = key(binding);
+            if (key == null) {
+                unbound.add(binding, delta);
+                return;
+            }
+            BindingMultiset bucket = index.computeIfAbsent(key, k -> new BindingMultiset());
+            bucket.add(binding, delta);
+            if (bucket.isEmpty()) {
+                index.remove(key);
+            }
+        }
+
+        private void probe(Binding binding, boolean memoryRight, List<Binding> result) {
+            List<Node> key = key(binding);
+            if (key == null) {
+                index.values().forEach(bucket -> merge(binding, bucket, memoryRight, result));
+            } else if (index.containsKey(key)) {
+                merge(binding, index.get(key), memoryRight, result);
+            }
+            merge(binding, unbound, memoryRight, result);
+        }
+
+        private void merge(Binding binding, BindingMultiset matches, boolean memoryRight, List<Binding> result) {
+            for (Binding match : matches) {
+                if (Algebra.compatible(binding, match)) {
+                    result.add(memoryRight ? Algebra.merge(binding, match) : Algebra.merge(match, binding));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ *  Copyright (C) 2016 Michael Jacoby.
+ *
+ *  This library is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation, either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.ecqels.query.rete;
+
+import com.github.ecqels.query.execution.QueryExecutionContext;
+import java.util.List;
+import org.apache.jena.sparql.algebra.Op;
+import org.apache.jena.sparql.engine.ExecutionContext;
+import org.apache.jena.sparql.engine.binding.BindingFactory;
+import org.apache.jena.sparql.engine.main.QC;
+
+/**
+ * Operator the network cannot look into, e.g. an unknown {@link
+ * org.apache.jena.sparql.algebra.op.OpExt}. It is executed again through the
+ * query executor whenever a stream or refreshable inside of it is refreshed
+ * or the static dataset changed.
+ */
+class OpaqueNode extends ReteNode {
+
+    private final BindingMultiset output = new BindingMultiset();
+
+    public OpaqueNode(Op op, List<Op> sources) {
+        super(op);
+        this.sources.addAll(sources);
+    }
+
+    @Override
+    protected boolean readsStaticData() {
+        return true;
+    }
+
+    @Override
+    protected Delta evaluate(ExecutionContext execCxt, QueryExecutionContext queryContext) {
+        return output.replace(QC.execute(op, BindingFactory.root(), execCxt));
+    }
+}
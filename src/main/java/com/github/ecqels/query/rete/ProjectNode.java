@@ -0,0 +1,63 @@
+/*
+ *  Copyright (C) 2016 Michael Jacoby.
+ *
+ *  This library is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation, either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.ecqels.query.rete;
+
+import com.github.ecqels.query.execution.QueryExecutionContext;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.jena.sparql.algebra.op.OpProject;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.engine.ExecutionContext;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.engine.binding.BindingFactory;
+import org.apache.jena.sparql.engine.binding.BindingMap;
+
+/**
+ * Projection, stateless.
+ */
+class ProjectNode extends ReteNode {
+
+    private final List<Var> vars;
+
+    public ProjectNode(OpProject op, ReteNode child) {
+        super(op, child);
+        this.vars = op.getVars();
+    }
+
+    @Override
+    protected Delta evaluate(ExecutionContext execCxt, QueryExecutionContext queryContext) {
+        Delta delta = children.get(0).propagate(execCxt, queryContext);
+        if (delta.isEmpty()) {
+            return Delta.EMPTY;
+        }
+        return new Delta(project(delta.getInserted()), project(delta.getDeleted()));
+    }
+
+    private List<Binding> project(List<Binding> bindings) {
+        List<Binding> result = new ArrayList<>(bindings.size());
+        for (Binding binding : bindings) {
+            BindingMap projected = BindingFactory.create();
+            for (Var var : vars) {
+                if (binding.contains(var)) {
+                    projected.add(var, binding.get(var));
+                }
+            }
+            result.add(projected);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ *  Copyright (C) 2016 Michael Jacoby.
+ *
+ *  This library is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation, either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.ecqels.query.rete;
+
+import com.github.ecqels.op.CachedOpExecutor;
+import com.github.ecqels.query.execution.QueryExecutionContext;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import org.apache.jena.sparql.algebra.Op;
+import org.apache.jena.sparql.algebra.Table;
+import org.apache.jena.sparql.algebra.TableFactory;
+import org.apache.jena.sparql.algebra.op.OpTable;
+import org.apache.jena.sparql.engine.ExecutionContext;
+import org.apache.jena.sparql.engine.QueryIterator;
+import org.apache.jena.sparql.engine.binding.Binding;
+
+/**
+ * Fallback for operators without an incremental node, e.g. ORDER BY, LIMIT,
+ * OPTIONAL or MINUS. The node keeps the outputs of its children and, if one
+ * of them changed, re-executes the operator over tables of these outputs. The
+ * streams and refreshables below are not evaluated again.
+ */
+class RecomputeNode extends ReteNode {
+
+    private final Function<List<Op>, Op> rebuild;
+    private final List<BindingMultiset> inputs = new ArrayList<>();
+    private final BindingMultiset output = new BindingMultiset();
+    private List<Binding> orderedOutput = new ArrayList<>();
+
+    /**
+     * @param rebuild creates the op to execute from the tables of the
+     * children
+     */
+    public RecomputeNode(Op op, List<ReteNode> children, Function<List<Op>, Op> rebuild) {
+        super(op, children);
+        this.rebuild = rebuild;
+        children.forEach(child -> inputs.add(new BindingMultiset()));
+    }
+
+    @Override
+    protected Delta evaluate(ExecutionContext execCxt, QueryExecutionContext queryContext) {
+        boolean changed = !isInitialized();
+        for (int i = 0; i < children.size(); i++) {
+            Delta delta = children.get(i).propagate(execCxt, queryContext);
+            inputs.get(i).apply(delta);
+            changed |= !delta.isEmpty();
+        }
+        if (!changed) {
+            return Delta.EMPTY;
+        }
+        List<Op> tables = new ArrayList<>(inputs.size());
+        for (BindingMultiset input : inputs) {
+            Table table = TableFactory.create();
+            input.forEach(table::addBinding);
+            tables.add(OpTable.create(table));
+        }
+        QueryIterator result = CachedOpExecutor.executeUncached(rebuild.apply(tables), execCxt);
+        orderedOutput = new ArrayList<>();
+        while (result.hasNext()) {
+            orderedOutput.add(result.nextBinding());
+        }
+        result.close();
+        return output.replace(orderedOutput);
+    }
+
+    /**
+     * @return the output in the order the operator produced it
+     */
+    public List<Binding> getOrderedOutput() {
+        return orderedOutput;
+    }
+}
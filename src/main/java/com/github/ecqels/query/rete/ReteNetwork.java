@@ -0,0 +1,220 @@
+/*
+ *  Copyright (C) 2016 Michael Jacoby.
+ *
+ *  This library is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation, either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.ecqels.query.rete;
+
+import com.github.ecqels.lang.op.OpRefreshable;
+import com.github.ecqels.lang.op.OpRefreshableGraph;
+import com.github.ecqels.lang.op.OpRefreshableService;
+import com.github.ecqels.lang.op.OpStream;
+import com.github.ecqels.query.execution.IncrementalAggregation;
+import com.github.ecqels.query.execution.QueryExecutionContext;
+import com.github.ecqels.util.Utils;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.jena.sparql.algebra.Algebra;
+import org.apache.jena.sparql.algebra.Op;
+import org.apache.jena.sparql.algebra.op.Op1;
+import org.apache.jena.sparql.algebra.op.Op2;
+import org.apache.jena.sparql.algebra.op.OpDistinct;
+import org.apache.jena.sparql.algebra.op.OpExtend;
+import org.apache.jena.sparql.algebra.op.OpFilter;
+import org.apache.jena.sparql.algebra.op.OpGroup;
+import org.apache.jena.sparql.algebra.op.OpJoin;
+import org.apache.jena.sparql.algebra.op.OpN;
+import org.apache.jena.sparql.algebra.op.OpOrder;
+import org.apache.jena.sparql.algebra.op.OpProject;
+import org.apache.jena.sparql.algebra.op.OpReduced;
+import org.apache.jena.sparql.algebra.op.OpSequence;
+import org.apache.jena.sparql.algebra.op.OpTopN;
+import org.apache.jena.sparql.algebra.op.OpUnion;
+import org.apache.jena.sparql.engine.ExecutionContext;
+import org.apache.jena.sparql.engine.QueryIterator;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.engine.binding.BindingFactory;
+import org.apache.jena.sparql.engine.binding.BindingMap;
+import org.apache.jena.sparql.engine.iterator.QueryIterPlainWrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Rete-style network evaluating a continuous query incrementally. The op tree
+ * is compiled once into persistent nodes: streams and refreshables become
+ * alpha memories, joins become beta nodes with hash memories on both sides,
+ * and filter, BIND, projection, DISTINCT, union and supported GROUP BYs
+ * propagate deltas of inserted and deleted bindings. A refresh only pushes
+ * the change of the refreshed sources through the network instead of
+ * executing the whole plan again.
+ *
+ * Operators without an incremental node are recomputed from the memories of
+ * their children, see {@link RecomputeNode}. A chain of unary operators above
+ * an ORDER BY is recomputed as a whole to keep the order of the result.
+ *
+ * Not thread-safe, used from within the synchronized evaluation of a single
+ * query.
+ *
+ * @see com.github.ecqels.Engine#setReteEvaluation(boolean)
+ */
+public class ReteNetwork {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReteNetwork.class);
+    private final ReteNode root;
+    private final BindingMultiset result = new BindingMultiset();
+
+    public ReteNetwork(Op op) {
+        this.root = compile(op);
+        LOGGER.debug("compiled rete network for {}", op);
+    }
+
+    /**
+     * Propagates the refreshed ops of queryContext through the network, their
+     * new results have to be in the cache of queryContext.
+     *
+     * @return the complete current result of the query joined with
+     * initialBinding
+     */
+    public QueryIterator refresh(Binding initialBinding, ExecutionContext execCxt, QueryExecutionContext queryContext) {
+        Delta delta = root.propagate(execCxt, queryContext);
+        result.apply(delta);
+        Iterable<Binding> bindings = root instanceof RecomputeNode ? ((RecomputeNode) root).getOrderedOutput() : result;
+        List<Binding> current = new ArrayList<>(result.size());
+        for (Binding binding : bindings) {
+            if (initialBinding.isEmpty()) {
+                current.add(binding);
+            } else if (Algebra.compatible(initialBinding, binding)) {
+                current.add(merge(initialBinding, binding));
+            }
+        }
+        return new QueryIterPlainWrapper(current.iterator(), execCxt);
+    }
+
+    private static Binding merge(Binding initialBinding, Binding binding) {
+        BindingMap merged = BindingFactory.create(initialBinding);
+        binding.vars().forEachRemaining(var -> {
+            if (!merged.contains(var)) {
+                merged.add(var, binding.get(var));
+            }
+        });
+        return merged;
+    }
+
+    private static ReteNode compile(Op op) {
+        if (op instanceof OpStream || op instanceof OpRefreshable) {
+            return new SourceNode(op);
+        }
+        if (!Utils.checkContainsInstacesOf(op, OpStream.class, OpRefreshable.class)) {
+            return new StaticNode(op);
+        }
+        if (op instanceof OpJoin) {
+            OpJoin join = (OpJoin) op;
+            return new JoinNode(op, compile(join.getLeft()), compile(join.getRight()), Utils.joinVars(join.getLeft(), join.getRight()));
+        }
+        if (op instanceof OpSequence) {
+            // sequences are only generated where substitution equals a join
+            List<Op> elements = ((OpSequence) op).getElements();
+            Op left = elements.get(0);
+            ReteNode node = compile(left);
+            for (Op right : elements.subList(1, elements.size())) {
+                node = new JoinNode(op, node, compile(right), Utils.joinVars(left, right));
+                left = OpJoin.create(left, right);
+            }
+            return node;
+        }
+        if (op instanceof OpUnion) {
+            OpUnion union = (OpUnion) op;
+            return new UnionNode(op, compile(union.getLeft()), compile(union.getRight()));
+        }
+        if (op instanceof Op1 && isAboveOrder((Op1) op)) {
+            return compileOrdered((Op1) op);
+        }
+        if (op instanceof OpFilter) {
+            return new FilterNode((OpFilter) op, compile(((OpFilter) op).getSubOp()));
+        }
+        if (op instanceof OpExtend) {
+            return new ExtendNode((OpExtend) op, compile(((OpExtend) op).getSubOp()));
+        }
+        if (op instanceof OpProject) {
+            return new ProjectNode((OpProject) op, compile(((OpProject) op).getSubOp()));
+        }
+        if (op instanceof OpDistinct || op instanceof OpReduced) {
+            return new DistinctNode(op, compile(((Op1) op).getSubOp()));
+        }
+        if (op instanceof OpGroup && IncrementalAggregation.isSupported(((OpGroup) op).getAggregators())) {
+            return new GroupNode((OpGroup) op, compile(((OpGroup) op).getSubOp()));
+        }
+        if (op instanceof Op1) {
+            Op1 op1 = (Op1) op;
+            return new RecomputeNode(op, singletonList(compile(op1.getSubOp())), tables -> op1.copy(tables.get(0)));
+        }
+        if (op instanceof Op2) {
+            Op2 op2 = (Op2) op;
+            List<ReteNode> children = new ArrayList<>();
+            children.add(compile(op2.getLeft()));
+            children.add(compile(op2.getRight()));
+            return new RecomputeNode(op, children, tables -> op2.copy(tables.get(0), tables.get(1)));
+        }
+        if (op instanceof OpN) {
+            OpN opN = (OpN) op;
+            List<ReteNode> children = new ArrayList<>();
+            opN.getElements().forEach(element -> children.add(compile(element)));
+            return new RecomputeNode(op, children, tables -> opN.copy(tables));
+        }
+        List<Op> sources = Utils.findInstacesOf(op, OpStream.class);
+        sources.addAll(Utils.<Op, OpRefreshableGraph>findInstacesOf(op, OpRefreshableGraph.class));
+        sources.addAll(Utils.<Op, OpRefreshableService>findInstacesOf(op, OpRefreshableService.class));
+        return new OpaqueNode(op, sources);
+    }
+
+    private static boolean isAboveOrder(Op1 op) {
+        for (Op current = op; current instanceof Op1; current = ((Op1) current).getSubOp()) {
+            if (current instanceof OpOrder || current instanceof OpTopN) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Compiles a chain of unary operators down to the lowest ORDER BY into a
+     * single recompute node.
+     */
+    private static ReteNode compileOrdered(Op1 op) {
+        List<Op1> chain = new ArrayList<>();
+        Op1 lowestOrder = null;
+        int lowestOrderIndex = -1;
+        for (Op current = op; current instanceof Op1; current = ((Op1) current).getSubOp()) {
+            chain.add((Op1) current);
+            if (current instanceof OpOrder || current instanceof OpTopN) {
+                lowestOrder = (Op1) current;
+                lowestOrderIndex = chain.size() - 1;
+            }
+        }
+        List<Op1> ordered = chain.subList(0, lowestOrderIndex + 1);
+        return new RecomputeNode(op, singletonList(compile(lowestOrder.getSubOp())), tables -> {
+            Op result = tables.get(0);
+            for (int i = ordered.size() - 1; i >= 0; i--) {
+                result = ordered.get(i).copy(result);
+            }
+            return result;
+        });
+    }
+
+    private static List<ReteNode> singletonList(ReteNode node) {
+        List<ReteNode> result = new ArrayList<>(1);
+        result.add(node);
+        return result;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ *  Copyright (C) 2016 Michael Jacoby.
+ *
+ *  This library is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation, either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.ecqels.query.rete;
+
+import com.github.ecqels.query.execution.QueryExecutionContext;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.jena.sparql.algebra.Op;
+import org.apache.jena.sparql.engine.ExecutionContext;
+
+/**
+ * Node of a {@link ReteNetwork}. A node turns the deltas of its children into
+ * the delta of its own output and keeps whatever memory it needs for that.
+ */
+abstract class ReteNode {
+
+    protected final Op op;
+    protected final List<ReteNode> children;
+    // streams and refreshables below this node, other refreshes do not change its output
+    protected final List<Op> sources = new ArrayList<>();
+    private boolean initialized = false;
+    // version of the static dataset this node was last evaluated on
+    private long dataVersion;
+
+    protected ReteNode(Op op, ReteNode... children) {
+        this(op, Arrays.asList(children));
+    }
+
+    protected ReteNode(Op op, List<ReteNode> children) {
+        this.op = op;
+        this.children = children;
+        children.forEach(child -> sources.addAll(child.sources));
+    }
+
+    public Op getOp() {
+        return op;
+    }
+
+    /**
+     * @return the change of the output of this node caused by the current
+     * refresh, the first call returns the complete output as inserted
+     */
+    public final Delta propagate(ExecutionContext execCxt, QueryExecutionContext queryContext) {
+        if (initialized && !isOutdated(queryContext) && sources.stream().noneMatch(queryContext::isRefreshed)) {
+            return Delta.EMPTY;
+        }
+        Delta delta = evaluate(execCxt, queryContext);
+        initialized = true;
+        dataVersion = queryContext.getDataVersion();
+        return delta;
+    }
+
+    protected boolean isInitialized() {
+        return initialized;
+    }
+
+    /**
+     * @return whether this node evaluates parts of the static dataset itself
+     * and has to be evaluated again after the dataset changed
+     */
+    protected boolean readsStaticData() {
+        return false;
+    }
+
+    private boolean isOutdated(QueryExecutionContext queryContext) {
+        return (readsStaticData() && dataVersion != queryContext.getDataVersion())
+                || children.stream().anyMatch(child -> child.isOutdated(queryContext));
+    }
+
+    protected abstract Delta evaluate(ExecutionContext execCxt, QueryExecutionContext queryContext);
+}
@@ -0,0 +1,52 @@
+/*
+ *  Copyright (C) 2016 Michael Jacoby.
+ *
+ *  This library is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation, either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.ecqels.query.rete;
+
+import com.github.ecqels.lang.op.OpRefreshable;
+import com.github.ecqels.query.execution.QueryExecutionContext;
+import org.apache.jena.sparql.algebra.Op;
+import org.apache.jena.sparql.algebra.op.OpExt;
+import org.apache.jena.sparql.engine.ExecutionContext;
+import org.apache.jena.sparql.engine.binding.BindingFactory;
+import org.apache.jena.sparql.engine.main.QC;
+
+/**
+ * Alpha memory of a stream or refreshable. Windows and refreshables deliver
+ * their complete current result on refresh, the node diffs it against the
+ * previous result to get the delta.
+ */
+class SourceNode extends ReteNode {
+
+    private final BindingMultiset memory = new BindingMultiset();
+
+    public SourceNode(Op op) {
+        super(op);
+        sources.add(op);
+    }
+
+    @Override
+    protected Delta evaluate(ExecutionContext execCxt, QueryExecutionContext queryContext) {
+        if (queryContext.getCache().containsKey(op) && (queryContext.isRefreshed(op) || !isInitialized())) {
+            return memory.replace(queryContext.getCache().get(op));
+        }
+        if (!isInitialized() && op instanceof OpRefreshable) {
+            // not refreshed yet, evaluated once like the query executor does on first use
+            return memory.replace(QC.execute(((OpExt) op).effectiveOp(), BindingFactory.root(), execCxt));
+        }
+        return Delta.EMPTY;
+    }
+}
@@ -18,88 +18,79 @@ package com.github.ecqels.refresh;
 
 import com.github.ecqels.event.RefreshRequestedEvent;
 import com.github.ecqels.event.RefreshRequestedListener;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.concurrent.Callable;
-import java.util.concurrent.CompletionService;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorCompletionService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.stream.Collectors;
 import javax.swing.event.EventListenerList;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 /**
+ * Refresh tasks of a single query. The tasks are run by the engine-wide
+ * {@link RefreshScheduler}, each at its own interval, and all tasks of this
+ * manager due on the same tick are reported in one event.
  *
  * @author Michael Jacoby <michael.jacoby@iosb.fraunhofer.de>
  */
 public class RefreshManager {
 
-    private static final Logger LOGGER = LoggerFactory.getLogger(RefreshManager.class);
-    protected Map<Callable<RefreshRequest>, Long> tasks;
-    protected Timer timer = new Timer();
-    protected ScheduledExecutorService executor;
+    protected final RefreshScheduler scheduler;
+    protected final Map<Callable<RefreshRequest>, Long> tasks = new HashMap<>();
+    protected final Map<Callable<RefreshRequest>, ScheduledRefresh> scheduled = new HashMap<>();
+    protected boolean started = false;
     protected EventListenerList listeners = new EventListenerList();
 
-    public RefreshManager() {
-        tasks = new HashMap<>();
+    public RefreshManager(RefreshScheduler scheduler) {
+        if (scheduler == null) {
+            throw new IllegalArgumentException("scheduler must not be null");
+        }
+        this.scheduler = scheduler;
     }
 
-    public void schedule(Callable<RefreshRequest> task, long interval) {
+    public synchronized void schedule(Callable<RefreshRequest> task, long interval) {
+        unschedule(task);
         tasks.put(task, interval);
+        if (started) {
+            scheduled.put(task, scheduler.schedule(this, task, interval));
+        }
     }
 
-    public void unschedule(Callable<RefreshRequest> task) {
+    public synchronized void unschedule(Callable<RefreshRequest> task) {
         tasks.remove(task);
+        ScheduledRefresh refresh = scheduled.remove(task);
+        if (refresh != null) {
+            scheduler.cancel(refresh);
+        }
     }
 
-    public void stop() {
-        timer.cancel();
-        if (executor != null) {
-            executor.shutdownNow();
-        }
+    public synchronized void stop() {
+        started = false;
+        scheduled.values().forEach(scheduler::cancel);
+        scheduled.clear();
     }
 
-    public void start() {
-        if (tasks.isEmpty()) {
+    public synchronized void start() {
+        if (started) {
             return;
         }
-        long gcd = gcd(tasks.values().toArray(new Long[tasks.size()]));
-        long lcm = lcm(tasks.values().toArray(new Long[tasks.size()]));
-        executor = Executors.newScheduledThreadPool(2);
-        timer.schedule(new TimerTask() {
-            long timeExpired = lcm;
+        started = true;
+        tasks.forEach((task, interval) -> scheduled.put(task, scheduler.schedule(this, task, interval)));
+    }
 
-            @Override
-            public void run() {
-                RefreshRequest finalRequest = new RefreshRequest();
-                // find all tasks to execute here
-                timeExpired = (timeExpired % gcd) + lcm;
-                Set<Callable<RefreshRequest>> toRun = tasks.entrySet().stream().filter(entry -> (timeExpired % entry.getValue()) == 0).collect(Collectors.toMap(entry -> entry.getKey(), entry -> entry.getKey())).keySet();
-                CompletionService<RefreshRequest> completionService = new ExecutorCompletionService<>(executor);
-                toRun.stream().forEach((action) -> {
-                    completionService.submit(action);
-                });
-                int n = toRun.size();
-                for (int i = 0; i < n; ++i) {
-                    RefreshRequest request;
-                    try {
-                        request = completionService.take().get();
-                        if (request != null) {
-                            finalRequest.addSource(request);
-                        }
-                    } catch (InterruptedException | ExecutionException ex) {
-                        LOGGER.error("error executing scheduled refresh", ex);
-                    }
-                }
-                fireRefreshRequestedListener(new RefreshRequestedEvent(this, finalRequest));
-            }
-        }, lcm, lcm);
+    /**
+     * @return the tasks of this manager as currently scheduled, e.g. to
+     * inspect their lag
+     */
+    public synchronized List<ScheduledRefresh> getScheduled() {
+        return new ArrayList<>(scheduled.values());
+    }
+
+    /**
+     * Called by the scheduler with the combined results of all tasks of this
+     * manager that were due on the same tick.
+     */
+    protected void refresh(RefreshRequest request) {
+        fireRefreshRequestedListener(new RefreshRequestedEvent(this, request));
     }
 
     public void addRefreshRequestedListener(RefreshRequestedListener listener) {
@@ -118,33 +109,4 @@ public class RefreshManager {
             }
         }
     }
-
-    protected long gcd(long a, long b) {
-        while (b > 0) {
-            long temp = b;
-            b = a % b; // % is remainder
-            a = temp;
-        }
-        return a;
-    }
-
-    protected long gcd(Long[] input) {
-        long result = input[0];
-        for (int i = 1; i < input.length; i++) {
-            result = gcd(result, input[i]);
-        }
-        return result;
-    }
-
-    protected long lcm(long a, long b) {
-        return a * (b / gcd(a, b));
-    }
-
-    protected long lcm(Long[] input) {
-        long result = input[0];
-        for (int i = 1; i < input.length; i++) {
-            result = lcm(result, input[i]);
-        }
-        return result;
-    }
 }
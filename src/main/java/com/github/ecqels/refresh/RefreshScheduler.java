@@ -0,0 +1,186 @@
+/*
+ *  Copyright (C) 2016 Michael Jacoby.
+ *
+ *  This library is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation, either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.ecqels.refresh;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Engine-wide deadline scheduler for refresh tasks. Each task runs at its own
+ * interval. Deadlines are aligned to multiples of the interval on the wall
+ * clock, so that tasks with the same interval fall on the same tick in all
+ * queries and can share their results. All tasks due within one tick are
+ * dispatched together and the tasks of one {@link RefreshManager} are
+ * reported to it as a single refresh request.
+ *
+ * Only the earliest deadline is registered at the shared scheduler, the tasks
+ * themselves run on the executor, so the number of scheduled tasks does not
+ * affect the number of threads.
+ */
+public class RefreshScheduler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RefreshScheduler.class);
+    public static final long DEFAULT_TICK = 10;
+
+    private final ScheduledExecutorService scheduler;
+    private final Executor executor;
+    private final long tick;
+    private final PriorityQueue<ScheduledRefresh> queue = new PriorityQueue<>(Comparator.comparingLong(ScheduledRefresh::getDeadline));
+    private ScheduledFuture<?> wakeup;
+    private long wakeupAt = Long.MAX_VALUE;
+    private boolean stopped = false;
+
+    public RefreshScheduler(ScheduledExecutorService scheduler, Executor executor) {
+        this(DEFAULT_TICK, scheduler, executor);
+    }
+
+    /**
+     * @param tick tasks due within tick milliseconds of each other are
+     * dispatched together
+     * @param scheduler triggers the earliest deadline
+     * @param executor runs the refresh tasks
+     */
+    public RefreshScheduler(long tick, ScheduledExecutorService scheduler, Executor executor) {
+        if (tick < 0) {
+            throw new IllegalArgumentException("tick must be >= 0");
+        }
+        if (scheduler == null || executor == null) {
+            throw new IllegalArgumentException("scheduler and executor must not be null");
+        }
+        this.tick = tick;
+        this.scheduler = scheduler;
+        this.executor = executor;
+    }
+
+    public synchronized ScheduledRefresh schedule(RefreshManager owner, Callable<RefreshRequest> task, long interval) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("interval must be > 0");
+        }
+        long now = System.currentTimeMillis();
+        ScheduledRefresh result = new ScheduledRefresh(owner, task, interval, now + interval - (now % interval));
+        queue.add(result);
+        reschedule();
+        return result;
+    }
+
+    public synchronized void cancel(ScheduledRefresh refresh) {
+        queue.remove(refresh);
+    }
+
+    /**
+     * @return all scheduled refreshes, e.g. to inspect their lag
+     */
+    public synchronized List<ScheduledRefresh> getScheduled() {
+        return new ArrayList<>(queue);
+    }
+
+    public synchronized void stop() {
+        stopped = true;
+        queue.clear();
+        if (wakeup != null) {
+            wakeup.cancel(false);
+            wakeup = null;
+        }
+    }
+
+    private void reschedule() {
+        if (stopped || queue.isEmpty()) {
+            return;
+        }
+        long next = queue.peek().getDeadline();
+        if (wakeup != null && wakeupAt <= next) {
+            return;
+        }
+        if (wakeup != null) {
+            wakeup.cancel(false);
+        }
+        wakeupAt = next;
+        wakeup = scheduler.schedule(this::tick, Math.max(0, next - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+    }
+
+    private void tick() {
+        Map<RefreshManager, List<ScheduledRefresh>> due = new LinkedHashMap<>();
+        synchronized (this) {
+            if (stopped) {
+                return;
+            }
+            wakeup = null;
+            wakeupAt = Long.MAX_VALUE;
+            long now = System.currentTimeMillis();
+            List<ScheduledRefresh> fired = new ArrayList<>();
+            while (!queue.isEmpty() && queue.peek().getDeadline() <= now + tick) {
+                ScheduledRefresh refresh = queue.poll();
+                if (refresh.isRunning()) {
+                    // previous run has not finished yet
+                    refresh.skipped();
+                } else {
+                    refresh.started(now);
+                    due.computeIfAbsent(refresh.getOwner(), x -> new ArrayList<>()).add(refresh);
+                }
+                refresh.advance(now);
+                fired.add(refresh);
+            }
+            queue.addAll(fired);
+            reschedule();
+        }
+        due.forEach(this::dispatch);
+    }
+
+    private void dispatch(RefreshManager owner, List<ScheduledRefresh> refreshes) {
+        try {
+            // a refresh failing with an exception or error is logged and left out, the others are still passed on
+            List<CompletableFuture<RefreshRequest>> results = refreshes.stream()
+                    .map(refresh -> CompletableFuture.supplyAsync(refresh::call, executor).exceptionally(ex -> {
+                        LOGGER.error("error executing scheduled refresh", ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex);
+                        return null;
+                    }))
+                    .collect(Collectors.toList());
+            CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[results.size()])).whenComplete((x, e) -> {
+                try {
+                    RefreshRequest request = new RefreshRequest();
+                    results.stream()
+                            .map(CompletableFuture::join)
+                            .filter(result -> result != null)
+                            .forEach(request::addSource);
+                    owner.refresh(request);
+                } catch (RuntimeException ex) {
+                    LOGGER.error("error processing scheduled refresh", ex);
+                } finally {
+                    refreshes.forEach(ScheduledRefresh::finished);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            LOGGER.debug("executor shut down, dropping refresh", ex);
+            refreshes.forEach(ScheduledRefresh::finished);
+        }
+    }
+}
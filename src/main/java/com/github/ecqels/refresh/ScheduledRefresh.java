@@ -0,0 +1,155 @@
+/*
+ *  Copyright (C) 2016 Michael Jacoby.
+ *
+ *  This library is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation, either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.ecqels.refresh;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionException;
+
+/**
+ * A refresh task registered at the {@link RefreshScheduler} together with its
+ * deadline and lag statistics. Lag is the time between the deadline of a run
+ * and the moment it was dispatched, missed runs are deadlines that passed
+ * while the previous run of the task was still executing or the scheduler was
+ * behind.
+ */
+public class ScheduledRefresh {
+
+    private final RefreshManager owner;
+    private final Callable<RefreshRequest> task;
+    private final long interval;
+    private long deadline;
+    private volatile boolean running = false;
+    private volatile long runs = 0;
+    private volatile long missed = 0;
+    private volatile long lastLag = 0;
+    private volatile long maxLag = 0;
+    private volatile long totalLag = 0;
+    private volatile long lastDuration = 0;
+
+    ScheduledRefresh(RefreshManager owner, Callable<RefreshRequest> task, long interval, long deadline) {
+        this.owner = owner;
+        this.task = task;
+        this.interval = interval;
+        this.deadline = deadline;
+    }
+
+    RefreshManager getOwner() {
+        return owner;
+    }
+
+    long getDeadline() {
+        return deadline;
+    }
+
+    boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Records the dispatch of the run due at the current deadline. Called by
+     * the scheduler only.
+     */
+    void started(long now) {
+        long lag = Math.max(0, now - deadline);
+        running = true;
+        runs++;
+        lastLag = lag;
+        totalLag += lag;
+        maxLag = Math.max(maxLag, lag);
+    }
+
+    void finished() {
+        running = false;
+    }
+
+    void skipped() {
+        missed++;
+    }
+
+    /**
+     * Moves the deadline to the next multiple of the interval after now,
+     * counting the deadlines skipped on the way as missed.
+     */
+    void advance(long now) {
+        deadline += interval;
+        if (deadline <= now) {
+            long behind = (now - deadline) / interval + 1;
+            missed += behind;
+            deadline += behind * interval;
+        }
+    }
+
+    /**
+     * Runs the task. Failures, including errors, are not handled here but
+     * propagate to the scheduler, checked exceptions wrapped in a
+     * {@link CompletionException}.
+     */
+    RefreshRequest call() {
+        long start = System.currentTimeMillis();
+        try {
+            return task.call();
+        } catch (RuntimeException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new CompletionException(ex);
+        } finally {
+            lastDuration = System.currentTimeMillis() - start;
+        }
+    }
+
+    public Callable<RefreshRequest> getTask() {
+        return task;
+    }
+
+    /**
+     * @return the refresh interval in milliseconds
+     */
+    public long getInterval() {
+        return interval;
+    }
+
+    public long getRuns() {
+        return runs;
+    }
+
+    public long getMissed() {
+        return missed;
+    }
+
+    /**
+     * @return lag of the most recent run in milliseconds
+     */
+    public long getLastLag() {
+        return lastLag;
+    }
+
+    public long getMaxLag() {
+        return maxLag;
+    }
+
+    public double getAverageLag() {
+        long n = runs;
+        return n == 0 ? 0 : (double) totalLag / n;
+    }
+
+    /**
+     * @return execution time of the most recent run in milliseconds
+     */
+    public long getLastDuration() {
+        return lastDuration;
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ *  Copyright (C) 2016 Michael Jacoby.
+ *
+ *  This library is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation, either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.ecqels.stream;
+
+import com.github.ecqels.stream.IngestionQueue.OverflowPolicy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Asynchronous ingestion with one bounded {@link IngestionQueue} per stream.
+ * Streams are assigned to a fixed number of partitions by hash. A partition
+ * with pending triples has exactly one drain task on the executor, which
+ * hands every drained batch to the consumer, so triples of one stream are
+ * delivered in arrival order and idle partitions occupy no thread.
+ */
+public class IngestionPartitions {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(IngestionPartitions.class);
+    private static final int MAX_DRAIN = 64;
+
+    private final BiConsumer<Node, List<Triple>> consumer;
+    private final Executor executor;
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final int sampleRate;
+    private final Partition[] partitions;
+    private final Map<Node, IngestionQueue> queues = new ConcurrentHashMap<>();
+    private volatile boolean stopped = false;
+
+    /**
+     * @param consumer called by the drain tasks with each batch of
+     * triples drained from the queue of one stream
+     * @param executor runs the drain tasks
+     */
+    public IngestionPartitions(BiConsumer<Node, List<Triple>> consumer, Executor executor, int partitionCount, int capacity, OverflowPolicy policy, int sampleRate) {
+        if (partitionCount <= 0) {
+            throw new IllegalArgumentException("partitionCount must be > 0");
+        }
+        if (executor == null) {
+            throw new IllegalArgumentException("executor must be non-null");
+        }
+        this.consumer = consumer;
+        this.executor = executor;
+        this.capacity = capacity;
+        this.policy = policy;
+        this.sampleRate = sampleRate;
+        this.partitions = new Partition[partitionCount];
+        for (int i = 0; i < partitionCount; i++) {
+            partitions[i] = new Partition();
+        }
+    }
+
+    /**
+     * Enqueues triple on the queue of stream, blocking or dropping according
+     * to the overflow policy if the queue is full.
+     *
+     * @return false if the triple was dropped
+     */
+    public boolean offer(Node stream, Triple triple) {
+        IngestionQueue queue = queues.computeIfAbsent(stream, s -> {
+            Partition partition = partitions[Math.floorMod(s.hashCode(), partitions.length)];
+            IngestionQueue result = new IngestionQueue(s, capacity, policy, sampleRate, partition::signal);
+            partition.queues.add(result);
+            return result;
+        });
+        try {
+            return queue.offer(triple);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * @return the queue of stream or null if nothing was sent on it yet
+     */
+    public IngestionQueue getQueue(Node stream) {
+        return queues.get(stream);
+    }
+
+    public Map<Node, IngestionQueue> getQueues() {
+        return Collections.unmodifiableMap(queues);
+    }
+
+    /**
+     * Stops scheduling drain tasks, triples still queued are not delivered.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    private class Partition implements Runnable {
+
+        private final List<IngestionQueue> queues = new CopyOnWriteArrayList<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+        void signal() {
+            if (scheduled.compareAndSet(false, true)) {
+                submit();
+            }
+        }
+
+        private void submit() {
+            if (stopped) {
+                scheduled.set(false);
+                return;
+            }
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                scheduled.set(false);
+                LOGGER.debug("ingestion task rejected, executor shut down", e);
+            }
+        }
+
+        /**
+         * Drains one batch from every queue and resubmits itself instead of
+         * looping, so that a busy partition does not hold on to a thread of
+         * the shared executor.
+         */
+        @Override
+        public void run() {
+            boolean drained = false;
+            for (IngestionQueue queue : queues) {
+                if (stopped) {
+                    return;
+                }
+                List<Triple> batch = new ArrayList<>(MAX_DRAIN);
+                if (queue.drainTo(batch, MAX_DRAIN) > 0) {
+                    drained = true;
+                    try {
+                        consumer.accept(queue.getStream(), batch);
+                    } catch (Exception e) {
+                        LOGGER.error("error processing batch on stream " + queue.getStream(), e);
+                    }
+                }
+            }
+            if (drained) {
+                submit();
+                return;
+            }
+            scheduled.set(false);
+            // a triple offered after the last drain but before the flag was cleared did not schedule a task
+            for (IngestionQueue queue : queues) {
+                if (queue.size() > 0) {
+                    signal();
+                    return;
+                }
+            }
+        }
+    }
+}
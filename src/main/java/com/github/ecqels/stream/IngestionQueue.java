@@ -0,0 +1,201 @@
+/*
+ *  Copyright (C) 2016 Michael Jacoby.
+ *
+ *  This library is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation, either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.ecqels.stream;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+
+/**
+ * Bounded ring buffer of triples received asynchronously on one stream. What
+ * happens if a triple arrives while the buffer is full is determined by the
+ * {@link OverflowPolicy}.
+ *
+ * @see IngestionPartitions
+ */
+public class IngestionQueue {
+
+    public enum OverflowPolicy {
+        /**
+         * the producer waits until there is space
+         */
+        BLOCK,
+        /**
+         * the oldest buffered triple is dropped in favor of the new one
+         */
+        DROP_OLDEST,
+        /**
+         * the new triple is dropped
+         */
+        DROP_NEWEST,
+        /**
+         * the new triple replaces the oldest buffered one with probability
+         * 1/sampleRate and is dropped otherwise, so that a burst is thinned
+         * out instead of cut off
+         */
+        SAMPLE
+    }
+
+    private final Node stream;
+    private final Triple[] buffer;
+    private final OverflowPolicy policy;
+    private final int sampleRate;
+    private final Runnable onOffer;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private int head = 0;
+    private int size = 0;
+    private volatile long accepted = 0;
+    private volatile long dropped = 0;
+
+    /**
+     * @param onOffer called after a triple was added, used to wake up the
+     * consumer
+     */
+    public IngestionQueue(Node stream, int capacity, OverflowPolicy policy, int sampleRate, Runnable onOffer) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be > 0");
+        }
+        if (policy == null) {
+            throw new IllegalArgumentException("policy must be non-null");
+        }
+        if (sampleRate <= 0) {
+            throw new IllegalArgumentException("sampleRate must be > 0");
+        }
+        this.stream = stream;
+        this.buffer = new Triple[capacity];
+        this.policy = policy;
+        this.sampleRate = sampleRate;
+        this.onOffer = onOffer;
+    }
+
+    /**
+     * @return false if the triple was dropped
+     */
+    public boolean offer(Triple triple) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            if (size == buffer.length) {
+                switch (policy) {
+                    case BLOCK:
+                        while (size == buffer.length) {
+                            notFull.await();
+                        }
+                        break;
+                    case DROP_NEWEST:
+                        dropped++;
+                        return false;
+                    case SAMPLE:
+                        if (ThreadLocalRandom.current().nextInt(sampleRate) != 0) {
+                            dropped++;
+                            return false;
+                        }
+                        // the sampled triple replaces the oldest one
+                        dropOldest();
+                        break;
+                    case DROP_OLDEST:
+                        dropOldest();
+                        break;
+                }
+            }
+            buffer[(head + size) % buffer.length] = triple;
+            size++;
+            accepted++;
+        } finally {
+            lock.unlock();
+        }
+        onOffer.run();
+        return true;
+    }
+
+    /**
+     * Removes the oldest triple. Caller must hold the lock.
+     */
+    private void dropOldest() {
+        buffer[head] = null;
+        head = (head + 1) % buffer.length;
+        size--;
+        dropped++;
+    }
+
+    /**
+     * Moves up to max triples in arrival order to target.
+     *
+     * @return the number of triples moved
+     */
+    public int drainTo(List<Triple> target, int max) {
+        lock.lock();
+        try {
+            int count = Math.min(max, size);
+            for (int i = 0; i < count; i++) {
+                target.add(buffer[head]);
+                buffer[head] = null;
+                head = (head + 1) % buffer.length;
+            }
+            size -= count;
+            if (count > 0) {
+                notFull.signalAll();
+            }
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Node getStream() {
+        return stream;
+    }
+
+    public OverflowPolicy getPolicy() {
+        return policy;
+    }
+
+    public int getCapacity() {
+        return buffer.length;
+    }
+
+    /**
+     * @return the number of triples currently waiting
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of triples accepted so far, including ones that
+     * were later dropped by {@link OverflowPolicy#DROP_OLDEST} or
+     * {@link OverflowPolicy#SAMPLE}
+     */
+    public long getAccepted() {
+        return accepted;
+    }
+
+    /**
+     * @return the number of triples dropped so far
+     */
+    public long getDropped() {
+        return dropped;
+    }
+}
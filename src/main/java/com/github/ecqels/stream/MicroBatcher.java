@@ -0,0 +1,183 @@
+/*
+ *  Copyright (C) 2016 Michael Jacoby.
+ *
+ *  This library is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation, either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.ecqels.stream;
+
+import com.github.ecqels.Engine;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects single triples per stream and hands them to
+ * {@link Engine#sendBatch(Node, List)} once either maxBatchSize triples are
+ * buffered or the oldest buffered triple has waited maxDelay milliseconds.
+ */
+public class MicroBatcher {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MicroBatcher.class);
+
+    private final Engine engine;
+    private final int maxBatchSize;
+    private final long maxDelay;
+    private final Map<Node, Batch> batches = new HashMap<>();
+    private final ScheduledExecutorService scheduler;
+    private final Executor executor;
+    private volatile boolean stopped = false;
+
+    public MicroBatcher(Engine engine, int maxBatchSize, long maxDelay) {
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException("maxBatchSize must be > 0");
+        }
+        if (maxDelay <= 0) {
+            throw new IllegalArgumentException("maxDelay must be > 0");
+        }
+        this.engine = engine;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelay = maxDelay;
+        this.scheduler = engine.getExecutionModel().getScheduler();
+        this.executor = engine.getExecutionModel().getExecutor();
+    }
+
+    public void send(Node graph, Triple triple) {
+        Batch batch;
+        boolean full;
+        synchronized (batches) {
+            batch = batches.computeIfAbsent(graph, key -> new Batch());
+            if (batch.buffer == null) {
+                List<Triple> buffer = new ArrayList<>();
+                batch.buffer = buffer;
+                // the shared scheduler only triggers, the batch is evaluated on the executor
+                batch.timeout = scheduler.schedule(() -> {
+                    if (!stopped) {
+                        executor.execute(() -> flush(graph, buffer));
+                    }
+                }, maxDelay, TimeUnit.MILLISECONDS);
+            }
+            batch.buffer.add(triple);
+            full = batch.buffer.size() >= maxBatchSize;
+            if (full) {
+                seal(batch);
+            }
+        }
+        if (full) {
+            drain(graph, batch);
+        }
+    }
+
+    public void flush(Node graph) {
+        Batch batch;
+        synchronized (batches) {
+            batch = batches.get(graph);
+            if (batch == null) {
+                return;
+            }
+            if (batch.buffer != null) {
+                seal(batch);
+            }
+        }
+        drain(graph, batch);
+    }
+
+    public void flush() {
+        List<Node> graphs;
+        synchronized (batches) {
+            graphs = new ArrayList<>(batches.keySet());
+        }
+        graphs.forEach(this::flush);
+    }
+
+    /**
+     * Flushes buffer if it is still the open buffer of graph, a timeout that
+     * fired while its buffer was flushed by size must not flush the next one.
+     */
+    private void flush(Node graph, List<Triple> buffer) {
+        Batch batch;
+        synchronized (batches) {
+            batch = batches.get(graph);
+            if (batch == null || batch.buffer != buffer) {
+                return;
+            }
+            seal(batch);
+        }
+        drain(graph, batch);
+    }
+
+    // caller holds the lock on batches
+    private void seal(Batch batch) {
+        batch.timeout.cancel(false);
+        batch.pending.add(batch.buffer);
+        batch.buffer = null;
+        batch.timeout = null;
+    }
+
+    /**
+     * Sends the sealed batches of graph in the order they were sealed. Only
+     * one thread sends per graph, so batches of a stream are never evaluated
+     * concurrently or out of order.
+     */
+    private void drain(Node graph, Batch batch) {
+        synchronized (batch.sendLock) {
+            while (true) {
+                List<Triple> next;
+                synchronized (batches) {
+                    next = batch.pending.poll();
+                }
+                if (next == null) {
+                    return;
+                }
+                engine.sendBatch(graph, next);
+            }
+        }
+    }
+
+    public void stop() {
+        stopped = true;
+        try {
+            flush();
+        } catch (Exception e) {
+            LOGGER.error("error flushing pending batches", e);
+        }
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public long getMaxDelay() {
+        return maxDelay;
+    }
+
+    private static class Batch {
+
+        private List<Triple> buffer;
+        private ScheduledFuture<?> timeout;
+        // sealed batches waiting to be sent, guarded by the lock on batches
+        private final Deque<List<Triple>> pending = new ArrayDeque<>();
+        private final Object sendLock = new Object();
+    }
+}
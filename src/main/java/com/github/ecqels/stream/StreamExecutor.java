@@ -29,14 +29,17 @@ import com.github.ecqels.query.iterator.QueryIteratorCopy;
 import com.github.ecqels.refresh.RefreshManager;
 import com.github.ecqels.refresh.RefreshRequest;
 import com.github.ecqels.util.Utils;
+import com.github.ecqels.window.AlphaNetwork.Routing;
 import com.github.ecqels.window.ScheduledRefreshableWindow;
 import com.github.ecqels.window.Window;
-import com.github.ecqels.window.WindowFactory;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.stream.Collectors;
 import javax.swing.event.EventListenerList;
 import org.apache.jena.graph.Node;
@@ -50,9 +53,11 @@ import org.apache.jena.sparql.engine.ExecutionContext;
 import org.apache.jena.sparql.engine.QueryIterator;
 import org.apache.jena.sparql.engine.binding.BindingFactory;
 import org.apache.jena.sparql.engine.iterator.QueryIterConcat;
+import org.apache.jena.sparql.engine.iterator.QueryIterFilterExpr;
 import org.apache.jena.sparql.engine.iterator.QueryIterNullIterator;
 import org.apache.jena.sparql.engine.iterator.QueryIterRoot;
 import org.apache.jena.sparql.engine.main.QC;
+import org.apache.jena.sparql.expr.Expr;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -110,9 +115,12 @@ public class StreamExecutor {
                 if (uriRefreshRequestes.size() > 1) {
                     throw new IllegalStateException("should never happen");
                 }
-                queryContext.setRefreshedOps(Arrays.asList(new Op[]{uriRefreshRequestes.iterator().next().getOp()}));
-                refreshBindedStreams();
-                queryContext.clearRefreshedOps();
+                // the refresh state is shared with the evaluation of the query, see QueryExecutor.execute
+                synchronized (queryExecutor) {
+                    queryContext.setRefreshedOps(Arrays.asList(new Op[]{uriRefreshRequestes.iterator().next().getOp()}));
+                    refreshBindedStreams();
+                    queryContext.clearRefreshedOps();
+                }
             }
         });
     }
@@ -148,12 +156,23 @@ public class StreamExecutor {
         RefreshRequest result = new RefreshRequest();
         QueryIterConcat queryResult = new QueryIterConcat(executionContext);
         streams.stream().forEach(s -> queryResult.add(s.getCurrentResult()));
+        QueryIterator filtered = filter(queryResult);
         ops.stream().forEach((op) -> {
-            result.addSource(op, queryResult);
+            result.addSource(op, filtered);
         });
         return result;
     }
 
+    /**
+     * Applies the filters pushed into the stream ops to a window result.
+     */
+    private QueryIterator filter(QueryIterator result) {
+        for (Expr expr : ops.get(0).getFilters()) {
+            result = new QueryIterFilterExpr(result, expr, executionContext);
+        }
+        return result;
+    }
+
     protected void removeStream(Node streamNode) {
         StreamRuntimeInfo stream = streams.stream().filter(s -> s.getWindow().getStreamNode().equals(streamNode)).findFirst().get();
         queryExecutor.unregisterFromStream(streamNode, this);
@@ -163,16 +182,40 @@ public class StreamExecutor {
         } else {
             // remove listener
             // immediately remove data
-            stream.getWindow().stop();
+            stream.getWindow().removeDataChangedListener(stream.getEventHandler());
+            engine.getWindowRegistry().release(stream.getWindow());
             streams.remove(stream);
         }
     }
 
     public RefreshRequest send(Node graph, Node s, Node p, Node o) {
+        return send(graph, Routing.unfiltered(Collections.singletonList(new Quad(graph, s, p, o))));
+    }
+
+    public RefreshRequest send(Node graph, List<Quad> quads) {
+        return send(graph, Routing.unfiltered(quads));
+    }
+
+    /**
+     * Adds the quads routed to each window on graph and reevaluates the
+     * windows that received any.
+     */
+    public RefreshRequest send(Node graph, Routing routing) {
         boolean refreshed = false;
         for (StreamRuntimeInfo info : streams) {
             if (info.getWindow().getStreamNode().equals(graph)) {
-                info.getWindow().add(new Quad(graph, s, p, o));
+                List<Quad> quads = routing.getQuads(info.getWindow());
+                if (quads.isEmpty()) {
+                    continue;
+                }
+                if (!info.isShared()) {
+                    // shared windows are fed by the engine
+                    if (quads.size() == 1) {
+                        info.getWindow().add(quads.get(0));
+                    } else {
+                        info.getWindow().addAll(quads);
+                    }
+                }
                 if (!info.scheduledRefreshable) {
                     info.setCurrentResult(info.getWindow().evaluate(QueryIterRoot.create(executionContext), executionContext));
                     refreshed = true;
@@ -187,7 +230,7 @@ public class StreamExecutor {
 
     protected void addStream(Node streamNode) {
         queryExecutor.registerToStream(streamNode, this);
-        StreamRuntimeInfo stream = new StreamRuntimeInfo(WindowFactory.createWindow(engine, refreshManager, streamNode, pattern, windowInfo));
+        StreamRuntimeInfo stream = new StreamRuntimeInfo(engine.getWindowRegistry().acquire(refreshManager, streamNode, pattern, windowInfo));
         streams.add(stream);
         if (stream.isScheduledRefreshable()) {
             // nothing to do here, all done in start()
@@ -214,11 +257,22 @@ public class StreamExecutor {
                     // reevaluate all streams and notify result
                     RefreshRequest result = new RefreshRequest();
                     QueryIterConcat queryResult = new QueryIterConcat(executionContext);
-                    for (StreamRuntimeInfo stream : streams) {
-                        queryResult.add(((ScheduledRefreshableWindow) stream.getWindow()).evaluate());
+                    ForkJoinPool pool = queryContext.getParallelPool();
+                    if (pool != null && !pool.isShutdown() && streams.size() > 1) {
+                        // windows are independent, evaluate them concurrently
+                        List<ForkJoinTask<QueryIterator>> results = new ArrayList<>();
+                        for (StreamRuntimeInfo stream : streams) {
+                            results.add(pool.submit(() -> ((ScheduledRefreshableWindow) stream.getWindow()).evaluate()));
+                        }
+                        results.forEach(r -> queryResult.add(r.join()));
+                    } else {
+                        for (StreamRuntimeInfo stream : streams) {
+                            queryResult.add(((ScheduledRefreshableWindow) stream.getWindow()).evaluate());
+                        }
                     }
+                    QueryIterator filtered = filter(queryResult);
                     ops.stream().forEach((op) -> {
-                        result.addSource(op, queryResult);
+                        result.addSource(op, filtered);
                     });
                     return result;
                 }
@@ -235,7 +289,12 @@ public class StreamExecutor {
     }
 
     public void stop() {
-        streams.forEach(s -> s.getWindow().stop());
+        streams.forEach(s -> {
+            if (s.getEventHandler() != null) {
+                s.getWindow().removeDataChangedListener(s.getEventHandler());
+            }
+            engine.getWindowRegistry().release(s.getWindow());
+        });
     }
 
 //    protected void findTriples() {
@@ -276,6 +335,7 @@ public class StreamExecutor {
 
         private final Window window;
         private final boolean scheduledRefreshable;
+        private final boolean shared;
         private Callable<RefreshRequest> scheduledHandler;
         private DataChangedListener eventHandler;
         private QueryIteratorCopy currentResult;
@@ -283,6 +343,7 @@ public class StreamExecutor {
         public StreamRuntimeInfo(Window window) {
             this.window = window;
             scheduledRefreshable = window instanceof ScheduledRefreshableWindow;
+            shared = engine.getWindowRegistry().isShared(window);
             currentResult = new QueryIteratorCopy(new QueryIterNullIterator(executionContext), executionContext);//QueryIteratorCopy(QueryIterRoot.create(executionContext));
         }
 
@@ -300,6 +361,13 @@ public class StreamExecutor {
             return scheduledRefreshable;
         }
 
+        /**
+         * @return whether the window is shared with other queries
+         */
+        public boolean isShared() {
+            return shared;
+        }
+
         /**
          * @return the scheduledHandler
          */
@@ -20,16 +20,20 @@ import com.github.ecqels.lang.op.OpRefreshableGraph;
 import com.github.ecqels.lang.op.OpRefreshableService;
 import com.github.ecqels.lang.op.OpStream;
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 import org.apache.jena.graph.Node;
 import org.apache.jena.graph.NodeFactory;
 import org.apache.jena.sparql.algebra.Op;
+import org.apache.jena.sparql.algebra.OpVars;
 import org.apache.jena.sparql.algebra.OpVisitorByType;
 import org.apache.jena.sparql.algebra.OpWalker;
 import org.apache.jena.sparql.algebra.OpWalker.WalkerVisitor;
 import org.apache.jena.sparql.algebra.op.Op0;
 import org.apache.jena.sparql.algebra.op.Op1;
 import org.apache.jena.sparql.algebra.op.Op2;
+import org.apache.jena.sparql.algebra.op.OpBGP;
 import org.apache.jena.sparql.algebra.op.OpExt;
 import org.apache.jena.sparql.algebra.op.OpFilter;
 import org.apache.jena.sparql.algebra.op.OpLeftJoin;
@@ -246,4 +250,27 @@ public class Utils {
         }
         return vars;
     }
+
+    /**
+     * @return the variables bound by op, for streams these are the variables
+     * of the window pattern and for extension ops those of their effective op
+     */
+    public static Set<Var> visibleVars(Op op) {
+        if (op instanceof OpStream) {
+            return new LinkedHashSet<>(OpVars.visibleVars(new OpBGP(((OpStream) op).getPattern())));
+        }
+        if (op instanceof OpExt) {
+            return new LinkedHashSet<>(OpVars.visibleVars(((OpExt) op).effectiveOp()));
+        }
+        return new LinkedHashSet<>(OpVars.visibleVars(op));
+    }
+
+    /**
+     * @return the variables bound by both left and right
+     */
+    public static List<Var> joinVars(Op left, Op right) {
+        Set<Var> vars = visibleVars(left);
+        vars.retainAll(visibleVars(right));
+        return new ArrayList<>(vars);
+    }
 }
@@ -20,9 +20,16 @@ import com.github.ecqels.Engine;
 import com.github.ecqels.event.DataChangedEvent;
 import com.github.ecqels.event.DataChangedListener;
 import com.github.ecqels.op.CachedOpExecutor;
+import com.github.ecqels.query.iterator.QueryIteratorCopy;
+import com.github.ecqels.window.store.WindowGraph;
+import com.github.ecqels.window.store.WindowStore;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import javax.swing.event.EventListenerList;
 import org.apache.jena.graph.Node;
-import org.apache.jena.query.DatasetFactory;
+import org.apache.jena.sparql.algebra.Algebra;
 import org.apache.jena.sparql.algebra.op.OpBGP;
 import org.apache.jena.sparql.algebra.op.OpGraph;
 import org.apache.jena.sparql.core.BasicPattern;
@@ -30,6 +37,8 @@ import org.apache.jena.sparql.core.DatasetGraph;
 import org.apache.jena.sparql.core.Quad;
 import org.apache.jena.sparql.engine.ExecutionContext;
 import org.apache.jena.sparql.engine.QueryIterator;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.engine.iterator.QueryIterPlainWrapper;
 import org.apache.jena.sparql.engine.iterator.QueryIterRoot;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -43,26 +52,77 @@ public abstract class AbstractWindow implements Window {
     private static final Logger LOGGER = LoggerFactory.getLogger(AbstractWindow.class);
 
     protected final DatasetGraph datasetGraph;
+    protected final WindowStore store;
     protected final Node streamNode;
     protected final BasicPattern pattern;
     protected final Engine engine;
     protected EventListenerList listeners = new EventListenerList();
     protected boolean stop = false;
     protected OpGraph op;
+    protected final IncrementalEvaluator incrementalEvaluator;
+    // incremented on every modification of the window store, guarded by the dataset lock
+    protected long version = 0;
+    private final Object resultLock = new Object();
+    private QueryIteratorCopy lastResult;
+    private long lastResultVersion = -1;
 
     public AbstractWindow(Engine engine, Node streamNode, BasicPattern pattern) {
         this.engine = engine;
         this.streamNode = streamNode;
         this.pattern = pattern;
-        this.datasetGraph = DatasetFactory.create().asDatasetGraph();
+        this.datasetGraph = WindowGraph.createDatasetGraph(streamNode);
+        this.store = ((WindowGraph) datasetGraph.getGraph(streamNode)).getStore();
+        this.incrementalEvaluator = engine.isIncrementalEvaluation()
+                ? new IncrementalEvaluator(streamNode, pattern, datasetGraph, engine.getARQExecutionContext())
+                : null;
     }
 
     public QueryIterator evaluate() {
         return evaluate(QueryIterRoot.create(engine.getARQExecutionContext()), engine.getARQExecutionContext());
     }
 
+    /**
+     * Evaluates the window pattern. Evaluations without input bindings are
+     * memoized until the window content changes, so consumers sharing this
+     * window (see {@link WindowRegistry}) evaluate it only once per change.
+     */
     @Override
     public QueryIterator evaluate(QueryIterator input, ExecutionContext execCxt) {
+        if (!(input instanceof QueryIterRoot)) {
+            return evaluatePattern(input, execCxt);
+        }
+        datasetGraph.getLock().enterCriticalSection(true);
+        try {
+            synchronized (resultLock) {
+                if (lastResult != null && lastResultVersion == version) {
+                    input.close();
+                    return lastResult.copy();
+                }
+            }
+            long currentVersion = version;
+            QueryIteratorCopy result = new QueryIteratorCopy(evaluatePattern(input, execCxt), execCxt);
+            result.close();
+            synchronized (resultLock) {
+                lastResult = result;
+                lastResultVersion = currentVersion;
+            }
+            return result.copy();
+        } finally {
+            datasetGraph.getLock().leaveCriticalSection();
+        }
+    }
+
+    protected QueryIterator evaluatePattern(QueryIterator input, ExecutionContext execCxt) {
+        if (incrementalEvaluator != null) {
+            List<Binding> result;
+            datasetGraph.getLock().enterCriticalSection(true);
+            try {
+                result = joinWithInput(input, incrementalEvaluator.getMatches());
+            } finally {
+                datasetGraph.getLock().leaveCriticalSection();
+            }
+            return new QueryIterPlainWrapper(result.iterator(), execCxt);
+        }
         if (op == null) {
             op = new OpGraph(streamNode, new OpBGP(pattern));
         }
@@ -91,11 +151,105 @@ public abstract class AbstractWindow implements Window {
         if (stop) {
             return;
         }
+        insertAll(Collections.singletonList(quad));
+    }
+
+    @Override
+    public void addAll(final List<Quad> quads) {
+        if (stop) {
+            return;
+        }
+        insertAll(quads);
+    }
+
+    protected void insertAll(final List<Quad> quads) {
         datasetGraph.getLock().enterCriticalSection(false);
-        datasetGraph.add(quad);
+        for (Quad quad : quads) {
+            insertQuad(quad);
+        }
         datasetGraph.getLock().leaveCriticalSection();
     }
 
+    /**
+     * Adds quad to the window store, re-adding a quad refreshes its
+     * timestamp. Caller must hold the write lock.
+     */
+    protected void insertQuad(final Quad quad) {
+        version++;
+        if (incrementalEvaluator == null) {
+            datasetGraph.add(quad);
+            return;
+        }
+        boolean present = datasetGraph.contains(quad);
+        datasetGraph.add(quad);
+        if (!present) {
+            incrementalEvaluator.added(quad);
+        }
+    }
+
+    /**
+     * Removes quad from the window store. Caller must hold the write lock.
+     */
+    protected void deleteQuad(final Quad quad) {
+        version++;
+        if (incrementalEvaluator == null) {
+            datasetGraph.delete(quad);
+            return;
+        }
+        if (!datasetGraph.contains(quad)) {
+            return;
+        }
+        incrementalEvaluator.removing(quad);
+        datasetGraph.delete(quad);
+    }
+
+    /**
+     * Removes all quads that were added before timestamp (as of
+     * {@link System#nanoTime()}) from the window store in bulk. Caller must
+     * hold the write lock.
+     *
+     * @return the number of removed quads
+     */
+    protected int expireBefore(long timestamp) {
+        int result = store.expireBefore(timestamp, incrementalEvaluator == null
+                ? null
+                : triple -> incrementalEvaluator.removing(new Quad(streamNode, triple)));
+        if (result > 0) {
+            version++;
+        }
+        return result;
+    }
+
+    /**
+     * Removes all quads from the window store. Caller must hold the write
+     * lock.
+     */
+    protected void clearQuads() {
+        version++;
+        if (incrementalEvaluator != null) {
+            incrementalEvaluator.clear();
+        }
+        datasetGraph.getGraph(streamNode).clear();
+    }
+
+    private List<Binding> joinWithInput(QueryIterator input, Collection<Binding> matches) {
+        List<Binding> result = new ArrayList<>();
+        while (input.hasNext()) {
+            Binding parent = input.nextBinding();
+            if (parent.isEmpty()) {
+                result.addAll(matches);
+                continue;
+            }
+            for (Binding match : matches) {
+                if (Algebra.compatible(parent, match)) {
+                    result.add(Algebra.merge(parent, match));
+                }
+            }
+        }
+        input.close();
+        return result;
+    }
+
     @Override
     public DatasetGraph getDatasetGraph() {
         return datasetGraph;
@@ -115,10 +269,13 @@ public abstract class AbstractWindow implements Window {
         if (stop) {
             return;
         }
+        // a shared window has one listener per consuming query, each needs its own iterator
+        QueryIteratorCopy copy = new QueryIteratorCopy(result, engine.getARQExecutionContext());
+        copy.close();
         Object[] temp = listeners.getListenerList();
         for (int i = 0; i < temp.length; i = i + 2) {
             if (temp[i] == DataChangedListener.class) {
-                ((DataChangedListener) temp[i + 1]).dataChanged(new DataChangedEvent(this, this, result));
+                ((DataChangedListener) temp[i + 1]).dataChanged(new DataChangedEvent(this, this, copy.copy()));
             }
         }
     }
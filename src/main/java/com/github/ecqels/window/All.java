@@ -17,6 +17,8 @@
 package com.github.ecqels.window;
 
 import com.github.ecqels.Engine;
+import java.util.Collections;
+import java.util.List;
 import org.apache.jena.graph.Node;
 import org.apache.jena.sparql.core.BasicPattern;
 import org.apache.jena.sparql.core.Quad;
@@ -29,7 +31,15 @@ public class All extends AbstractWindow {
 
     @Override
     public void add(final Quad quad) {
-        super.add(quad);
+        addAll(Collections.singletonList(quad));
+    }
+
+    @Override
+    public void addAll(final List<Quad> quads) {
+        if (stop) {
+            return;
+        }
+        insertAll(quads);
         fireDataChanged(evaluate());
     }
 
@@ -0,0 +1,180 @@
+/*
+ *  Copyright (C) 2016 Michael Jacoby.
+ *
+ *  This library is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation, either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.ecqels.window;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.sparql.core.Quad;
+
+/**
+ * Discrimination index over the triple patterns of the registered windows,
+ * keyed by stream, predicate and object. Variables are indexed as
+ * {@link Node#ANY}, so a quad is looked up under at most four keys per stream
+ * and only the patterns found there are matched against it. Quads that cannot
+ * match any pattern of a window are not routed to that window.
+ *
+ * Only windows whose result depends on the matching quads alone may be
+ * registered, count-based windows evict by the number of all quads and
+ * therefore have to see every quad.
+ *
+ * @see WindowRegistry
+ */
+public class AlphaNetwork {
+
+    private final Map<Window, List<Triple>> windows = new IdentityHashMap<>();
+    // rebuilt on every change and read without locking
+    private volatile Map<Node, StreamIndex> index = Collections.emptyMap();
+
+    public synchronized void register(Window window) {
+        windows.put(window, window.getPattern().getList());
+        rebuild();
+    }
+
+    public synchronized void unregister(Window window) {
+        if (windows.remove(window) != null) {
+            rebuild();
+        }
+    }
+
+    public synchronized boolean isRegistered(Window window) {
+        return windows.containsKey(window);
+    }
+
+    /**
+     * @return the routing of quads received on stream to the registered
+     * windows
+     */
+    public Routing route(Node stream, List<Quad> quads) {
+        StreamIndex streamIndex = index.get(stream);
+        if (streamIndex == null) {
+            return Routing.unfiltered(quads);
+        }
+        Map<Window, List<Quad>> routed = new IdentityHashMap<>();
+        for (Quad quad : quads) {
+            Triple triple = quad.asTriple();
+            Set<Window> matched = Collections.newSetFromMap(new IdentityHashMap<>());
+            match(streamIndex.byPredicate.get(triple.getPredicate()), triple, matched);
+            match(streamIndex.byPredicate.get(Node.ANY), triple, matched);
+            for (Window window : matched) {
+                routed.computeIfAbsent(window, x -> new ArrayList<>()).add(quad);
+            }
+        }
+        return new Routing(quads, routed, streamIndex.windows);
+    }
+
+    private static void match(Map<Node, List<Entry>> byObject, Triple triple, Set<Window> matched) {
+        if (byObject == null) {
+            return;
+        }
+        match(byObject.get(triple.getObject()), triple, matched);
+        match(byObject.get(Node.ANY), triple, matched);
+    }
+
+    private static void match(List<Entry> entries, Triple triple, Set<Window> matched) {
+        if (entries == null) {
+            return;
+        }
+        for (Entry entry : entries) {
+            // remaining constraints are constant subjects and repeated variables
+            if (!matched.contains(entry.window) && PatternMatcher.canMatch(entry.pattern, triple)) {
+                matched.add(entry.window);
+            }
+        }
+    }
+
+    private void rebuild() {
+        Map<Node, StreamIndex> result = new HashMap<>();
+        for (Map.Entry<Window, List<Triple>> window : windows.entrySet()) {
+            StreamIndex streamIndex = result.computeIfAbsent(window.getKey().getStreamNode(), x -> new StreamIndex());
+            streamIndex.windows.add(window.getKey());
+            for (Triple pattern : window.getValue()) {
+                streamIndex.byPredicate
+                        .computeIfAbsent(key(pattern.getPredicate()), x -> new HashMap<>())
+                        .computeIfAbsent(key(pattern.getObject()), x -> new ArrayList<>())
+                        .add(new Entry(window.getKey(), pattern));
+            }
+        }
+        index = result;
+    }
+
+    private static Node key(Node node) {
+        return node.isConcrete() ? node : Node.ANY;
+    }
+
+    private static class StreamIndex {
+
+        private final Map<Node, Map<Node, List<Entry>>> byPredicate = new HashMap<>();
+        private final Set<Window> windows = Collections.newSetFromMap(new IdentityHashMap<>());
+    }
+
+    private static class Entry {
+
+        private final Window window;
+        private final Triple pattern;
+
+        Entry(Window window, Triple pattern) {
+            this.window = window;
+            this.pattern = pattern;
+        }
+    }
+
+    /**
+     * Quads received on a stream together with the registered windows they
+     * were routed to. Windows that are not registered receive all quads.
+     */
+    public static class Routing {
+
+        private final List<Quad> quads;
+        private final Map<Window, List<Quad>> routed;
+        private final Set<Window> registered;
+
+        private Routing(List<Quad> quads, Map<Window, List<Quad>> routed, Set<Window> registered) {
+            this.quads = quads;
+            this.routed = routed;
+            this.registered = registered;
+        }
+
+        /**
+         * @return a routing passing all quads to every window
+         */
+        public static Routing unfiltered(List<Quad> quads) {
+            return new Routing(quads, Collections.emptyMap(), Collections.emptySet());
+        }
+
+        public List<Quad> getQuads() {
+            return quads;
+        }
+
+        /**
+         * @return the quads to add to window, in arrival order
+         */
+        public List<Quad> getQuads(Window window) {
+            if (!registered.contains(window)) {
+                return quads;
+            }
+            List<Quad> result = routed.get(window);
+            return result == null ? Collections.emptyList() : result;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ *  Copyright (C) 2016 Michael Jacoby.
+ *
+ *  This library is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation, either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.ecqels.window;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.sparql.algebra.op.OpBGP;
+import org.apache.jena.sparql.algebra.op.OpGraph;
+import org.apache.jena.sparql.core.BasicPattern;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.sparql.core.Substitute;
+import org.apache.jena.sparql.engine.ExecutionContext;
+import org.apache.jena.sparql.engine.QueryIterator;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.engine.binding.BindingFactory;
+import org.apache.jena.sparql.engine.iterator.QueryIterSingleton;
+import org.apache.jena.tdb.solver.OpExecutorTDB1;
+
+/**
+ * Maintains the result of a window's basic graph pattern under insertion and
+ * deletion of single quads. Only the changed quad is matched against the
+ * pattern, the remaining triple patterns are evaluated with the resulting
+ * binding substituted, so cost depends on the number of affected matches
+ * rather than on the window size.
+ *
+ * Callers must hold the write lock of the dataset graph and call
+ * {@link #added(Quad)} after and {@link #removing(Quad)} before the quad is
+ * actually changed in the dataset graph.
+ *
+ * @see AbstractWindow
+ */
+public class IncrementalEvaluator {
+
+    private final Node streamNode;
+    private final BasicPattern pattern;
+    private final ExecutionContext context;
+    private final Set<Binding> matches = new LinkedHashSet<>();
+
+    public IncrementalEvaluator(Node streamNode, BasicPattern pattern, DatasetGraph datasetGraph, ExecutionContext context) {
+        this.streamNode = streamNode;
+        this.pattern = pattern;
+        this.context = new ExecutionContext(context.getContext(), null, datasetGraph, OpExecutorTDB1.OpExecFactoryTDB);
+    }
+
+    public void added(Quad quad) {
+        matches.addAll(affectedMatches(quad));
+    }
+
+    public void removing(Quad quad) {
+        matches.removeAll(affectedMatches(quad));
+    }
+
+    public void clear() {
+        matches.clear();
+    }
+
+    /**
+     * @return an unmodifiable view of the current matches, only valid while
+     * the caller holds the lock of the dataset graph
+     */
+    public Collection<Binding> getMatches() {
+        return Collections.unmodifiableSet(matches);
+    }
+
+    public int size() {
+        return matches.size();
+    }
+
+    /**
+     * @return all matches of the pattern that use quad for at least one of its
+     * triple patterns
+     */
+    private List<Binding> affectedMatches(Quad quad) {
+        Set<Binding> result = new LinkedHashSet<>();
+        List<Triple> triples = pattern.getList();
+        for (int i = 0; i < triples.size(); i++) {
+            Binding binding = PatternMatcher.match(triples.get(i), quad.asTriple(), BindingFactory.root());
+            if (binding == null) {
+                continue;
+            }
+            BasicPattern rest = new BasicPattern();
+            for (int j = 0; j < triples.size(); j++) {
+                if (j != i) {
+                    rest.add(triples.get(j));
+                }
+            }
+            if (rest.isEmpty()) {
+                result.add(binding);
+                continue;
+            }
+            OpGraph op = new OpGraph(streamNode, new OpBGP(Substitute.substitute(rest, binding)));
+            QueryIterator iterator = OpExecutorTDB1.OpExecFactoryTDB.create(context).executeOp(op, QueryIterSingleton.create(binding, context));
+            while (iterator.hasNext()) {
+                result.add(iterator.nextBinding());
+            }
+            iterator.close();
+        }
+        return new ArrayList<>(result);
+    }
+}
@@ -17,12 +17,20 @@
 package com.github.ecqels.window;
 
 import com.github.ecqels.Engine;
+import java.util.ArrayList;
+import java.util.List;
 import org.apache.jena.graph.Node;
 import org.apache.jena.sparql.core.BasicPattern;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.sparql.engine.ExecutionContext;
+import org.apache.jena.sparql.engine.QueryIterator;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.engine.iterator.QueryIterPlainWrapper;
 
 /**
  * This class implements the now window - a triple-based window with just newest
- * element
+ * element. As the window holds a single triple, its pattern is matched
+ * directly against the newest quad instead of going through the window store.
  *
  * @author	Danh Le Phuoc
  * @author Chan Le Van
@@ -32,10 +40,43 @@ import org.apache.jena.sparql.core.BasicPattern;
  */
 public class Now extends TripleWindow {
 
+    private volatile Quad current;
+
     public Now(Engine engine, Node streamNode, BasicPattern pattern) {
         super(engine, streamNode, pattern, 1);
     }
 
+    @Override
+    public void add(final Quad quad) {
+        if (stop) {
+            return;
+        }
+        current = quad;
+    }
+
+    @Override
+    public void addAll(final List<Quad> quads) {
+        if (stop || quads.isEmpty()) {
+            return;
+        }
+        current = quads.get(quads.size() - 1);
+    }
+
+    @Override
+    public QueryIterator evaluate(QueryIterator input, ExecutionContext execCxt) {
+        Quad quad = current;
+        List<Binding> result = new ArrayList<>(1);
+        while (input.hasNext()) {
+            Binding parent = input.nextBinding();
+            Binding match = quad == null ? null : PatternMatcher.match(pattern, quad.asTriple(), parent);
+            if (match != null) {
+                result.add(match);
+            }
+        }
+        input.close();
+        return new QueryIterPlainWrapper(result.iterator(), execCxt);
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (obj == null || !(obj instanceof Now)) {
@@ -43,4 +84,9 @@ public class Now extends TripleWindow {
         }
         return true;
     }
+
+    @Override
+    public Window clone() {
+        return new Now(engine, streamNode, pattern);
+    }
 }
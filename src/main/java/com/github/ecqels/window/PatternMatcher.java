@@ -0,0 +1,87 @@
+/*
+ *  Copyright (C) 2016 Michael Jacoby.
+ *
+ *  This library is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation, either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.ecqels.window;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.sparql.core.BasicPattern;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.engine.binding.BindingFactory;
+
+/**
+ * Matches single triples against triple patterns without going through a
+ * store.
+ */
+public class PatternMatcher {
+
+    /**
+     * @return the binding extending parent with the variables of pattern, or
+     * null if triple does not match pattern under parent
+     */
+    public static Binding match(Triple pattern, Triple triple, Binding parent) {
+        Binding result = match(pattern.getSubject(), triple.getSubject(), parent);
+        if (result == null) {
+            return null;
+        }
+        result = match(pattern.getPredicate(), triple.getPredicate(), result);
+        if (result == null) {
+            return null;
+        }
+        return match(pattern.getObject(), triple.getObject(), result);
+    }
+
+    /**
+     * @return the binding extending parent with the variables of all triple
+     * patterns, each matched against the same triple, or null if one of them
+     * does not match. This is the result of pattern over a graph holding only
+     * triple.
+     */
+    public static Binding match(BasicPattern pattern, Triple triple, Binding parent) {
+        Binding result = parent;
+        for (Triple triplePattern : pattern) {
+            result = match(triplePattern, triple, result);
+            if (result == null) {
+                return null;
+            }
+        }
+        return result;
+    }
+
+    public static boolean canMatch(Triple pattern, Triple triple) {
+        return match(pattern, triple, BindingFactory.root()) != null;
+    }
+
+    private static Binding match(Node patternNode, Node node, Binding binding) {
+        if (Var.isVar(patternNode)) {
+            Var var = Var.alloc(patternNode);
+            Node bound = binding.get(var);
+            if (bound == null) {
+                return BindingFactory.binding(binding, var, node);
+            }
+            return bound.equals(node) ? binding : null;
+        }
+        if (patternNode.equals(Node.ANY)) {
+            return binding;
+        }
+        return patternNode.equals(node) ? binding : null;
+    }
+
+    private PatternMatcher() {
+
+    }
+}
@@ -18,19 +18,18 @@ package com.github.ecqels.window;
 
 import com.github.ecqels.Engine;
 import com.github.ecqels.lang.window.Duration;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 import org.apache.jena.graph.Node;
 import org.apache.jena.sparql.core.BasicPattern;
-import org.apache.jena.sparql.core.Quad;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class SlidingWindow extends ScheduledRefreshableWindow {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(SlidingWindow.class);
+
     protected Duration size;
     protected Duration slide;
     protected long windowStart;
-    protected final ConcurrentMap<Long, Quad> cache;
 
     public SlidingWindow(Engine engine, Node streamNode, BasicPattern pattern, Duration size, Duration slide) {
         super(engine, streamNode, pattern);
@@ -42,21 +41,9 @@ public class SlidingWindow extends ScheduledRefreshableWindow {
         }
         this.size = size;
         this.slide = slide;
-        //cache = new TreeMap<>();
-        cache = new ConcurrentHashMap<>();
         windowStart = System.nanoTime();
     }
 
-    @Override
-    public void add(final Quad quad) {
-        // only add if in curretn window
-        long timestamp = System.nanoTime();
-        //   if (timestamp <= windowStart + size.inNanoSec()) {
-        cache.put(timestamp, quad);
-        super.add(quad);
-        // }
-    }
-
     @Override
     public void stop() {
         super.stop();
@@ -69,22 +56,14 @@ public class SlidingWindow extends ScheduledRefreshableWindow {
 
     @Override
     public void purgeBeforeExecution() {
+        datasetGraph.getLock().enterCriticalSection(false);
         try {
-            synchronized (this) {
-                long minTimestamp = System.nanoTime() - size.inNanoSec();
-                for (Map.Entry<Long, Quad> entry : cache.entrySet()) {
-                    if (entry.getKey() < minTimestamp) {
-                        cache.remove(entry.getKey());
-                        datasetGraph.delete(entry.getValue());
-                    }
-                }
-            }
+            expireBefore(System.nanoTime() - size.inNanoSec());
         } catch (Exception e) {
-            System.out.println("error purging window" + e);
+            LOGGER.warn("error purging window", e);
+        } finally {
+            datasetGraph.getLock().leaveCriticalSection();
         }
-//        SortedMap<Long, Quad> toRemove = cache.headMap(minTimestamp);
-//        toRemove.keySet().forEach(key -> cache.remove(key));
-//        toRemove.values().forEach(quad -> datasetGraph.delete(quad));
     }
 
     @Override
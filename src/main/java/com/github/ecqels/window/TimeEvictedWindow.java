@@ -18,13 +18,13 @@ package com.github.ecqels.window;
 
 import com.github.ecqels.Engine;
 import com.github.ecqels.lang.window.Duration;
-import com.github.ecqels.query.iterator.QueryIteratorCopy;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Collections;
+import java.util.List;
 import org.apache.jena.graph.Node;
 import org.apache.jena.sparql.core.BasicPattern;
 import org.apache.jena.sparql.core.Quad;
-import org.apache.jena.sparql.engine.QueryIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  *
@@ -32,49 +32,71 @@ import org.apache.jena.sparql.engine.QueryIterator;
  */
 public class TimeEvictedWindow extends AbstractWindow {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(TimeEvictedWindow.class);
     protected final Duration size;
-    protected Timer timer;
+    protected final TimingWheel timingWheel;
+    private final TimingWheel.ExpirationListener<Quad> evictionListener = this::evict;
 
     public TimeEvictedWindow(Engine engine, Node streamNode, BasicPattern pattern, Duration size) {
         super(engine, streamNode, pattern);
         this.size = size;
-        timer = new Timer("window eviction timer", true);
+        this.timingWheel = engine.getTimingWheel();
     }
 
     @Override
     public void add(final Quad quad) {
-        if (timer != null) {
-            timer.schedule(new TimerTask() {
-                @Override
-                public void run() {
-
-                    try {
-                        datasetGraph.getLock().enterCriticalSection(false);
-                        datasetGraph.delete(quad);
-                        datasetGraph.getLock().leaveCriticalSection();
-
-                        QueryIterator temp = evaluate();
+        addAll(Collections.singletonList(quad));
+    }
 
-                        datasetGraph.getLock().enterCriticalSection(true);
-                        QueryIteratorCopy result = new QueryIteratorCopy(temp, engine.getARQExecutionContext());
-                        result.close();
-                        datasetGraph.getLock().leaveCriticalSection();
+    @Override
+    public void addAll(final List<Quad> quads) {
+        if (stop) {
+            return;
+        }
+        datasetGraph.getLock().enterCriticalSection(false);
+        try {
+            for (Quad quad : quads) {
+                insertQuad(quad);
+            }
+        } finally {
+            datasetGraph.getLock().leaveCriticalSection();
+        }
+        for (Quad quad : quads) {
+            timingWheel.schedule(evictionListener, quad, size.inMiliSec());
+        }
+    }
 
-                        //fireDataChanged(result.copy());
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
-                }
-            }, size.inMiliSec());
-            super.add(quad);
+    /**
+     * Removes all quads expired within one tick of the timing wheel and
+     * re-evaluates the window once. The wheel never fires early, so every
+     * quad whose timeout fired has been stored at least size ago and is
+     * removed by the bulk expiry of the window store; quads re-added in the
+     * meantime carry a newer timestamp and stay.
+     */
+    protected void evict(List<Quad> quads) {
+        if (stop) {
+            return;
+        }
+        int removed;
+        datasetGraph.getLock().enterCriticalSection(false);
+        try {
+            removed = expireBefore(System.nanoTime() - size.inNanoSec() + 1);
+        } finally {
+            datasetGraph.getLock().leaveCriticalSection();
+        }
+        if (removed == 0) {
+            return;
+        }
+        try {
+            fireDataChanged(evaluate());
+        } catch (Exception e) {
+            LOGGER.error("error re-evaluating window after eviction", e);
         }
     }
 
     @Override
     public void stop() {
         super.stop();
-        timer.cancel();
-        timer = null;
     }
 
     @Override
@@ -0,0 +1,161 @@
+/*
+ *  Copyright (C) 2016 Michael Jacoby.
+ *
+ *  This library is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation, either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.ecqels.window;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hashed timing wheel that expires items after a delay. All items due in the
+ * same tick are handed to their {@link ExpirationListener} in a single call,
+ * so a listener is notified at most once per tick no matter how many of its
+ * items expire. A shared scheduler advances the wheel and the listeners are
+ * notified on the engine executor; scheduling from other threads only appends
+ * to a lock-free queue that is moved into the buckets before each tick.
+ */
+public class TimingWheel {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TimingWheel.class);
+    public static final long DEFAULT_TICK_DURATION = 10;
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+
+    private final long tickNanos;
+    private final List<List<Timeout<?>>> wheel;
+    private final int mask;
+    private final Queue<Timeout<?>> pending = new ConcurrentLinkedQueue<>();
+    private final Executor executor;
+    private final ScheduledFuture<?> ticker;
+    private final long startTime;
+    private long tick = 0;
+
+    public TimingWheel(ScheduledExecutorService scheduler, Executor executor) {
+        this(DEFAULT_TICK_DURATION, DEFAULT_WHEEL_SIZE, scheduler, executor);
+    }
+
+    /**
+     * @param tickDuration length of one tick in milliseconds
+     * @param wheelSize number of buckets, must be a power of two
+     * @param scheduler advances the wheel once per tick
+     * @param executor notifies the listeners of expired items
+     */
+    public TimingWheel(long tickDuration, int wheelSize, ScheduledExecutorService scheduler, Executor executor) {
+        if (tickDuration <= 0) {
+            throw new IllegalArgumentException("tickDuration must be > 0");
+        }
+        if (wheelSize <= 0 || Integer.bitCount(wheelSize) != 1) {
+            throw new IllegalArgumentException("wheelSize must be a power of two");
+        }
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickDuration);
+        this.wheel = new ArrayList<>(wheelSize);
+        for (int i = 0; i < wheelSize; i++) {
+            wheel.add(new LinkedList<>());
+        }
+        this.mask = wheelSize - 1;
+        this.startTime = System.nanoTime();
+        this.executor = executor;
+        this.ticker = scheduler.scheduleAtFixedRate(this::advance, tickDuration, tickDuration, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Schedules item to be handed to listener after delay milliseconds,
+     * rounded up to the next tick.
+     */
+    public <T> void schedule(ExpirationListener<T> listener, T item, long delay) {
+        pending.add(new Timeout<>(listener, item, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay)));
+    }
+
+    public void stop() {
+        ticker.cancel(false);
+        pending.clear();
+    }
+
+    private void advance() {
+        try {
+            long currentTick = (System.nanoTime() - startTime) / tickNanos;
+            transferPending();
+            Map<ExpirationListener<?>, List<Object>> expired = new IdentityHashMap<>();
+            for (; tick <= currentTick; tick++) {
+                Iterator<Timeout<?>> iterator = wheel.get((int) (tick & mask)).iterator();
+                while (iterator.hasNext()) {
+                    Timeout<?> timeout = iterator.next();
+                    if (timeout.deadlineTick <= tick) {
+                        iterator.remove();
+                        expired.computeIfAbsent(timeout.listener, x -> new ArrayList<>()).add(timeout.item);
+                    }
+                }
+            }
+            // listeners do the actual work, the scheduler only advances the wheel
+            expired.forEach((listener, items) -> executor.execute(() -> notify(listener, items)));
+        } catch (Exception e) {
+            LOGGER.error("error advancing timing wheel", e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void notify(ExpirationListener<?> listener, List<Object> items) {
+        try {
+            ((ExpirationListener<Object>) listener).expired(items);
+        } catch (Exception e) {
+            LOGGER.error("error notifying expiration listener", e);
+        }
+    }
+
+    private void transferPending() {
+        Timeout<?> timeout;
+        while ((timeout = pending.poll()) != null) {
+            long deadline = timeout.deadline - startTime;
+            timeout.deadlineTick = Math.max(tick, (deadline + tickNanos - 1) / tickNanos);
+            wheel.get((int) (timeout.deadlineTick & mask)).add(timeout);
+        }
+    }
+
+    @FunctionalInterface
+    public interface ExpirationListener<T> {
+
+        /**
+         * Called from the executor with all items of this listener that
+         * expired in the same tick, in scheduling order.
+         */
+        public void expired(List<T> items);
+    }
+
+    private static class Timeout<T> {
+
+        private final ExpirationListener<T> listener;
+        private final T item;
+        private final long deadline;
+        private long deadlineTick;
+
+        Timeout(ExpirationListener<T> listener, T item, long deadline) {
+            this.listener = listener;
+            this.item = item;
+            this.deadline = deadline;
+        }
+    }
+}
@@ -17,39 +17,78 @@
 package com.github.ecqels.window;
 
 import com.github.ecqels.Engine;
-import java.util.Deque;
-import java.util.LinkedList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import org.apache.jena.graph.Node;
 import org.apache.jena.sparql.core.BasicPattern;
 import org.apache.jena.sparql.core.Quad;
 
+/**
+ * Count-based window holding the last count quads. The quads are kept in a
+ * fixed-size ring buffer together with the number of times each quad is
+ * contained, so the window store is only changed when a quad enters the
+ * window for the first time or its last occurrence is evicted.
+ */
 public class TripleWindow extends AbstractWindow {
 
-    private final Deque<Quad> cache;
+    private final Quad[] ring;
+    private final Map<Quad, Integer> multiplicities = new HashMap<>();
     private final long count;
+    private int head = 0;
+    private int size = 0;
 
     public TripleWindow(Engine engine, Node streamNode, BasicPattern pattern, long count) {
         super(engine, streamNode, pattern);
+        if (count <= 0 || count > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("count must be between 1 and " + Integer.MAX_VALUE);
+        }
         this.count = count;
-        cache = new LinkedList<>();
+        this.ring = new Quad[(int) count];
     }
 
     @Override
     public void add(final Quad quad) {
-        super.add(quad);
-        cache.addLast(quad);
-        if (cache.size() > count) {
-            datasetGraph.getLock().enterCriticalSection(false);
-            Quad toDelete = cache.pollFirst();
-            datasetGraph.delete(toDelete);
-            cache.stream().filter(e -> e.equals(toDelete)).forEach(e -> datasetGraph.add(e));
-            datasetGraph.getLock().leaveCriticalSection();
+        if (stop) {
+            return;
         }
+        datasetGraph.getLock().enterCriticalSection(false);
+        insert(quad);
+        datasetGraph.getLock().leaveCriticalSection();
 //        QueryIterator result = evaluate();
 //        QueryIteratorCopy temp = new QueryIteratorCopy(result);
 //        fireDataChanged(temp.copy());
     }
 
+    @Override
+    public void addAll(final List<Quad> quads) {
+        if (stop) {
+            return;
+        }
+        datasetGraph.getLock().enterCriticalSection(false);
+        quads.forEach(quad -> insert(quad));
+        datasetGraph.getLock().leaveCriticalSection();
+    }
+
+    private void insert(final Quad quad) {
+        if (multiplicities.merge(quad, 1, Integer::sum) == 1) {
+            insertQuad(quad);
+        }
+        if (size < ring.length) {
+            ring[(head + size) % ring.length] = quad;
+            size++;
+            return;
+        }
+        Quad toDelete = ring[head];
+        ring[head] = quad;
+        head = (head + 1) % ring.length;
+        int remaining = multiplicities.merge(toDelete, -1, Integer::sum);
+        if (remaining == 0) {
+            multiplicities.remove(toDelete);
+            deleteQuad(toDelete);
+        }
+    }
+
     public void stop() {
         super.stop();
     }
@@ -52,7 +52,7 @@ public class TumblingWindow extends ScheduledRefreshableWindow {
 
     @Override
     public void purgeAfterExecution() {
-        datasetGraph.deleteAny(Node.ANY, Node.ANY, Node.ANY, Node.ANY);
+        clearQuads();
     }
 
     @Override
@@ -17,6 +17,7 @@
 package com.github.ecqels.window;
 
 import com.github.ecqels.event.DataChangedListener;
+import java.util.List;
 import org.apache.jena.graph.Node;
 import org.apache.jena.sparql.core.BasicPattern;
 import org.apache.jena.sparql.core.DatasetGraph;
@@ -28,6 +29,8 @@ public interface Window {
 
     public void add(final Quad quad);
 
+    public void addAll(final List<Quad> quads);
+
     public void stop();
 
     public DatasetGraph getDatasetGraph();
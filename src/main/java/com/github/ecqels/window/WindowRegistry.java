@@ -0,0 +1,181 @@
+/*
+ *  Copyright (C) 2016 Michael Jacoby.
+ *
+ *  This library is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation, either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.ecqels.window;
+
+import com.github.ecqels.Engine;
+import com.github.ecqels.lang.window.WindowInfo;
+import com.github.ecqels.refresh.RefreshManager;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.apache.jena.graph.Node;
+import org.apache.jena.sparql.core.BasicPattern;
+import org.apache.jena.sparql.core.Quad;
+
+/**
+ * Reference-counted registry of windows shared between queries. Queries
+ * requesting a window on the same stream with the same window definition and
+ * pattern get the same window instance. Shared windows are fed by the engine
+ * once per incoming quad, independent of the number of queries using them.
+ *
+ * Tumbling windows are never shared as their evaluation clears their content.
+ * Windows that do not count quads are registered at an {@link AlphaNetwork}
+ * so that they only receive quads matching their pattern.
+ */
+public class WindowRegistry {
+
+    private final Engine engine;
+    private final Map<WindowKey, SharedWindow> windows = new HashMap<>();
+    private final Map<Window, SharedWindow> byWindow = new IdentityHashMap<>();
+    private final Map<Node, List<Window>> byStream = new ConcurrentHashMap<>();
+    private final AlphaNetwork alphaNetwork = new AlphaNetwork();
+
+    public WindowRegistry(Engine engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * Returns a window for the given definition, creating a new one if there
+     * is no shared one yet. Each call must be paired with a call to
+     * {@link #release(Window)}.
+     */
+    public synchronized Window acquire(RefreshManager refreshManager, Node streamNode, BasicPattern pattern, WindowInfo info) {
+        if (!isShareable(info)) {
+            return register(WindowFactory.createWindow(engine, refreshManager, streamNode, pattern, info), info);
+        }
+        WindowKey key = new WindowKey(streamNode, pattern, info);
+        SharedWindow shared = windows.get(key);
+        if (shared == null) {
+            shared = new SharedWindow(key, register(WindowFactory.createWindow(engine, refreshManager, streamNode, pattern, info), info));
+            windows.put(key, shared);
+            byWindow.put(shared.window, shared);
+            byStream.computeIfAbsent(streamNode, x -> new CopyOnWriteArrayList<>()).add(shared.window);
+        }
+        shared.references++;
+        return shared.window;
+    }
+
+    /**
+     * Releases a window obtained from {@link #acquire}. The window is stopped
+     * when its last user releases it.
+     */
+    public synchronized void release(Window window) {
+        SharedWindow shared = byWindow.get(window);
+        if (shared == null) {
+            alphaNetwork.unregister(window);
+            window.stop();
+            return;
+        }
+        shared.references--;
+        if (shared.references > 0) {
+            return;
+        }
+        windows.remove(shared.key);
+        byWindow.remove(window);
+        List<Window> streamWindows = byStream.get(shared.key.streamNode);
+        if (streamWindows != null) {
+            streamWindows.remove(window);
+            if (streamWindows.isEmpty()) {
+                byStream.remove(shared.key.streamNode);
+            }
+        }
+        alphaNetwork.unregister(window);
+        window.stop();
+    }
+
+    /**
+     * @return the windows quads received on streamNode are routed to
+     */
+    public AlphaNetwork.Routing route(Node streamNode, List<Quad> quads) {
+        return alphaNetwork.route(streamNode, quads);
+    }
+
+    private Window register(Window window, WindowInfo info) {
+        if (isFilterable(info)) {
+            alphaNetwork.register(window);
+        }
+        return window;
+    }
+
+    /**
+     * @return whether windows of info only need the quads matching their
+     * pattern, i.e. do not count quads
+     */
+    protected boolean isFilterable(WindowInfo info) {
+        return info.getType() != WindowInfo.WindowType.NOW && info.getType() != WindowInfo.WindowType.TRIPLES;
+    }
+
+    public synchronized boolean isShared(Window window) {
+        return byWindow.containsKey(window);
+    }
+
+    /**
+     * @return the shared windows on streamNode
+     */
+    public List<Window> getWindows(Node streamNode) {
+        List<Window> result = byStream.get(streamNode);
+        return result == null ? Collections.emptyList() : result;
+    }
+
+    protected boolean isShareable(WindowInfo info) {
+        return info.getType() != WindowInfo.WindowType.TUMBLING;
+    }
+
+    private static class SharedWindow {
+
+        private final WindowKey key;
+        private final Window window;
+        private int references = 0;
+
+        SharedWindow(WindowKey key, Window window) {
+            this.key = key;
+            this.window = window;
+        }
+    }
+
+    private static class WindowKey {
+
+        private final Node streamNode;
+        private final BasicPattern pattern;
+        private final WindowInfo info;
+
+        WindowKey(Node streamNode, BasicPattern pattern, WindowInfo info) {
+            this.streamNode = streamNode;
+            this.pattern = pattern;
+            this.info = info;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == null || !(obj instanceof WindowKey)) {
+                return false;
+            }
+            WindowKey other = (WindowKey) obj;
+            return streamNode.equals(other.streamNode) && pattern.equals(other.pattern) && info.equals(other.info);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(streamNode, pattern, info);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ *  Copyright (C) 2016 Michael Jacoby.
+ *
+ *  This library is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation, either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.ecqels.window.store;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.jena.graph.Node;
+
+/**
+ * {@link NodeDictionary} of a single window store assigning dense ids. Every
+ * stored triple holds a reference on the ids of its nodes, an id whose last
+ * reference is released is freed and reused. The dictionary therefore only
+ * holds the nodes currently in the window and does not grow with the number
+ * of distinct nodes ever seen on the stream.
+ *
+ * Not thread-safe, access is guarded by the lock of the owning dataset graph.
+ */
+public class CountingNodeDictionary implements NodeDictionary {
+
+    private final Map<Node, Integer> ids = new HashMap<>();
+    private Node[] nodes = new Node[64];
+    private int[] references = new int[64];
+    private int[] free = new int[16];
+    private int freeCount = 0;
+    private int next = 0;
+
+    @Override
+    public long encode(Node node) {
+        Integer id = ids.get(node);
+        if (id == null) {
+            id = allocate();
+            nodes[id] = node;
+            ids.put(node, id);
+        }
+        references[id]++;
+        return id;
+    }
+
+    @Override
+    public void release(long id) {
+        int index = (int) id;
+        if (--references[index] > 0) {
+            return;
+        }
+        ids.remove(nodes[index]);
+        nodes[index] = null;
+        if (freeCount == free.length) {
+            free = Arrays.copyOf(free, free.length * 2);
+        }
+        free[freeCount++] = index;
+    }
+
+    @Override
+    public long lookup(Node node) {
+        Integer id = ids.get(node);
+        return id == null ? NO_ID : id;
+    }
+
+    @Override
+    public Node decode(long id) {
+        return nodes[(int) id];
+    }
+
+    /**
+     * @return the number of nodes currently held by the dictionary
+     */
+    public int size() {
+        return ids.size();
+    }
+
+    private int allocate() {
+        if (freeCount > 0) {
+            return free[--freeCount];
+        }
+        if (next == nodes.length) {
+            nodes = Arrays.copyOf(nodes, nodes.length * 2);
+            references = Arrays.copyOf(references, references.length * 2);
+        }
+        return next++;
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ *  Copyright (C) 2016 Michael Jacoby.
+ *
+ *  This library is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation, either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.ecqels.window.store;
+
+import org.apache.jena.graph.Node;
+
+/**
+ * Maps nodes to long ids and back. Ids are reference counted: each
+ * {@link #encode(Node)} holds a reference on the id until it is given back by
+ * {@link #release(long)}.
+ */
+public interface NodeDictionary {
+
+    public static final long NO_ID = -1;
+
+    /**
+     * @return the id of node, allocating a new one if node is not yet known,
+     * with one more reference held on it
+     */
+    public long encode(Node node);
+
+    /**
+     * Gives back a reference obtained from {@link #encode(Node)}. Once no
+     * references are left, the node is removed and its id may be reused.
+     */
+    public void release(long id);
+
+    /**
+     * @return the id of node or {@link #NO_ID} if node is not known
+     */
+    public long lookup(Node node);
+
+    public Node decode(long id);
+}
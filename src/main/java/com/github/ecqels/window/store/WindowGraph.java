@@ -0,0 +1,95 @@
+/*
+ *  Copyright (C) 2016 Michael Jacoby.
+ *
+ *  This library is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation, either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.ecqels.window.store;
+
+import org.apache.jena.graph.GraphEvents;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.graph.impl.GraphBase;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.DatasetGraphFactory;
+import org.apache.jena.util.iterator.ExtendedIterator;
+import org.apache.jena.util.iterator.WrappedIterator;
+
+/**
+ * Jena {@link org.apache.jena.graph.Graph} view on a {@link WindowStore}.
+ * Triples added through the graph API are timestamped with
+ * {@link System#nanoTime()}.
+ */
+public class WindowGraph extends GraphBase {
+
+    private final WindowStore store;
+
+    public WindowGraph(WindowStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Creates a window graph with its own store and dictionary.
+     */
+    public WindowGraph() {
+        this(new WindowStore(new CountingNodeDictionary()));
+    }
+
+    /**
+     * Creates a dataset containing a new window graph as the named graph
+     * streamNode.
+     */
+    public static DatasetGraph createDatasetGraph(Node streamNode) {
+        DatasetGraph result = DatasetGraphFactory.createGeneral();
+        result.addGraph(streamNode, new WindowGraph());
+        return result;
+    }
+
+    public WindowStore getStore() {
+        return store;
+    }
+
+    @Override
+    public void performAdd(Triple t) {
+        store.add(t, System.nanoTime());
+    }
+
+    @Override
+    public void performDelete(Triple t) {
+        store.delete(t);
+    }
+
+    @Override
+    protected ExtendedIterator<Triple> graphBaseFind(Triple triplePattern) {
+        return WrappedIterator.create(store.find(triplePattern.getSubject(), triplePattern.getPredicate(), triplePattern.getObject()));
+    }
+
+    @Override
+    protected boolean graphBaseContains(Triple t) {
+        if (t.isConcrete()) {
+            return store.contains(t);
+        }
+        return super.graphBaseContains(t);
+    }
+
+    @Override
+    protected int graphBaseSize() {
+        return (int) Math.min(Integer.MAX_VALUE, store.size());
+    }
+
+    @Override
+    public void clear() {
+        store.clear();
+        getEventManager().notifyEvent(this, GraphEvents.removeAll);
+    }
+}
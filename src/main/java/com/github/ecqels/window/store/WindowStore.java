@@ -0,0 +1,503 @@
+/*
+ *  Copyright (C) 2016 Michael Jacoby.
+ *
+ *  This library is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation, either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.ecqels.window.store;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+
+/**
+ * Compact store for the triples of a single window. Triples are kept
+ * dictionary-encoded in timestamp-ordered, fixed-size column segments (s, p,
+ * o, timestamp) that form a ring: new triples are appended to the tail
+ * segment, and a head segment is released as a whole as soon as none of its
+ * rows is alive anymore. Each segment carries chained hash indexes on subject,
+ * predicate and object, which is enough to answer the SPO/POS/OSP lookups
+ * needed for BGP matching.
+ *
+ * A triple is stored at most once. Adding a triple that is already present
+ * moves it to the tail with the new timestamp, so expiry by timestamp always
+ * refers to its latest arrival. An open-addressing table holding the
+ * position of each live row, probed with the encoded triple read back from
+ * the segment columns, keeps adding and deleting independent of the number
+ * of segments at the cost of two to four longs per stored triple.
+ *
+ * Each live row holds a reference on the dictionary ids of its nodes, which is
+ * released when the row is deleted, replaced, expired or cleared.
+ *
+ * Not thread-safe, access is guarded by the lock of the owning dataset graph.
+ */
+public class WindowStore {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 1024;
+
+    private final NodeDictionary dictionary;
+    private final int segmentSize;
+    private final int segmentBits;
+    // ring of segments ordered by sequence number, the head has headSequence
+    private Segment[] segments = new Segment[16];
+    private long headSequence = 0;
+    private int segmentCount = 0;
+    private final RowIndex index = new RowIndex();
+    private long size = 0;
+
+    public WindowStore(NodeDictionary dictionary) {
+        this(dictionary, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public WindowStore(NodeDictionary dictionary, int segmentSize) {
+        if (Integer.bitCount(segmentSize) != 1) {
+            throw new IllegalArgumentException("segmentSize must be a power of two");
+        }
+        this.dictionary = dictionary;
+        this.segmentSize = segmentSize;
+        this.segmentBits = Integer.numberOfTrailingZeros(segmentSize);
+    }
+
+    public NodeDictionary getDictionary() {
+        return dictionary;
+    }
+
+    public void add(Triple triple, long timestamp) {
+        add(dictionary.encode(triple.getSubject()),
+                dictionary.encode(triple.getPredicate()),
+                dictionary.encode(triple.getObject()),
+                timestamp);
+    }
+
+    /**
+     * Adds an already encoded triple, the new row takes over the references
+     * on s, p and o obtained from the dictionary.
+     */
+    public void add(long s, long p, long o, long timestamp) {
+        long previous = index.remove(s, p, o);
+        Segment tail = segmentCount == 0 ? null : segment(headSequence + segmentCount - 1);
+        if (tail == null || tail.isFull()) {
+            tail = appendSegment();
+        }
+        int row = tail.append(s, p, o, timestamp);
+        index.insert(s, p, o, (tail.sequence << segmentBits) | row);
+        if (previous == RowIndex.EMPTY) {
+            size++;
+        } else {
+            kill(previous);
+            releaseHead();
+        }
+    }
+
+    public boolean delete(Triple triple) {
+        long s = dictionary.lookup(triple.getSubject());
+        long p = dictionary.lookup(triple.getPredicate());
+        long o = dictionary.lookup(triple.getObject());
+        if (s == NodeDictionary.NO_ID || p == NodeDictionary.NO_ID || o == NodeDictionary.NO_ID) {
+            return false;
+        }
+        boolean removed = remove(s, p, o);
+        releaseHead();
+        return removed;
+    }
+
+    public boolean contains(Triple triple) {
+        if (!triple.isConcrete()) {
+            return find(triple.getSubject(), triple.getPredicate(), triple.getObject()).hasNext();
+        }
+        long s = dictionary.lookup(triple.getSubject());
+        long p = dictionary.lookup(triple.getPredicate());
+        long o = dictionary.lookup(triple.getObject());
+        if (s == NodeDictionary.NO_ID || p == NodeDictionary.NO_ID || o == NodeDictionary.NO_ID) {
+            return false;
+        }
+        return index.get(s, p, o) != RowIndex.EMPTY;
+    }
+
+    /**
+     * Removes all triples with a timestamp older than the given one. Segments
+     * that are expired completely are dropped without touching single rows.
+     *
+     * @param expired is called for each expired triple before it is removed,
+     * may be null
+     * @return the number of removed triples
+     */
+    public int expireBefore(long timestamp, Consumer<Triple> expired) {
+        int result = 0;
+        for (int i = 0; i < segmentCount; i++) {
+            Segment segment = segment(headSequence + i);
+            if (segment.size > 0 && segment.timestamps[0] >= timestamp) {
+                break;
+            }
+            for (int row = 0; row < segment.size; row++) {
+                if (segment.timestamps[row] >= timestamp) {
+                    break;
+                }
+                if (segment.isAlive(row)) {
+                    if (expired != null) {
+                        expired.accept(segment.decode(row, dictionary));
+                    }
+                    index.remove(segment.subjects[row], segment.predicates[row], segment.objects[row]);
+                    kill(segment, row);
+                    size--;
+                    result++;
+                }
+            }
+        }
+        releaseHead();
+        return result;
+    }
+
+    public void clear() {
+        for (int i = 0; i < segmentCount; i++) {
+            Segment segment = segment(headSequence + i);
+            for (int row = 0; row < segment.size; row++) {
+                if (segment.isAlive(row)) {
+                    release(segment, row);
+                }
+            }
+        }
+        Arrays.fill(segments, null);
+        headSequence += segmentCount;
+        segmentCount = 0;
+        index.clear();
+        size = 0;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @param s subject or null/{@link Node#ANY}/variable as wildcard
+     * @param p predicate or null/{@link Node#ANY}/variable as wildcard
+     * @param o object or null/{@link Node#ANY}/variable as wildcard
+     * @return the matching triples, materialized
+     */
+    public Iterator<Triple> find(Node s, Node p, Node o) {
+        long sId = encodeForLookup(s);
+        long pId = encodeForLookup(p);
+        long oId = encodeForLookup(o);
+        if (sId == NodeDictionary.NO_ID || pId == NodeDictionary.NO_ID || oId == NodeDictionary.NO_ID) {
+            return new ArrayList<Triple>(0).iterator();
+        }
+        List<Triple> result = new ArrayList<>();
+        for (int i = 0; i < segmentCount; i++) {
+            Segment segment = segment(headSequence + i);
+            segment.find(sId, pId, oId, row -> result.add(segment.decode(row, dictionary)));
+        }
+        return result.iterator();
+    }
+
+    private static final long WILDCARD = -2;
+
+    private long encodeForLookup(Node node) {
+        if (node == null || Node.ANY.equals(node) || node.isVariable()) {
+            return WILDCARD;
+        }
+        return dictionary.lookup(node);
+    }
+
+    private boolean remove(long s, long p, long o) {
+        long position = index.remove(s, p, o);
+        if (position == RowIndex.EMPTY) {
+            return false;
+        }
+        kill(position);
+        size--;
+        return true;
+    }
+
+    private void kill(long position) {
+        kill(segment(position >>> segmentBits), (int) position & (segmentSize - 1));
+    }
+
+    private void kill(Segment segment, int row) {
+        segment.kill(row);
+        release(segment, row);
+    }
+
+    private void release(Segment segment, int row) {
+        dictionary.release(segment.subjects[row]);
+        dictionary.release(segment.predicates[row]);
+        dictionary.release(segment.objects[row]);
+    }
+
+    private Segment segment(long sequence) {
+        return segments[(int) sequence & (segments.length - 1)];
+    }
+
+    private Segment appendSegment() {
+        if (segmentCount == segments.length) {
+            Segment[] grown = new Segment[segments.length * 2];
+            for (int i = 0; i < segmentCount; i++) {
+                Segment segment = segment(headSequence + i);
+                grown[(int) segment.sequence & (grown.length - 1)] = segment;
+            }
+            segments = grown;
+        }
+        Segment result = new Segment(headSequence + segmentCount, segmentSize);
+        segments[(int) result.sequence & (segments.length - 1)] = result;
+        segmentCount++;
+        return result;
+    }
+
+    private void releaseHead() {
+        while (segmentCount > 0 && segment(headSequence).isDead()) {
+            segments[(int) headSequence & (segments.length - 1)] = null;
+            headSequence++;
+            segmentCount--;
+        }
+    }
+
+    /**
+     * Linear probing table of the positions (segment sequence and row) of all
+     * live rows. Keys are not stored but read from the segment columns, so a
+     * position must be removed before its row is killed.
+     */
+    private class RowIndex {
+
+        private static final long EMPTY = -1;
+
+        private long[] slots = newSlots(16);
+        private int count = 0;
+
+        long get(long s, long p, long o) {
+            int mask = slots.length - 1;
+            for (int i = slot(s, p, o, mask); slots[i] != EMPTY; i = (i + 1) & mask) {
+                if (matches(slots[i], s, p, o)) {
+                    return slots[i];
+                }
+            }
+            return EMPTY;
+        }
+
+        /**
+         * @return the removed position or {@link #EMPTY}
+         */
+        long remove(long s, long p, long o) {
+            int mask = slots.length - 1;
+            for (int i = slot(s, p, o, mask); slots[i] != EMPTY; i = (i + 1) & mask) {
+                long position = slots[i];
+                if (matches(position, s, p, o)) {
+                    shiftBack(i);
+                    count--;
+                    return position;
+                }
+            }
+            return EMPTY;
+        }
+
+        /**
+         * Adds position for a triple that is not contained yet.
+         */
+        void insert(long s, long p, long o, long position) {
+            if ((count + 1) * 2 > slots.length) {
+                resize(slots.length * 2);
+            }
+            int mask = slots.length - 1;
+            int i = slot(s, p, o, mask);
+            while (slots[i] != EMPTY) {
+                i = (i + 1) & mask;
+            }
+            slots[i] = position;
+            count++;
+        }
+
+        void clear() {
+            slots = newSlots(16);
+            count = 0;
+        }
+
+        // moves following entries of the probe sequence into the gap, so lookups need no tombstones
+        private void shiftBack(int gap) {
+            int mask = slots.length - 1;
+            for (int i = (gap + 1) & mask; slots[i] != EMPTY; i = (i + 1) & mask) {
+                int home = slot(slots[i], mask);
+                if (((i - home) & mask) >= ((i - gap) & mask)) {
+                    slots[gap] = slots[i];
+                    gap = i;
+                }
+            }
+            slots[gap] = EMPTY;
+        }
+
+        private void resize(int capacity) {
+            long[] old = slots;
+            slots = newSlots(capacity);
+            int mask = capacity - 1;
+            for (long position : old) {
+                if (position != EMPTY) {
+                    int i = slot(position, mask);
+                    while (slots[i] != EMPTY) {
+                        i = (i + 1) & mask;
+                    }
+                    slots[i] = position;
+                }
+            }
+        }
+
+        private boolean matches(long position, long s, long p, long o) {
+            Segment segment = segment(position >>> segmentBits);
+            int row = (int) position & (segmentSize - 1);
+            return segment.subjects[row] == s && segment.predicates[row] == p && segment.objects[row] == o;
+        }
+
+        private int slot(long position, int mask) {
+            Segment segment = segment(position >>> segmentBits);
+            int row = (int) position & (segmentSize - 1);
+            return slot(segment.subjects[row], segment.predicates[row], segment.objects[row], mask);
+        }
+
+        private int slot(long s, long p, long o, int mask) {
+            long hash = ((s * 0x9E3779B97F4A7C15L + p) * 0x9E3779B97F4A7C15L + o) * 0x9E3779B97F4A7C15L;
+            return (int) (hash ^ (hash >>> 32)) & mask;
+        }
+
+        private long[] newSlots(int capacity) {
+            long[] result = new long[capacity];
+            Arrays.fill(result, EMPTY);
+            return result;
+        }
+    }
+
+    private static class Segment {
+
+        private final long sequence;
+        private final long[] subjects;
+        private final long[] predicates;
+        private final long[] objects;
+        private final long[] timestamps;
+        private final int[] headS;
+        private final int[] headP;
+        private final int[] headO;
+        private final int[] nextS;
+        private final int[] nextP;
+        private final int[] nextO;
+        private final BitSet dead;
+        private final int mask;
+        private int size = 0;
+        private int alive = 0;
+
+        Segment(long sequence, int capacity) {
+            this.sequence = sequence;
+            subjects = new long[capacity];
+            predicates = new long[capacity];
+            objects = new long[capacity];
+            timestamps = new long[capacity];
+            headS = new int[capacity];
+            headP = new int[capacity];
+            headO = new int[capacity];
+            Arrays.fill(headS, -1);
+            Arrays.fill(headP, -1);
+            Arrays.fill(headO, -1);
+            nextS = new int[capacity];
+            nextP = new int[capacity];
+            nextO = new int[capacity];
+            dead = new BitSet(capacity);
+            mask = capacity - 1;
+        }
+
+        boolean isFull() {
+            return size == subjects.length;
+        }
+
+        boolean isDead() {
+            return isFull() && alive == 0;
+        }
+
+        boolean isAlive(int row) {
+            return !dead.get(row);
+        }
+
+        void kill(int row) {
+            dead.set(row);
+            alive--;
+        }
+
+        int append(long s, long p, long o, long timestamp) {
+            int row = size++;
+            subjects[row] = s;
+            predicates[row] = p;
+            objects[row] = o;
+            timestamps[row] = timestamp;
+            int bucket = bucket(s);
+            nextS[row] = headS[bucket];
+            headS[bucket] = row;
+            bucket = bucket(p);
+            nextP[row] = headP[bucket];
+            headP[bucket] = row;
+            bucket = bucket(o);
+            nextO[row] = headO[bucket];
+            headO[bucket] = row;
+            alive++;
+            return row;
+        }
+
+        void find(long s, long p, long o, RowConsumer consumer) {
+            if (alive == 0) {
+                return;
+            }
+            if (s != WILDCARD) {
+                for (int row = headS[bucket(s)]; row >= 0; row = nextS[row]) {
+                    matchRow(row, s, p, o, consumer);
+                }
+            } else if (o != WILDCARD) {
+                for (int row = headO[bucket(o)]; row >= 0; row = nextO[row]) {
+                    matchRow(row, s, p, o, consumer);
+                }
+            } else if (p != WILDCARD) {
+                for (int row = headP[bucket(p)]; row >= 0; row = nextP[row]) {
+                    matchRow(row, s, p, o, consumer);
+                }
+            } else {
+                for (int row = 0; row < size; row++) {
+                    matchRow(row, s, p, o, consumer);
+                }
+            }
+        }
+
+        private void matchRow(int row, long s, long p, long o, RowConsumer consumer) {
+            if ((s == WILDCARD || subjects[row] == s)
+                    && (p == WILDCARD || predicates[row] == p)
+                    && (o == WILDCARD || objects[row] == o)
+                    && isAlive(row)) {
+                consumer.accept(row);
+            }
+        }
+
+        Triple decode(int row, NodeDictionary dictionary) {
+            return new Triple(dictionary.decode(subjects[row]), dictionary.decode(predicates[row]), dictionary.decode(objects[row]));
+        }
+
+        private int bucket(long id) {
+            long hash = id * 0x9E3779B97F4A7C15L;
+            return (int) (hash ^ (hash >>> 32)) & mask;
+        }
+    }
+
+    @FunctionalInterface
+    private interface RowConsumer {
+
+        void accept(int row);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ *  Copyright (C) 2016 Michael Jacoby.
+ *
+ *  This library is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation, either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.ecqels;
+
+import static com.github.ecqels.ResultRecorder.EX;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.sparql.expr.NodeValue;
+import org.apache.jena.sparql.function.FunctionBase1;
+import org.apache.jena.sparql.function.FunctionRegistry;
+import org.junit.After;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that stream-static joins do not evaluate the static side on every
+ * window change, with and without bind joins.
+ */
+public class BindJoinTest {
+
+    private static final String COUNTING_FUNCTION = EX + "counting";
+    private static final AtomicInteger CALLS = new AtomicInteger();
+    private static final String QUERY = "PREFIX : <" + EX + "> SELECT ?s ?v ?l WHERE { STREAM :st1 [TRIPLES 1] { ?s :val ?v } "
+            + "GRAPH :static [REFRESH 1h] { ?s :loc ?l FILTER(:counting(?s)) } }";
+
+    private ECQELSRuntime runtime;
+
+    @Before
+    public void setUp() {
+        FunctionRegistry.get().put(COUNTING_FUNCTION, CountingFunction.class);
+        CALLS.set(0);
+        runtime = new ECQELSRuntime();
+        runtime.start();
+        runtime.getEngine().addRDF(EX + "static", "<http://ex.org/s1> <http://ex.org/loc> <http://ex.org/roomA> .\n"
+                + "<http://ex.org/s2> <http://ex.org/loc> <http://ex.org/roomB> .\n", "N-TRIPLES");
+    }
+
+    @After
+    public void tearDown() {
+        runtime.shutdown();
+    }
+
+    @Test
+    public void testBindJoinIsDisabledByDefault() {
+        assertTrue(runtime.getEngine().getBindJoinThreshold() == 0);
+    }
+
+    @Test
+    public void testStaticSideIsNotEvaluatedPerEvent() throws InterruptedException {
+        assertStaticSideIsNotEvaluatedPerEvent();
+    }
+
+    @Test
+    public void testBindJoinIsNotEvaluatedPerEvent() throws InterruptedException {
+        runtime.getEngine().setBindJoinThreshold(64);
+        assertStaticSideIsNotEvaluatedPerEvent();
+    }
+
+    private void assertStaticSideIsNotEvaluatedPerEvent() throws InterruptedException {
+        ResultRecorder results = new ResultRecorder();
+        runtime.registerSelect(QUERY).addListener(results);
+        for (int i = 0; i < 20; i++) {
+            send("s1", i);
+            results.await("l=roomA s=s1 v=" + i);
+        }
+        // values of s2 were not in the window before, they are joined with the complete static result
+        send("s2", 20);
+        results.await("l=roomB s=s2 v=20");
+        assertTrue("static side evaluated " + CALLS.get() + " times", CALLS.get() < 10);
+    }
+
+    private void send(String subject, int value) {
+        runtime.send(uri("st1"), uri(subject), uri("val"), NodeFactory.createLiteral(Integer.toString(value), XSDDatatype.XSDinteger));
+    }
+
+    private static Node uri(String localName) {
+        return NodeFactory.createURI(EX + localName);
+    }
+
+    public static class CountingFunction extends FunctionBase1 {
+
+        @Override
+        public NodeValue exec(NodeValue value) {
+            CALLS.incrementAndGet();
+            return NodeValue.TRUE;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ *  Copyright (C) 2016 Michael Jacoby.
+ *
+ *  This library is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation, either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.ecqels;
+
+import static com.github.ecqels.ResultRecorder.EX;
+import com.github.ecqels.continuous.ContinuousSelect;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that the engine routes stream data only to the queries subscribed to
+ * the stream.
+ */
+public class EngineRoutingTest {
+
+    private static final String QUERY = "PREFIX : <" + EX + "> SELECT ?s ?o WHERE { STREAM :%s [TRIPLES 1] { ?s :p ?o } }";
+
+    private ECQELSRuntime runtime;
+
+    @Before
+    public void setUp() {
+        runtime = new ECQELSRuntime();
+        runtime.start();
+    }
+
+    @After
+    public void tearDown() {
+        runtime.shutdown();
+    }
+
+    @Test
+    public void testSendReachesOnlySubscribedQueries() throws InterruptedException {
+        ResultRecorder first = register("st1");
+        ResultRecorder second = register("st2");
+        int secondUpdates = second.getUpdates();
+        send("st1", "a");
+        first.await("o=a s=s");
+        Thread.sleep(100);
+        assertEquals(secondUpdates, second.getUpdates());
+        send("st2", "b");
+        second.await("o=b s=s");
+        first.await("o=a s=s");
+    }
+
+    @Test
+    public void testUnregisteredQueryReceivesNothing() throws InterruptedException {
+        ResultRecorder kept = register("st1");
+        ResultRecorder removed = new ResultRecorder();
+        ContinuousSelect query = runtime.registerSelect(String.format(QUERY, "st1"));
+        query.addListener(removed);
+        send("st1", "a");
+        kept.await("o=a s=s");
+        removed.await("o=a s=s");
+        runtime.unregisterSelect(query);
+        int updates = removed.getUpdates();
+        send("st1", "b");
+        kept.await("o=b s=s");
+        Thread.sleep(100);
+        assertEquals(updates, removed.getUpdates());
+    }
+
+    /**
+     * Count windows see every quad of their stream, time windows only the
+     * ones matching their pattern.
+     */
+    @Test
+    public void testQuadNotMatchingAnyPatternIsNotRouted() throws InterruptedException {
+        ResultRecorder result = new ResultRecorder();
+        runtime.registerSelect("PREFIX : <" + EX + "> SELECT ?s ?o WHERE { STREAM :st1 [RANGE 10s] { ?s :p ?o } }").addListener(result);
+        send("st1", "a");
+        result.await("o=a s=s");
+        int updates = result.getUpdates();
+        runtime.send(uri("st1"), uri("s"), uri("q"), uri("b"));
+        Thread.sleep(100);
+        assertEquals(updates, result.getUpdates());
+        send("st1", "c");
+        result.await("o=a s=s", "o=c s=s");
+    }
+
+    @Test
+    public void testBatchIsEvaluatedOnce() throws InterruptedException {
+        ResultRecorder result = new ResultRecorder();
+        runtime.registerSelect("PREFIX : <" + EX + "> SELECT ?s ?o WHERE { STREAM :st1 [TRIPLES 10] { ?s :p ?o } }").addListener(result);
+        int updates = result.getUpdates();
+        List<Triple> batch = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            batch.add(new Triple(uri("s"), uri("p"), uri("o" + i)));
+        }
+        runtime.sendBatch(uri("st1"), batch);
+        result.await("o=o0 s=s", "o=o1 s=s", "o=o2 s=s", "o=o3 s=s", "o=o4 s=s");
+        Thread.sleep(100);
+        assertEquals(updates + 1, result.getUpdates());
+    }
+
+    @Test
+    public void testSendAsyncKeepsOrder() throws InterruptedException {
+        ResultRecorder result = new ResultRecorder();
+        runtime.registerSelect("PREFIX : <" + EX + "> SELECT ?s ?o WHERE { STREAM :st1 [TRIPLES 3] { ?s :p ?o } }").addListener(result);
+        for (int i = 0; i < 500; i++) {
+            runtime.sendAsync(uri("st1"), uri("s"), uri("p"), uri("o" + i));
+        }
+        result.await("o=o497 s=s", "o=o498 s=s", "o=o499 s=s");
+        assertEquals(500, runtime.getEngine().getIngestionQueue(uri("st1")).getAccepted());
+        assertEquals(0, runtime.getEngine().getIngestionQueue(uri("st1")).getDropped());
+    }
+
+    @Test
+    public void testSendWithoutSubscribers() {
+        send("unknown", "a");
+    }
+
+    @Test
+    public void testConcurrentRegistrationKeepsSubscriptions() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<ResultRecorder>> kept = new ArrayList<>();
+        try {
+            for (int i = 0; i < 4; i++) {
+                kept.add(executor.submit((Callable<ResultRecorder>) () -> {
+                    // unregistering the last query of a stream removes its entry while others register
+                    for (int j = 0; j < 10; j++) {
+                        runtime.unregisterSelect(runtime.registerSelect(String.format(QUERY, "st1")));
+                    }
+                    return register("st1");
+                }));
+            }
+            List<ResultRecorder> results = new ArrayList<>();
+            for (Future<ResultRecorder> future : kept) {
+                results.add(future.get());
+            }
+            send("st1", "a");
+            for (ResultRecorder result : results) {
+                result.await("o=a s=s");
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private ResultRecorder register(String stream) {
+        ResultRecorder result = new ResultRecorder();
+        runtime.registerSelect(String.format(QUERY, stream)).addListener(result);
+        return result;
+    }
+
+    private void send(String stream, String object) {
+        runtime.send(uri(stream), uri("s"), uri("p"), uri(object));
+    }
+
+    private static Node uri(String localName) {
+        return NodeFactory.createURI(EX + localName);
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ *  Copyright (C) 2016 Michael Jacoby.
+ *
+ *  This library is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation, either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.ecqels;
+
+import static com.github.ecqels.ResultRecorder.EX;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Runs the same continuous queries with each opt-in evaluation mode and
+ * checks that all of them produce the results of the default evaluation.
+ */
+@RunWith(Parameterized.class)
+public class EvaluationModesTest {
+
+    private static final String PREFIX = "PREFIX : <" + EX + "> ";
+    private static final String STATIC_DATA = "<http://ex.org/s1> <http://ex.org/loc> <http://ex.org/roomA> .\n"
+            + "<http://ex.org/s2> <http://ex.org/loc> <http://ex.org/roomB> .\n";
+
+    @Parameters(name = "{0}")
+    public static Collection<Object[]> modes() {
+        return Arrays.asList(new Object[][]{
+            {"default", false, 1, false, false},
+            {"incremental", true, 1, false, false},
+            {"parallel", false, 4, false, false},
+            {"rete", false, 1, true, false},
+            {"cost-based", false, 1, false, true}
+        });
+    }
+
+    @Parameter(0)
+    public String mode;
+    @Parameter(1)
+    public boolean incremental;
+    @Parameter(2)
+    public int parallelism;
+    @Parameter(3)
+    public boolean rete;
+    @Parameter(4)
+    public boolean costBased;
+
+    private ECQELSRuntime runtime;
+
+    @Before
+    public void setUp() {
+        runtime = new ECQELSRuntime();
+        runtime.start();
+        runtime.getEngine().setIncrementalEvaluation(incremental);
+        runtime.getEngine().setParallelism(parallelism);
+        runtime.getEngine().setReteEvaluation(rete);
+        runtime.getEngine().setCostBasedOptimization(costBased);
+        runtime.getEngine().addRDF(EX + "static", STATIC_DATA, "N-TRIPLES");
+    }
+
+    @After
+    public void tearDown() {
+        runtime.shutdown();
+    }
+
+    @Test
+    public void testNow() throws InterruptedException {
+        ResultRecorder results = register("SELECT ?s ?v WHERE { STREAM :st1 [NOW] { ?s :val ?v } }");
+        send("s1", 1);
+        send("s2", 2);
+        send("s1", 3);
+        results.await("s=s1 v=3");
+    }
+
+    @Test
+    public void testTriples() throws InterruptedException {
+        ResultRecorder results = register("SELECT ?s ?v WHERE { STREAM :st1 [TRIPLES 2] { ?s :val ?v } }");
+        send("s1", 1);
+        send("s2", 2);
+        send("s1", 3);
+        results.await("s=s1 v=3", "s=s2 v=2");
+    }
+
+    @Test
+    public void testSlidingWindowExpires() throws InterruptedException {
+        ResultRecorder results = register("SELECT ?s ?v WHERE { STREAM :st1 [RANGE 300ms SLIDE 50ms] { ?s :val ?v } }");
+        send("s1", 1);
+        send("s2", 2);
+        results.await("s=s1 v=1", "s=s2 v=2");
+        Thread.sleep(400);
+        send("s1", 3);
+        // empty results are not reported, so expiry shows once new data arrives
+        results.await("s=s1 v=3");
+    }
+
+    @Test
+    public void testTimeEvictedWindowExpires() throws InterruptedException {
+        ResultRecorder results = register("SELECT ?s ?v WHERE { STREAM :st1 [RANGE 300ms] { ?s :val ?v } }");
+        send("s1", 1);
+        send("s2", 2);
+        results.await("s=s1 v=1", "s=s2 v=2");
+        Thread.sleep(150);
+        send("s3", 3);
+        results.await("s=s1 v=1", "s=s2 v=2", "s=s3 v=3");
+        // evicted without new data arriving
+        results.await("s=s3 v=3");
+    }
+
+    @Test
+    public void testGroupBy() throws InterruptedException {
+        ResultRecorder results = register("SELECT ?s (SUM(?v) AS ?sum) (COUNT(?v) AS ?c) WHERE { STREAM :st1 [TRIPLES 3] { ?s :val ?v } } GROUP BY ?s");
+        send("s1", 1);
+        send("s2", 2);
+        send("s1", 3);
+        send("s2", 4);
+        results.await("c=1 s=s1 sum=3", "c=2 s=s2 sum=6");
+    }
+
+    @Test
+    public void testStreamStaticJoin() throws InterruptedException {
+        ResultRecorder results = register("SELECT ?s ?v ?l WHERE { STREAM :st1 [TRIPLES 2] { ?s :val ?v } GRAPH :static { ?s :loc ?l } }");
+        send("s1", 1);
+        send("s3", 2);
+        send("s2", 3);
+        results.await("l=roomB s=s2 v=3");
+    }
+
+    @Test
+    public void testRefreshableStaticJoin() throws InterruptedException {
+        ResultRecorder results = register("SELECT ?s ?v ?l WHERE { STREAM :st1 [TRIPLES 2] { ?s :val ?v } GRAPH :static [REFRESH 100ms] { ?s :loc ?l } }");
+        send("s1", 1);
+        send("s3", 2);
+        results.await("l=roomA s=s1 v=1");
+        send("s2", 3);
+        results.await("l=roomB s=s2 v=3");
+    }
+
+    @Test
+    public void testFilter() throws InterruptedException {
+        ResultRecorder results = register("SELECT ?s ?v WHERE { STREAM :st1 [TRIPLES 3] { ?s :val ?v } FILTER(?v > 1) }");
+        send("s1", 1);
+        send("s2", 2);
+        send("s1", 3);
+        results.await("s=s1 v=3", "s=s2 v=2");
+    }
+
+    @Test
+    public void testOptional() throws InterruptedException {
+        ResultRecorder results = register("SELECT ?s ?v ?l WHERE { STREAM :st1 [TRIPLES 2] { ?s :val ?v } OPTIONAL { GRAPH :static { ?s :loc ?l } } }");
+        send("s2", 1);
+        send("s1", 2);
+        send("s3", 3);
+        results.await("l=roomA s=s1 v=2", "s=s3 v=3");
+    }
+
+    @Test
+    public void testMultiplePatterns() throws InterruptedException {
+        ResultRecorder results = register("SELECT ?s ?v ?u WHERE { STREAM :st1 [TRIPLES 4] { ?s :val ?v . ?s :unit ?u } }");
+        send("s1", 1);
+        runtime.send(uri("st1"), uri("s1"), uri("unit"), uri("celsius"));
+        send("s2", 2);
+        results.await("s=s1 u=celsius v=1");
+        runtime.send(uri("st1"), uri("s2"), uri("unit"), uri("kelvin"));
+        results.await("s=s1 u=celsius v=1", "s=s2 u=kelvin v=2");
+        send("s3", 3);
+        send("s3", 4);
+        // the TRIPLES window drops the value of s1 first, then its unit
+        results.await("s=s2 u=kelvin v=2");
+    }
+
+    @Test
+    public void testStaticUpdate() throws InterruptedException {
+        ResultRecorder first = register("SELECT ?s ?v ?l WHERE { STREAM :st1 [TRIPLES 1] { ?s :val ?v } GRAPH :static { ?s :loc ?l } }");
+        // identical sub-plans are shared between queries
+        ResultRecorder second = register("SELECT ?s ?v ?l WHERE { STREAM :st1 [TRIPLES 1] { ?s :val ?v } GRAPH :static { ?s :loc ?l } }");
+        send("s1", 1);
+        first.await("l=roomA s=s1 v=1");
+        second.await("l=roomA s=s1 v=1");
+        runtime.getEngine().deleteRDF(EX + "static", "<http://ex.org/s1> <http://ex.org/loc> <http://ex.org/roomA> .\n", "N-TRIPLES");
+        runtime.getEngine().addRDF(EX + "static", "<http://ex.org/s1> <http://ex.org/loc> <http://ex.org/roomC> .\n", "N-TRIPLES");
+        send("s1", 2);
+        first.await("l=roomC s=s1 v=2");
+        second.await("l=roomC s=s1 v=2");
+    }
+
+    @Test
+    public void testInitialBinding() throws InterruptedException {
+        Map<String, String> bindings = new HashMap<>();
+        bindings.put("s", "<http://ex.org/s1>");
+        ResultRecorder results = register("SELECT ?s ?l ?v WHERE { GRAPH :static { ?s :loc ?l } STREAM :st1 [TRIPLES 1] { ?x :val ?v } }", bindings);
+        send("x", 1);
+        results.await("l=roomA s=s1 v=1");
+    }
+
+    @Test
+    public void testUnionOfStreams() throws InterruptedException {
+        ResultRecorder results = register("SELECT ?s ?v WHERE { { STREAM :st1 [TRIPLES 2] { ?s :val ?v } } UNION { STREAM :st2 [TRIPLES 2] { ?s :val ?v } } }");
+        send("s1", 1);
+        runtime.send(uri("st2"), uri("s2"), uri("val"), NodeFactory.createLiteral("2", XSDDatatype.XSDinteger));
+        results.await("s=s1 v=1", "s=s2 v=2");
+    }
+
+    @Test
+    public void testConcurrentRefreshes() throws InterruptedException {
+        ResultRecorder results = register("SELECT ?s ?v ?w ?l WHERE { STREAM :st1 [TRIPLES 1] { ?s :val ?v } STREAM :st2 [TRIPLES 1] { ?s :val ?w } GRAPH :static { ?s :loc ?l } }");
+        Thread other = new Thread(() -> {
+            for (int i = 0; i < 200; i++) {
+                runtime.send(uri("st2"), uri("s1"), uri("val"), NodeFactory.createLiteral(Integer.toString(i), XSDDatatype.XSDinteger));
+            }
+        });
+        other.start();
+        for (int i = 0; i < 200; i++) {
+            send("s1", i);
+        }
+        other.join();
+        results.await("l=roomA s=s1 v=199 w=199");
+    }
+
+    private ResultRecorder register(String query) {
+        return register(query, new HashMap<>());
+    }
+
+    private ResultRecorder register(String query, Map<String, String> bindings) {
+        ResultRecorder results = new ResultRecorder();
+        runtime.registerSelect(runtime.getEngine().parse(PREFIX + query), bindings).addListener(results);
+        return results;
+    }
+
+    private void send(String subject, int value) {
+        runtime.send(uri("st1"), uri(subject), uri("val"), NodeFactory.createLiteral(Integer.toString(value), XSDDatatype.XSDinteger));
+    }
+
+    private static Node uri(String localName) {
+        return NodeFactory.createURI(EX + localName);
+    }
+}
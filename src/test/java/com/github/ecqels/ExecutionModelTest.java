@@ -0,0 +1,131 @@
+/*
+ *  Copyright (C) 2016 Michael Jacoby.
+ *
+ *  This library is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation, either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.ecqels;
+
+import static com.github.ecqels.ResultRecorder.EX;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.query.QuerySolution;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that an engine and its queries only use the threads of its
+ * execution model.
+ */
+public class ExecutionModelTest {
+
+    private static final int QUERIES = 200;
+
+    private final AtomicInteger created = new AtomicInteger();
+    private ExecutionModel model;
+    private ECQELSRuntime runtime;
+
+    @Before
+    public void setUp() {
+        ExecutorService executor = Executors.newFixedThreadPool(2, threads("test task"));
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(threads("test scheduler"));
+        ExecutorService longRunning = Executors.newCachedThreadPool(threads("test stream"));
+        model = new ExecutionModel(executor, scheduler, longRunning);
+        runtime = new ECQELSRuntime(model);
+        runtime.start();
+    }
+
+    @After
+    public void tearDown() {
+        runtime.shutdown();
+    }
+
+    @Test
+    public void testQueriesDoNotOwnThreads() throws InterruptedException {
+        runtime.getEngine().addRDF(EX + "static", "<" + EX + "a> <" + EX + "q> \"1\" .", "N-TRIPLES");
+        int threadsBefore = Thread.activeCount();
+        Set<String> threadNames = ConcurrentHashMap.newKeySet();
+        ResultRecorder last = null;
+        for (int i = 0; i < QUERIES; i++) {
+            last = new ResultRecorder() {
+                @Override
+                public void update(List<QuerySolution> solutions) {
+                    threadNames.add(Thread.currentThread().getName());
+                    super.update(solutions);
+                }
+            };
+            runtime.registerSelect("PREFIX : <" + EX + "> SELECT ?s ?x WHERE { "
+                    + "STREAM :st1 [RANGE 1s SLIDE 100ms] { ?s :p ?o } "
+                    + "GRAPH :static [REFRESH 100ms] { ?s :q ?x } }").addListener(last);
+        }
+        runtime.send(uri("st1"), uri("a"), uri("p"), uri("o"));
+        last.await("s=a x=1");
+        Thread.sleep(300);
+        // the task pool and scheduler threads are created lazily, nothing else may be started
+        assertTrue(created.get() <= 3);
+        assertTrue(Thread.activeCount() - threadsBefore <= 3);
+        for (String name : threadNames) {
+            assertTrue(name, name.startsWith("test "));
+        }
+    }
+
+    @Test
+    public void testCreateDefault() {
+        ExecutionModel result = ExecutionModel.createDefault();
+        assertNotNull(result.getExecutor());
+        assertNotNull(result.getScheduler());
+        assertNotNull(result.getLongRunningExecutor());
+        result.shutdown();
+        assertTrue(result.getScheduler().isShutdown());
+        assertTrue(result.getExecutor().isShutdown());
+    }
+
+    @Test
+    public void testEngineExposesModel() {
+        assertEquals(model, runtime.getEngine().getExecutionModel());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidParallelism() {
+        ExecutionModel.workStealing(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingExecutor() {
+        new ExecutionModel(null, Executors.newSingleThreadScheduledExecutor(), Executors.newCachedThreadPool());
+    }
+
+    private ThreadFactory threads(String name) {
+        return r -> {
+            Thread t = new Thread(r, name + " " + created.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    private static Node uri(String localName) {
+        return NodeFactory.createURI(EX + localName);
+    }
+}
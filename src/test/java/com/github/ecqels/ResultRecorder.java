@@ -0,0 +1,109 @@
+/*
+ *  Copyright (C) 2016 Michael Jacoby.
+ *
+ *  This library is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation, either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.ecqels;
+
+import com.github.ecqels.continuous.ContinuousSelectListenerBase;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.jena.query.QuerySolution;
+import org.apache.jena.rdf.model.RDFNode;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Records the results of a continuous select query. Each solution is
+ * formatted as its variables in alphabetical order, with the local names of
+ * URIs below {@link #EX} and the lexical forms of literals.
+ */
+public class ResultRecorder extends ContinuousSelectListenerBase {
+
+    public static final String EX = "http://ex.org/";
+    public static final long TIMEOUT = 5000;
+
+    private final AtomicInteger updates = new AtomicInteger();
+    private volatile List<String> latest = Collections.emptyList();
+
+    @Override
+    public void update(List<QuerySolution> solutions) {
+        List<String> rows = new ArrayList<>();
+        for (QuerySolution solution : solutions) {
+            rows.add(format(solution));
+        }
+        Collections.sort(rows);
+        latest = rows;
+        updates.incrementAndGet();
+    }
+
+    /**
+     * @return the sorted rows of the latest result
+     */
+    public List<String> getLatest() {
+        return latest;
+    }
+
+    /**
+     * @return the number of results received so far
+     */
+    public int getUpdates() {
+        return updates.get();
+    }
+
+    /**
+     * Waits until the latest result consists of exactly the expected rows.
+     */
+    public void await(String... expected) throws InterruptedException {
+        List<String> rows = Arrays.asList(expected);
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (!rows.equals(latest) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(rows, latest);
+    }
+
+    /**
+     * Waits until at least count results have been received.
+     */
+    public void awaitUpdates(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (updates.get() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, Math.min(count, updates.get()));
+    }
+
+    private static String format(QuerySolution solution) {
+        List<String> vars = new ArrayList<>();
+        for (Iterator<String> iterator = solution.varNames(); iterator.hasNext();) {
+            vars.add(iterator.next());
+        }
+        Collections.sort(vars);
+        StringBuilder result = new StringBuilder();
+        for (String var : vars) {
+            RDFNode value = solution.get(var);
+            if (result.length() > 0) {
+                result.append(' ');
+            }
+            result.append(var).append('=').append(value.isLiteral()
+                    ? value.asLiteral().getLexicalForm()
+                    : value.asResource().getURI().substring(EX.length()));
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ *  Copyright (C) 2016 Michael Jacoby.
+ *
+ *  This library is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation, either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.ecqels.algebra;
+
+import com.github.ecqels.lang.op.OpStream;
+import com.github.ecqels.lang.parser.ParserECQELS;
+import com.github.ecqels.util.Utils;
+import java.util.List;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.query.Query;
+import org.apache.jena.sparql.algebra.Op;
+import org.apache.jena.sparql.algebra.op.OpBGP;
+import org.apache.jena.sparql.algebra.op.OpFilter;
+import org.apache.jena.sparql.algebra.op.OpJoin;
+import org.apache.jena.sparql.core.BasicPattern;
+import org.apache.jena.sparql.core.Var;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StreamAwareOptimizerTest {
+
+    private static final String PREFIX = "PREFIX : <http://ex.org/> ";
+
+    private final Op ab = bgp("a", "b");
+    private final Op bc = bgp("b", "c");
+    private final Op xy = bgp("x", "y");
+    private CardinalityStatistics statistics;
+    private StreamAwareOptimizer optimizer;
+
+    @Before
+    public void setUp() {
+        statistics = new CardinalityStatistics(1);
+        optimizer = new StreamAwareOptimizer(statistics);
+    }
+
+    @Test
+    public void testReorderJoinsBySmallestConnectedOperand() {
+        statistics.record(ab, 100);
+        statistics.record(bc, 5);
+        statistics.record(xy, 1);
+        Op result = optimizer.reorderJoins(OpJoin.create(OpJoin.create(ab, bc), xy));
+        // the smallest operand first, then the smallest one sharing a variable
+        assertEquals(OpJoin.create(OpJoin.create(xy, bc), ab), result);
+    }
+
+    @Test
+    public void testReorderJoinsAvoidsCrossProducts() {
+        Op cd = bgp("c", "d");
+        statistics.record(ab, 10);
+        statistics.record(bc, 20);
+        statistics.record(cd, 1);
+        Op result = optimizer.reorderJoins(OpJoin.create(OpJoin.create(ab, bc), cd));
+        // ab is smaller than bc but does not share a variable with cd
+        assertEquals(OpJoin.create(OpJoin.create(cd, bc), ab), result);
+    }
+
+    @Test
+    public void testUnknownOperandsKeepTheirOrder() {
+        Op join = OpJoin.create(ab, bc);
+        assertEquals(join, optimizer.reorderJoins(join));
+    }
+
+    @Test
+    public void testNeedsReplanning() {
+        statistics.record(ab, 10);
+        optimizer.reorderJoins(OpJoin.create(ab, bc));
+        assertFalse(optimizer.needsReplanning());
+        statistics.record(ab, 15);
+        assertFalse(optimizer.needsReplanning());
+        statistics.record(ab, 100);
+        assertTrue(optimizer.needsReplanning());
+        optimizer.reorderJoins(OpJoin.create(ab, bc));
+        assertFalse(optimizer.needsReplanning());
+        statistics.record(bc, 1);
+        assertTrue(optimizer.needsReplanning());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidDriftThreshold() {
+        new StreamAwareOptimizer(statistics, 1);
+    }
+
+    @Test
+    public void testPushFilters() {
+        Op op = compile("SELECT * WHERE { STREAM :st1 [NOW] { ?s :val ?v } STREAM :st2 [NOW] { ?s :other ?w } "
+                + "FILTER(?v > 1) FILTER(?v < ?w) }");
+        Op result = optimizer.pushFilters(op);
+        List<OpStream> streams = Utils.findInstacesOf(result, OpStream.class);
+        assertEquals(2, streams.size());
+        for (OpStream stream : streams) {
+            boolean first = stream.getNode().getURI().endsWith("st1");
+            assertEquals(first ? 1 : 0, stream.getFilters().size());
+        }
+        // the filter over both streams stays above the join
+        List<OpFilter> filters = Utils.findInstacesOf(result, OpFilter.class);
+        assertEquals(1, filters.size());
+        assertEquals(1, filters.get(0).getExprs().size());
+        assertEquals(2, filters.get(0).getExprs().get(0).getVarsMentioned().size());
+    }
+
+    @Test
+    public void testPushFiltersKeepsExists() {
+        Op op = compile("SELECT * WHERE { STREAM :st1 [NOW] { ?s :val ?v } FILTER EXISTS { ?s :loc ?l } }");
+        Op result = optimizer.pushFilters(op);
+        assertEquals(op, result);
+    }
+
+    private static Op compile(String queryString) {
+        Query query = new Query();
+        new ParserECQELS().parse(query, PREFIX + queryString);
+        return Algebra.compile(query);
+    }
+
+    private static Op bgp(String subject, String object) {
+        BasicPattern pattern = new BasicPattern();
+        pattern.add(new Triple(Var.alloc(subject), NodeFactory.createURI("http://ex.org/p"), Var.alloc(object)));
+        return new OpBGP(pattern);
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ *  Copyright (C) 2016 Michael Jacoby.
+ *
+ *  This library is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation, either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.ecqels.lang.window;
+
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+public class DurationTest {
+
+    @Test
+    public void testUnits() {
+        assertEquals(2L * 24 * 3600 * 1000, new Duration("2d").inMiliSec());
+        assertEquals(3L * 3600 * 1000, new Duration("3h").inMiliSec());
+        assertEquals(4L * 60 * 1000, new Duration("4m").inMiliSec());
+        assertEquals(5000, new Duration("5s").inMiliSec());
+        assertEquals(100, new Duration("100ms").inMiliSec());
+        assertEquals(7, new Duration("7ns").inNanoSec());
+    }
+
+    @Test
+    public void testCombined() {
+        assertEquals(61500, new Duration("1m 1s 500ms").inMiliSec());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalid() {
+        new Duration("10 years");
+    }
+}
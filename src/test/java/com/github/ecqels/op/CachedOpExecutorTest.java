@@ -0,0 +1,114 @@
+/*
+ *  Copyright (C) 2016 Michael Jacoby.
+ *
+ *  This library is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation, either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.ecqels.op;
+
+import com.github.ecqels.query.execution.QueryExecutionContext;
+import com.github.ecqels.query.iterator.QueryIteratorCopy;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.sparql.algebra.Op;
+import org.apache.jena.sparql.algebra.Table;
+import org.apache.jena.sparql.algebra.TableFactory;
+import org.apache.jena.sparql.algebra.op.OpFilter;
+import org.apache.jena.sparql.algebra.op.OpJoin;
+import org.apache.jena.sparql.algebra.op.OpTable;
+import org.apache.jena.sparql.core.DatasetGraphFactory;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.engine.ExecutionContext;
+import org.apache.jena.sparql.engine.QueryIterator;
+import org.apache.jena.sparql.engine.binding.BindingFactory;
+import org.apache.jena.sparql.engine.main.QC;
+import org.apache.jena.sparql.expr.E_Function;
+import org.apache.jena.sparql.expr.ExprList;
+import org.apache.jena.sparql.expr.ExprVar;
+import org.apache.jena.sparql.expr.NodeValue;
+import org.apache.jena.sparql.function.FunctionBase1;
+import org.apache.jena.sparql.function.FunctionRegistry;
+import org.apache.jena.sparql.util.Context;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CachedOpExecutorTest {
+
+    private static final String COUNTING_FUNCTION = "http://ex.org/counting";
+    private static final AtomicInteger CALLS = new AtomicInteger();
+    private static final int ROWS = 1000;
+
+    private ExecutionContext context;
+
+    @Before
+    public void setUp() {
+        FunctionRegistry.get().put(COUNTING_FUNCTION, CountingFunction.class);
+        CALLS.set(0);
+        context = new ExecutionContext(new Context(), null, DatasetGraphFactory.create(), CachedOpExecutor.CQELSOpExecFactory);
+    }
+
+    @Test
+    public void testNonCachedOperatorsArePipelined() {
+        Op op = plan();
+        context.getContext().set(QueryExecutionContext.SYMBOL, new QueryExecutionContext(op, context));
+        QueryIterator result = QC.execute(op, BindingFactory.root(), context);
+        assertFalse(result instanceof QueryIteratorCopy);
+        assertTrue(result.hasNext());
+        result.next();
+        // the filter is only applied to the bindings pulled so far
+        assertTrue(CALLS.get() < ROWS);
+        int count = 1;
+        while (result.hasNext()) {
+            result.next();
+            count++;
+        }
+        assertEquals(ROWS, count);
+        assertEquals(ROWS, CALLS.get());
+    }
+
+    @Test
+    public void testWithoutQueryContext() {
+        QueryIterator result = QC.execute(plan(), BindingFactory.root(), context);
+        int count = 0;
+        while (result.hasNext()) {
+            result.next();
+            count++;
+        }
+        assertEquals(ROWS, count);
+    }
+
+    /**
+     * @return a filter over a join, neither of which is cached
+     */
+    private static Op plan() {
+        Var x = Var.alloc("x");
+        Table table = TableFactory.create();
+        for (int i = 0; i < ROWS; i++) {
+            table.addBinding(BindingFactory.binding(x, NodeFactory.createURI("http://ex.org/" + i)));
+        }
+        Op join = OpJoin.create(OpTable.create(table), OpTable.unit());
+        return OpFilter.filter(new E_Function(COUNTING_FUNCTION, new ExprList(new ExprVar(x))), join);
+    }
+
+    public static class CountingFunction extends FunctionBase1 {
+
+        @Override
+        public NodeValue exec(NodeValue value) {
+            CALLS.incrementAndGet();
+            return NodeValue.TRUE;
+        }
+    }
+}
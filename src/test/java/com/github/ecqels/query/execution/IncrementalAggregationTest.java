@@ -0,0 +1,263 @@
+/*
+ *  Copyright (C) 2016 Michael Jacoby.
+ *
+ *  This library is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation, either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.ecqels.query.execution;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.query.ARQ;
+import org.apache.jena.query.QueryFactory;
+import org.apache.jena.sparql.algebra.Algebra;
+import org.apache.jena.sparql.algebra.Op;
+import org.apache.jena.sparql.algebra.Table;
+import org.apache.jena.sparql.algebra.TableFactory;
+import org.apache.jena.sparql.algebra.op.Op1;
+import org.apache.jena.sparql.algebra.op.OpGroup;
+import org.apache.jena.sparql.algebra.op.OpTable;
+import org.apache.jena.sparql.core.DatasetGraphFactory;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.engine.ExecutionContext;
+import org.apache.jena.sparql.engine.QueryIterator;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.engine.binding.BindingFactory;
+import org.apache.jena.sparql.engine.iterator.QueryIterPlainWrapper;
+import org.apache.jena.sparql.engine.main.QC;
+import org.apache.jena.sparql.expr.NodeValue;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the groups maintained by {@link IncrementalAggregation} against
+ * ARQ grouping the same bindings from scratch.
+ */
+public class IncrementalAggregationTest {
+
+    private static final String QUERY = "SELECT ?s (COUNT(?v) AS ?c) (SUM(?v) AS ?sum) (AVG(?v) AS ?avg) (MIN(?v) AS ?min) (MAX(?v) AS ?max) "
+            + "WHERE { ?s <http://ex.org/val> ?v } GROUP BY ?s";
+    private static final Var S = Var.alloc("s");
+    private static final Var V = Var.alloc("v");
+    private static final int COUNT = 0;
+    private static final int SUM = 1;
+    private static final int AVG = 2;
+    private static final int MIN = 3;
+    private static final int MAX = 4;
+
+    private ExecutionContext execCxt;
+    private OpGroup group;
+    private IncrementalAggregation aggregation;
+
+    @Before
+    public void setUp() {
+        execCxt = new ExecutionContext(ARQ.getContext(), null, DatasetGraphFactory.create(), QC.getFactory(ARQ.getContext()));
+        group = findGroup(Algebra.compile(QueryFactory.create(QUERY)));
+        aggregation = new IncrementalAggregation(group.getGroupVars(), group.getAggregators());
+    }
+
+    @Test
+    public void testIsSupported() {
+        assertTrue(IncrementalAggregation.isSupported(group.getAggregators()));
+        OpGroup distinct = findGroup(Algebra.compile(QueryFactory.create(
+                "SELECT ?s (COUNT(DISTINCT ?v) AS ?c) WHERE { ?s <http://ex.org/val> ?v } GROUP BY ?s")));
+        assertFalse(IncrementalAggregation.isSupported(distinct.getAggregators()));
+    }
+
+    @Test
+    public void testEmptyInput() {
+        aggregation.refresh(iterator(), execCxt);
+        assertTrue(aggregation.isInitialized());
+        assertEquals(expected(), actual());
+    }
+
+    @Test
+    public void testInsertAndDelete() {
+        List<Binding> bindings = new ArrayList<>(Arrays.asList(binding("a", 1), binding("a", 4), binding("b", 2), binding("a", 4)));
+        for (Binding binding : bindings) {
+            aggregation.insert(binding, execCxt);
+        }
+        assertEquals(expected(bindings.toArray(new Binding[0])), actual());
+        // removing the current minimum and one of two equal maximums
+        aggregation.delete(binding("a", 1), execCxt);
+        aggregation.delete(binding("a", 4), execCxt);
+        assertEquals(expected(binding("a", 4), binding("b", 2)), actual());
+        aggregation.delete(binding("b", 2), execCxt);
+        assertEquals(expected(binding("a", 4)), actual());
+        assertEquals(1, aggregation.size());
+    }
+
+    @Test
+    public void testRefreshAppliesDifference() {
+        aggregation.refresh(iterator(binding("a", 1), binding("a", 2), binding("b", 3)), execCxt);
+        assertEquals(expected(binding("a", 1), binding("a", 2), binding("b", 3)), actual());
+        aggregation.refresh(iterator(binding("a", 2), binding("b", 3), binding("b", 5), binding("c", 7)), execCxt);
+        assertEquals(expected(binding("a", 2), binding("b", 3), binding("b", 5), binding("c", 7)), actual());
+        aggregation.refresh(iterator(binding("c", 7)), execCxt);
+        assertEquals(expected(binding("c", 7)), actual());
+    }
+
+    /**
+     * Subtracting a large double that is no longer in the window must not
+     * cancel the small values that are.
+     */
+    @Test
+    public void testDoubleSumDoesNotCancel() {
+        aggregation.insert(binding("a", 1e20), execCxt);
+        aggregation.insert(binding("a", 1.0), execCxt);
+        aggregation.delete(binding("a", 1e20), execCxt);
+        assertEquals(1.0, sum(actual().iterator().next()), 0);
+    }
+
+    @Test
+    public void testNonFiniteDoubles() {
+        aggregation.insert(binding("a", Double.POSITIVE_INFINITY), execCxt);
+        aggregation.insert(binding("a", 2.0), execCxt);
+        assertEquals(Double.POSITIVE_INFINITY, sum(actual().iterator().next()), 0);
+        aggregation.delete(binding("a", Double.POSITIVE_INFINITY), execCxt);
+        assertEquals(2.0, sum(actual().iterator().next()), 0);
+    }
+
+    /**
+     * Slides a count window over a long stream of doubles of very different
+     * magnitudes and compares SUM and AVG of every group with ARQ grouping
+     * the current window, relative to the magnitude of the values still in
+     * the window. COUNT, MIN and MAX must match exactly.
+     */
+    @Test
+    public void testLongSlideOfDoublesMatchesARQ() {
+        Random random = new Random(42);
+        Deque<Binding> window = new ArrayDeque<>();
+        for (int i = 0; i < 100000; i++) {
+            // bursts of large values that later leave the window
+            int exponent = (i / 5000) % 2 == 0 ? random.nextInt(4) - 3 : random.nextInt(16);
+            Binding binding = binding("g" + random.nextInt(3), (random.nextDouble() - 0.3) * Math.pow(10, exponent));
+            window.addLast(binding);
+            aggregation.insert(binding, execCxt);
+            if (window.size() > 50) {
+                aggregation.delete(window.removeFirst(), execCxt);
+            }
+            if (i % 1000 == 999) {
+                aggregation.refresh(iterator(window.toArray(new Binding[0])), execCxt);
+            }
+            if (i % 500 == 499) {
+                assertClose(expected(window.toArray(new Binding[0])), actual(), magnitudes(window));
+            }
+        }
+    }
+
+    @Test
+    public void testClear() {
+        aggregation.insert(binding("a", 1), execCxt);
+        aggregation.clear();
+        assertFalse(aggregation.isInitialized());
+        assertEquals(0, aggregation.size());
+    }
+
+    private Set<Binding> actual() {
+        return toSet(aggregation.getResult(execCxt));
+    }
+
+    private Set<Binding> expected(Binding... bindings) {
+        Table table = TableFactory.create();
+        for (Binding binding : bindings) {
+            table.addBinding(binding);
+        }
+        Op op = new OpGroup(OpTable.create(table), group.getGroupVars(), group.getAggregators());
+        return toSet(QC.execute(op, BindingFactory.root(), execCxt));
+    }
+
+    private void assertClose(Set<Binding> expected, Set<Binding> actual, Map<Node, Double> magnitudes) {
+        assertEquals(expected.size(), actual.size());
+        Map<Node, Binding> byGroup = new HashMap<>();
+        for (Binding binding : actual) {
+            byGroup.put(binding.get(S), binding);
+        }
+        for (Binding binding : expected) {
+            Binding other = byGroup.get(binding.get(S));
+            for (int i : new int[]{COUNT, MIN, MAX}) {
+                assertEquals(binding.get(aggregate(i)), other.get(aggregate(i)));
+            }
+            double tolerance = 1e-12 * magnitudes.get(binding.get(S));
+            assertEquals(sum(binding), sum(other), tolerance);
+            assertEquals(value(binding, aggregate(AVG)), value(other, aggregate(AVG)), tolerance);
+        }
+    }
+
+    /**
+     * @return the sum of the absolute values in the window per group
+     */
+    private static Map<Node, Double> magnitudes(Deque<Binding> window) {
+        Map<Node, Double> result = new HashMap<>();
+        for (Binding binding : window) {
+            result.merge(binding.get(S), Math.abs(value(binding, V)), Double::sum);
+        }
+        return result;
+    }
+
+    private double sum(Binding binding) {
+        return value(binding, aggregate(SUM));
+    }
+
+    private Var aggregate(int index) {
+        return group.getAggregators().get(index).getVar();
+    }
+
+    private static double value(Binding binding, Var var) {
+        return NodeValue.makeNode(binding.get(var)).getDouble();
+    }
+
+    private static OpGroup findGroup(Op op) {
+        while (!(op instanceof OpGroup)) {
+            op = ((Op1) op).getSubOp();
+        }
+        return (OpGroup) op;
+    }
+
+    private QueryIterator iterator(Binding... bindings) {
+        return new QueryIterPlainWrapper(Arrays.asList(bindings).iterator(), execCxt);
+    }
+
+    private static Set<Binding> toSet(QueryIterator iterator) {
+        Set<Binding> result = new HashSet<>();
+        while (iterator.hasNext()) {
+            result.add(iterator.nextBinding());
+        }
+        iterator.close();
+        return result;
+    }
+
+    private static Binding binding(String subject, int value) {
+        Binding result = BindingFactory.binding(S, NodeFactory.createURI("http://ex.org/" + subject));
+        return BindingFactory.binding(result, V, NodeFactory.createLiteral(Integer.toString(value), XSDDatatype.XSDinteger));
+    }
+
+    private static Binding binding(String subject, double value) {
+        Binding result = BindingFactory.binding(S, NodeFactory.createURI("http://ex.org/" + subject));
+        return BindingFactory.binding(result, V, NodeValue.makeDouble(value).asNode());
+    }
+}
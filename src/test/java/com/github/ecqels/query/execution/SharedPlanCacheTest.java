@@ -0,0 +1,146 @@
+/*
+ *  Copyright (C) 2016 Michael Jacoby.
+ *
+ *  This library is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation, either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.ecqels.query.execution;
+
+import com.github.ecqels.Engine;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.sparql.algebra.Op;
+import org.apache.jena.sparql.algebra.op.OpBGP;
+import org.apache.jena.sparql.algebra.op.OpFilter;
+import org.apache.jena.sparql.core.BasicPattern;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.engine.ExecutionContext;
+import org.apache.jena.sparql.engine.QueryIterator;
+import org.apache.jena.sparql.engine.binding.BindingFactory;
+import org.apache.jena.sparql.engine.iterator.QueryIterSingleton;
+import org.apache.jena.sparql.expr.E_IsIRI;
+import org.apache.jena.sparql.expr.ExprVar;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SharedPlanCacheTest {
+
+    private Engine engine;
+    private ExecutionContext context;
+    private SharedPlanCache cache;
+    private final AtomicInteger computed = new AtomicInteger();
+
+    @Before
+    public void setUp() {
+        engine = new Engine();
+        context = engine.getARQExecutionContext();
+        cache = new SharedPlanCache(context);
+    }
+
+    @After
+    public void tearDown() {
+        engine.shutdown();
+    }
+
+    @Test
+    public void testRetainedOpIsComputedOnce() {
+        Op op = bgp("a", "p");
+        cache.retain(op);
+        assertEquals(1, count(cache.get(op, Long.MAX_VALUE, compute())));
+        assertEquals(1, count(cache.get(op, Long.MAX_VALUE, compute())));
+        assertEquals(1, computed.get());
+    }
+
+    @Test
+    public void testRenamedBlankNodesShareResult() {
+        cache.retain(bgp("a", "p"));
+        cache.get(bgp("a", "p"), Long.MAX_VALUE, compute());
+        cache.get(bgp("b", "p"), Long.MAX_VALUE, compute());
+        cache.get(OpFilter.filter(new E_IsIRI(new ExprVar("s")), bgp("c", "p")), Long.MAX_VALUE, compute());
+        cache.get(OpFilter.filter(new E_IsIRI(new ExprVar("s")), bgp("d", "p")), Long.MAX_VALUE, compute());
+        assertEquals(3, computed.get());
+        cache.retain(OpFilter.filter(new E_IsIRI(new ExprVar("s")), bgp("e", "p")));
+        cache.get(OpFilter.filter(new E_IsIRI(new ExprVar("s")), bgp("f", "p")), Long.MAX_VALUE, compute());
+        cache.get(OpFilter.filter(new E_IsIRI(new ExprVar("s")), bgp("g", "p")), Long.MAX_VALUE, compute());
+        assertEquals(4, computed.get());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testDifferentOpsAreNotShared() {
+        cache.retain(bgp("a", "p"));
+        cache.retain(bgp("a", "q"));
+        cache.get(bgp("a", "p"), Long.MAX_VALUE, compute());
+        cache.get(bgp("a", "q"), Long.MAX_VALUE, compute());
+        assertEquals(2, computed.get());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testNewVersionRecomputes() {
+        Op op = bgp("a", "p");
+        cache.retain(op);
+        cache.get(op, Long.MAX_VALUE, compute());
+        cache.invalidate();
+        cache.get(op, Long.MAX_VALUE, compute());
+        cache.get(op, Long.MAX_VALUE, compute());
+        assertEquals(2, computed.get());
+    }
+
+    @Test
+    public void testReleasedOpIsNotCached() {
+        Op op = bgp("a", "p");
+        cache.retain(op);
+        cache.retain(op);
+        cache.release(op);
+        cache.get(op, Long.MAX_VALUE, compute());
+        cache.get(op, Long.MAX_VALUE, compute());
+        assertEquals(1, computed.get());
+        cache.release(op);
+        assertEquals(0, cache.size());
+        cache.get(op, Long.MAX_VALUE, compute());
+        cache.get(op, Long.MAX_VALUE, compute());
+        assertEquals(3, computed.get());
+    }
+
+    private Supplier<QueryIterator> compute() {
+        return () -> {
+            computed.incrementAndGet();
+            return QueryIterSingleton.create(BindingFactory.binding(Var.alloc("s"), uri("s")), context);
+        };
+    }
+
+    private static int count(QueryIterator iterator) {
+        int result = 0;
+        while (iterator.hasNext()) {
+            iterator.next();
+            result++;
+        }
+        return result;
+    }
+
+    private static Op bgp(String blankNode, String predicate) {
+        BasicPattern pattern = new BasicPattern();
+        pattern.add(new Triple(Var.alloc("s"), uri(predicate), NodeFactory.createBlankNode(blankNode)));
+        return new OpBGP(pattern);
+    }
+
+    private static Node uri(String localName) {
+        return NodeFactory.createURI("http://ex.org/" + localName);
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ *  Copyright (C) 2016 Michael Jacoby.
+ *
+ *  This library is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation, either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.ecqels.query.execution;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.sparql.algebra.Algebra;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.engine.QueryIterator;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.engine.binding.BindingFactory;
+import org.apache.jena.sparql.engine.binding.BindingMap;
+import org.apache.jena.sparql.engine.iterator.QueryIterPlainWrapper;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class StaticHashIndexTest {
+
+    private static final Var A = Var.alloc("a");
+    private static final Var B = Var.alloc("b");
+    private static final Var C = Var.alloc("c");
+    private static final List<Var> JOIN_VARS = Arrays.asList(B);
+
+    @Test
+    public void testProbe() {
+        StaticHashIndex index = new StaticHashIndex(JOIN_VARS, iterator(Arrays.asList(
+                binding(B, 1, C, 1), binding(B, 1, C, 2), binding(B, 2, C, 3))));
+        assertEquals(3, index.size());
+        List<Binding> stream = Arrays.asList(binding(A, 1, B, 1), binding(A, 2, B, 3));
+        assertEquals(multiset(binding(A, 1, B, 1, C, 1), binding(A, 1, B, 1, C, 2)), probe(index, stream, false));
+    }
+
+    @Test
+    public void testUnboundJoinVariables() {
+        StaticHashIndex index = new StaticHashIndex(JOIN_VARS, iterator(Arrays.asList(
+                binding(B, 1, C, 1), binding(C, 2))));
+        // unbound static bindings match every stream binding, unbound stream bindings every static one
+        assertEquals(multiset(binding(A, 1, B, 1, C, 1), binding(A, 1, B, 1, C, 2), binding(A, 2, B, 2, C, 2)),
+                probe(index, Arrays.asList(binding(A, 1, B, 1), binding(A, 2, B, 2)), false));
+        assertEquals(multiset(binding(A, 3, B, 1, C, 1), binding(A, 3, C, 2)),
+                probe(index, Arrays.asList(binding(A, 3)), true));
+    }
+
+    @Test
+    public void testRestrictedIndexCoversOnlyItsProbes() {
+        List<Binding> probes = Arrays.asList(binding(A, 1, B, 1));
+        StaticHashIndex index = new StaticHashIndex(JOIN_VARS, iterator(Arrays.asList(binding(B, 1, C, 1))), probes);
+        assertTrue(index.covers(probes));
+        assertTrue(index.covers(Arrays.asList(binding(A, 2, B, 1))));
+        assertFalse(index.covers(Arrays.asList(binding(A, 1, B, 1), binding(A, 2, B, 2))));
+        assertFalse(index.covers(Arrays.asList(binding(A, 3))));
+        assertTrue(new StaticHashIndex(JOIN_VARS, iterator(Collections.emptyList())).covers(Arrays.asList(binding(A, 3))));
+    }
+
+    @Test
+    public void testEmptyIndex() {
+        StaticHashIndex index = new StaticHashIndex(JOIN_VARS, iterator(Collections.emptyList()));
+        assertEquals(0, index.size());
+        assertEquals(Collections.emptyMap(), probe(index, Arrays.asList(binding(A, 1, B, 1)), false));
+    }
+
+    /**
+     * Compares probing random static and stream bindings, some of which leave
+     * the join variable unbound, with a nested loop join.
+     */
+    @Test
+    public void testRandomBindings() {
+        Random random = new Random(42);
+        for (int i = 0; i < 100; i++) {
+            List<Binding> staticBindings = bindings(random, C);
+            List<Binding> stream = bindings(random, A);
+            StaticHashIndex index = new StaticHashIndex(JOIN_VARS, iterator(staticBindings));
+            assertEquals(nestedLoopJoin(stream, staticBindings), probe(index, stream, false));
+            assertEquals(nestedLoopJoin(stream, staticBindings), probe(index, stream, true));
+        }
+    }
+
+    private static Map<Binding, Integer> probe(StaticHashIndex index, List<Binding> stream, boolean staticLeft) {
+        Map<Binding, Integer> result = new HashMap<>();
+        for (QueryIterator iterator = index.probe(iterator(stream), staticLeft, null); iterator.hasNext();) {
+            result.merge(iterator.nextBinding(), 1, Integer::sum);
+        }
+        return result;
+    }
+
+    private static Map<Binding, Integer> nestedLoopJoin(List<Binding> left, List<Binding> right) {
+        Map<Binding, Integer> result = new HashMap<>();
+        for (Binding l : left) {
+            for (Binding r : right) {
+                if (Algebra.compatible(l, r)) {
+                    result.merge(Algebra.merge(l, r), 1, Integer::sum);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static List<Binding> bindings(Random random, Var other) {
+        List<Binding> result = new ArrayList<>();
+        int size = random.nextInt(10);
+        for (int i = 0; i < size; i++) {
+            result.add(random.nextInt(5) == 0
+                    ? binding(other, random.nextInt(4))
+                    : binding(B, random.nextInt(4), other, random.nextInt(4)));
+        }
+        return result;
+    }
+
+    private static Map<Binding, Integer> multiset(Binding... bindings) {
+        Map<Binding, Integer> result = new HashMap<>();
+        for (Binding binding : bindings) {
+            result.merge(binding, 1, Integer::sum);
+        }
+        return result;
+    }
+
+    private static QueryIterator iterator(List<Binding> bindings) {
+        return new QueryIterPlainWrapper(bindings.iterator());
+    }
+
+    private static Binding binding(Object... varsAndValues) {
+        BindingMap result = BindingFactory.create();
+        for (int i = 0; i < varsAndValues.length; i += 2) {
+            result.add((Var) varsAndValues[i], NodeFactory.createURI("http://ex.org/" + varsAndValues[i + 1]));
+        }
+        return result;
+    }
+}
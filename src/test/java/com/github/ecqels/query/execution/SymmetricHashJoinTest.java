@@ -0,0 +1,164 @@
+/*
+ *  Copyright (C) 2016 Michael Jacoby.
+ *
+ *  This library is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation, either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.ecqels.query.execution;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.sparql.algebra.Algebra;
+import org.apache.jena.sparql.algebra.Op;
+import org.apache.jena.sparql.algebra.op.OpBGP;
+import org.apache.jena.sparql.core.BasicPattern;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.engine.QueryIterator;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.engine.binding.BindingFactory;
+import org.apache.jena.sparql.engine.binding.BindingMap;
+import org.apache.jena.sparql.engine.iterator.QueryIterPlainWrapper;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+public class SymmetricHashJoinTest {
+
+    private static final Var A = Var.alloc("a");
+    private static final Var B = Var.alloc("b");
+    private static final Var C = Var.alloc("c");
+
+    private final SymmetricHashJoin join = new SymmetricHashJoin(bgp(A, B), bgp(B, C));
+
+    @Test
+    public void testJoinVars() {
+        assertEquals(Arrays.asList(B), join.getJoinVars());
+    }
+
+    @Test
+    public void testInsertAndDelete() {
+        join.insertLeft(binding(A, 1, B, 1));
+        assertEquals(0, join.size());
+        join.insertRight(binding(B, 1, C, 1));
+        join.insertRight(binding(B, 2, C, 2));
+        assertEquals(multiset(binding(A, 1, B, 1, C, 1)), result());
+        join.insertLeft(binding(A, 2, B, 1));
+        assertEquals(2, join.size());
+        join.deleteRight(binding(B, 1, C, 1));
+        assertEquals(0, join.size());
+    }
+
+    @Test
+    public void testDuplicatesAreCounted() {
+        join.insertLeft(binding(A, 1, B, 1));
+        join.insertLeft(binding(A, 1, B, 1));
+        join.insertRight(binding(B, 1, C, 1));
+        assertEquals(2, join.size());
+        join.deleteLeft(binding(A, 1, B, 1));
+        assertEquals(1, join.size());
+    }
+
+    @Test
+    public void testDeletingUnknownBindingIsIgnored() {
+        join.insertRight(binding(B, 1, C, 1));
+        join.deleteLeft(binding(A, 1, B, 1));
+        join.insertLeft(binding(A, 1, B, 1));
+        assertEquals(1, join.size());
+    }
+
+    /**
+     * Refreshes both sides with random windows and compares the maintained
+     * result with a nested loop join of the current windows.
+     */
+    @Test
+    public void testRandomRefreshes() {
+        Random random = new Random(42);
+        List<Binding> left = new ArrayList<>();
+        List<Binding> right = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            if (random.nextBoolean()) {
+                left = window(random, A, B);
+                join.refreshLeft(iterator(left));
+            } else {
+                right = window(random, B, C);
+                join.refreshRight(iterator(right));
+            }
+            assertEquals(nestedLoopJoin(left, right), result());
+        }
+    }
+
+    private Map<Binding, Integer> result() {
+        Map<Binding, Integer> result = new HashMap<>();
+        for (QueryIterator iterator = join.getResult(null); iterator.hasNext();) {
+            result.merge(iterator.nextBinding(), 1, Integer::sum);
+        }
+        return result;
+    }
+
+    private static Map<Binding, Integer> nestedLoopJoin(List<Binding> left, List<Binding> right) {
+        Map<Binding, Integer> result = new HashMap<>();
+        for (Binding l : left) {
+            for (Binding r : right) {
+                if (Algebra.compatible(l, r)) {
+                    result.merge(Algebra.merge(l, r), 1, Integer::sum);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static List<Binding> window(Random random, Var first, Var second) {
+        List<Binding> result = new ArrayList<>();
+        int size = random.nextInt(8);
+        for (int i = 0; i < size; i++) {
+            result.add(binding(first, random.nextInt(4), second, random.nextInt(4)));
+        }
+        return result;
+    }
+
+    private static Map<Binding, Integer> multiset(Binding... bindings) {
+        Map<Binding, Integer> result = new HashMap<>();
+        for (Binding binding : bindings) {
+            result.merge(binding, 1, Integer::sum);
+        }
+        return result;
+    }
+
+    private static QueryIterator iterator(List<Binding> bindings) {
+        return new QueryIterPlainWrapper(bindings.iterator());
+    }
+
+    private static Binding binding(Object... varsAndValues) {
+        BindingMap result = BindingFactory.create();
+        for (int i = 0; i < varsAndValues.length; i += 2) {
+            result.add((Var) varsAndValues[i], node((Integer) varsAndValues[i + 1]));
+        }
+        return result;
+    }
+
+    private static Node node(int value) {
+        return NodeFactory.createURI("http://ex.org/" + value);
+    }
+
+    private static Op bgp(Var subject, Var object) {
+        BasicPattern pattern = new BasicPattern();
+        pattern.add(new Triple(subject, NodeFactory.createURI("http://ex.org/p"), object));
+        return new OpBGP(pattern);
+    }
+}
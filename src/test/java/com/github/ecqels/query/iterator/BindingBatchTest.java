@@ -0,0 +1,105 @@
+/*
+ *  Copyright (C) 2016 Michael Jacoby.
+ *
+ *  This library is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation, either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.ecqels.query.iterator;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.engine.QueryIterator;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.engine.binding.BindingFactory;
+import org.apache.jena.sparql.engine.iterator.QueryIterPlainWrapper;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import org.junit.Test;
+
+public class BindingBatchTest {
+
+    @Test
+    public void testMaterializesIterator() {
+        BindingBatch batch = BindingBatch.of(iterator(bindings(3)));
+        assertEquals(bindings(3), batch.getBindings());
+        assertEquals(bindings(3), read(batch.iterator()));
+    }
+
+    @Test
+    public void testEmptyIteratorGivesEmptyBatch() {
+        assertSame(BindingBatch.EMPTY, BindingBatch.of(iterator(bindings(0))));
+    }
+
+    @Test
+    public void testUntouchedBatchIteratorIsNotCopied() {
+        BindingBatch batch = BindingBatch.of(iterator(bindings(3)));
+        assertSame(batch, BindingBatch.of(batch.iterator()));
+    }
+
+    @Test
+    public void testCopyOfBatchIsNotCopied() {
+        BindingBatch batch = BindingBatch.of(iterator(bindings(3)));
+        QueryIteratorCopy copy = new QueryIteratorCopy(batch.iterator(), null);
+        assertSame(batch, copy.getBatch());
+        assertSame(batch, BindingBatch.of(copy.copy()));
+        assertSame(batch, BindingBatch.of(copy));
+    }
+
+    @Test
+    public void testConsumedIteratorIsCopied() {
+        BindingBatch batch = BindingBatch.of(iterator(bindings(3)));
+        QueryIterator iterator = batch.iterator();
+        iterator.nextBinding();
+        BindingBatch rest = BindingBatch.of(iterator);
+        assertNotSame(batch, rest);
+        assertEquals(bindings(3).subList(1, 3), rest.getBindings());
+    }
+
+    @Test
+    public void testIteratorsAreIndependent() {
+        BindingBatch batch = BindingBatch.of(iterator(bindings(3)));
+        QueryIterator first = batch.iterator();
+        first.nextBinding();
+        first.nextBinding();
+        assertEquals(bindings(3), read(batch.iterator()));
+        assertEquals(bindings(3).subList(2, 3), read(first));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testBatchIsImmutable() {
+        BindingBatch.of(iterator(bindings(3))).getBindings().clear();
+    }
+
+    private static QueryIterator iterator(List<Binding> bindings) {
+        return new QueryIterPlainWrapper(bindings.iterator());
+    }
+
+    private static List<Binding> read(QueryIterator iterator) {
+        List<Binding> result = new ArrayList<>();
+        while (iterator.hasNext()) {
+            result.add(iterator.nextBinding());
+        }
+        return result;
+    }
+
+    private static List<Binding> bindings(int count) {
+        List<Binding> result = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            result.add(BindingFactory.binding(Var.alloc("x"), NodeFactory.createURI("http://ex.org/" + i)));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ *  Copyright (C) 2016 Michael Jacoby.
+ *
+ *  This library is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation, either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.ecqels.refresh;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.apache.jena.sparql.algebra.Op;
+import org.apache.jena.sparql.algebra.op.OpBGP;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RefreshSchedulerTest {
+
+    private static final long INTERVAL = 100;
+
+    private ScheduledExecutorService scheduler;
+    private ExecutorService executor;
+    private RefreshScheduler refreshScheduler;
+    private RefreshManager manager;
+    private final BlockingQueue<RefreshRequest> requests = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setUp() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        executor = Executors.newCachedThreadPool();
+        refreshScheduler = new RefreshScheduler(scheduler, executor);
+        manager = new RefreshManager(refreshScheduler);
+        manager.addRefreshRequestedListener(e -> requests.add(e.getRefreshRequest()));
+    }
+
+    @After
+    public void tearDown() {
+        refreshScheduler.stop();
+        scheduler.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testTasksDueOnSameTickAreCombined() throws InterruptedException {
+        Op first = new OpBGP();
+        Op second = new OpBGP();
+        // both deadlines are the next multiple of the interval, unless it passes between the two calls
+        while (System.currentTimeMillis() % INTERVAL > INTERVAL / 2) {
+            Thread.sleep(1);
+        }
+        manager.schedule(task(first), INTERVAL);
+        manager.schedule(task(second), INTERVAL);
+        manager.start();
+        RefreshRequest request = requests.poll(1, TimeUnit.SECONDS);
+        assertNotNull(request);
+        assertEquals(2, request.getSources().size());
+    }
+
+    @Test
+    public void testFailedTaskDoesNotDropOtherSources() throws InterruptedException {
+        Op op = new OpBGP();
+        manager.schedule(task(op), INTERVAL);
+        manager.schedule(() -> {
+            throw new IllegalStateException("failing refresh");
+        }, INTERVAL);
+        manager.schedule(() -> {
+            throw new AssertionError("failing refresh");
+        }, INTERVAL);
+        manager.start();
+        RefreshRequest request = requests.poll(1, TimeUnit.SECONDS);
+        assertNotNull(request);
+        assertEquals(1, request.getSources().size());
+        assertSame(op, request.getSources().get(0).getOp());
+    }
+
+    @Test
+    public void testFailingTaskIsScheduledAgain() throws InterruptedException {
+        manager.schedule(task(new OpBGP()), INTERVAL);
+        manager.schedule(() -> {
+            throw new Exception("failing refresh");
+        }, INTERVAL);
+        manager.start();
+        for (int i = 0; i < 2; i++) {
+            RefreshRequest request = requests.poll(1, TimeUnit.SECONDS);
+            assertNotNull(request);
+            assertEquals(1, request.getSources().size());
+        }
+        for (ScheduledRefresh refresh : manager.getScheduled()) {
+            assertTrue(refresh.getRuns() >= 2);
+        }
+    }
+
+    @Test
+    public void testDeadlinesAreAlignedToInterval() throws InterruptedException {
+        List<Long> runs = new ArrayList<>();
+        manager.schedule(() -> {
+            synchronized (runs) {
+                runs.add(System.currentTimeMillis());
+            }
+            return null;
+        }, INTERVAL);
+        manager.start();
+        for (int i = 0; i < 3; i++) {
+            assertNotNull(requests.poll(1, TimeUnit.SECONDS));
+        }
+        synchronized (runs) {
+            for (long run : runs) {
+                // due tasks are dispatched up to one tick early, lag is tolerated up to half the interval
+                assertTrue(run % INTERVAL < INTERVAL / 2 || run % INTERVAL >= INTERVAL - RefreshScheduler.DEFAULT_TICK);
+            }
+        }
+        for (ScheduledRefresh refresh : manager.getScheduled()) {
+            assertTrue(refresh.getRuns() >= 3);
+        }
+    }
+
+    @Test
+    public void testStop() throws InterruptedException {
+        manager.schedule(task(new OpBGP()), INTERVAL);
+        manager.start();
+        assertNotNull(requests.poll(1, TimeUnit.SECONDS));
+        manager.stop();
+        requests.clear();
+        assertNull(requests.poll(3 * INTERVAL, TimeUnit.MILLISECONDS));
+    }
+
+    private static Callable<RefreshRequest> task(Op op) {
+        return () -> new RefreshRequest(op, null);
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ *  Copyright (C) 2016 Michael Jacoby.
+ *
+ *  This library is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation, either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.ecqels.stream;
+
+import com.github.ecqels.stream.IngestionQueue.OverflowPolicy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+public class IngestionPartitionsTest {
+
+    private final Map<Node, List<Triple>> received = new ConcurrentHashMap<>();
+    private final AtomicInteger batches = new AtomicInteger();
+    private final AtomicInteger tasks = new AtomicInteger();
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testDeliversBatchesInArrivalOrderPerStream() throws InterruptedException {
+        IngestionPartitions partitions = partitions(2);
+        for (int i = 0; i < 1000; i++) {
+            for (int s = 0; s < 5; s++) {
+                assertTrue(partitions.offer(stream(s), triple(i)));
+            }
+        }
+        for (int s = 0; s < 5; s++) {
+            awaitReceived(stream(s), 1000);
+            List<Triple> triples = received.get(stream(s));
+            for (int i = 0; i < 1000; i++) {
+                assertEquals(triple(i), triples.get(i));
+            }
+        }
+        assertTrue(batches.get() <= 5000);
+        partitions.stop();
+    }
+
+    @Test
+    public void testRunsOnGivenExecutor() throws InterruptedException {
+        IngestionPartitions partitions = partitions(1);
+        partitions.offer(stream(0), triple(0));
+        awaitReceived(stream(0), 1);
+        assertTrue(tasks.get() >= 1);
+        assertEquals(1, partitions.getQueue(stream(0)).getAccepted());
+        assertNull(partitions.getQueue(stream(1)));
+        partitions.stop();
+    }
+
+    @Test
+    public void testStopDiscardsQueuedTriples() throws InterruptedException {
+        IngestionPartitions partitions = partitions(1);
+        partitions.stop();
+        partitions.offer(stream(0), triple(0));
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+        assertNull(received.get(stream(0)));
+        assertEquals(1, partitions.getQueue(stream(0)).size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPartitionCount() {
+        partitions(0);
+    }
+
+    private IngestionPartitions partitions(int count) {
+        return new IngestionPartitions((stream, batch) -> {
+            batches.incrementAndGet();
+            received.computeIfAbsent(stream, s -> Collections.synchronizedList(new ArrayList<>())).addAll(batch);
+        }, task -> {
+            tasks.incrementAndGet();
+            executor.execute(task);
+        }, count, 100, OverflowPolicy.BLOCK, 1);
+    }
+
+    private void awaitReceived(Node stream, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (size(stream) < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, size(stream));
+    }
+
+    private int size(Node stream) {
+        List<Triple> triples = received.get(stream);
+        return triples == null ? 0 : triples.size();
+    }
+
+    private static Node stream(int i) {
+        return NodeFactory.createURI("http://ex.org/st" + i);
+    }
+
+    private static Triple triple(int i) {
+        return new Triple(NodeFactory.createURI("http://ex.org/s" + i), NodeFactory.createURI("http://ex.org/p"), NodeFactory.createURI("http://ex.org/o"));
+    }
+}
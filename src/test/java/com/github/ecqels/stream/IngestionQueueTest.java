@@ -0,0 +1,172 @@
+/*
+ *  Copyright (C) 2016 Michael Jacoby.
+ *
+ *  This library is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation, either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.ecqels.stream;
+
+import com.github.ecqels.stream.IngestionQueue.OverflowPolicy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class IngestionQueueTest {
+
+    private static final Node STREAM = NodeFactory.createURI("http://ex.org/st1");
+
+    private final AtomicInteger offered = new AtomicInteger();
+
+    @Test
+    public void testDrainsInArrivalOrder() throws InterruptedException {
+        IngestionQueue queue = queue(10, OverflowPolicy.BLOCK, 1);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(queue.offer(triple(i)));
+        }
+        assertEquals(5, offered.get());
+        List<Triple> drained = new ArrayList<>();
+        assertEquals(3, queue.drainTo(drained, 3));
+        assertEquals(triples(0, 1, 2), drained);
+        assertEquals(2, queue.size());
+        assertEquals(2, queue.drainTo(drained, 10));
+        assertEquals(triples(0, 1, 2, 3, 4), drained);
+        assertEquals(0, queue.drainTo(drained, 10));
+    }
+
+    @Test
+    public void testDropOldest() throws InterruptedException {
+        IngestionQueue queue = queue(3, OverflowPolicy.DROP_OLDEST, 1);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(queue.offer(triple(i)));
+        }
+        assertEquals(5, queue.getAccepted());
+        assertEquals(2, queue.getDropped());
+        assertEquals(3, queue.size());
+        assertEquals(triples(2, 3, 4), drain(queue));
+    }
+
+    @Test
+    public void testDropNewest() throws InterruptedException {
+        IngestionQueue queue = queue(3, OverflowPolicy.DROP_NEWEST, 1);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i < 3, queue.offer(triple(i)));
+        }
+        assertEquals(3, queue.getAccepted());
+        assertEquals(2, queue.getDropped());
+        assertEquals(3, offered.get());
+        assertEquals(triples(0, 1, 2), drain(queue));
+    }
+
+    @Test
+    public void testSampleWithRateOneKeepsNewest() throws InterruptedException {
+        IngestionQueue queue = queue(3, OverflowPolicy.SAMPLE, 1);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(queue.offer(triple(i)));
+        }
+        assertEquals(5, queue.getAccepted());
+        assertEquals(2, queue.getDropped());
+        assertEquals(triples(2, 3, 4), drain(queue));
+    }
+
+    /**
+     * Every triple offered is either still queued or counted as dropped,
+     * whether it was rejected or evicted by a sampled one.
+     */
+    @Test
+    public void testSampleAccounting() throws InterruptedException {
+        IngestionQueue queue = queue(10, OverflowPolicy.SAMPLE, 10);
+        int kept = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (queue.offer(triple(i))) {
+                kept++;
+            }
+        }
+        assertEquals(kept, queue.getAccepted());
+        assertEquals(10, queue.size());
+        assertEquals(10000, queue.size() + queue.getDropped());
+        // about one in ten of the 9990 overflowing triples is kept
+        assertTrue(kept - 10 > 800 && kept - 10 < 1200);
+        List<Triple> drained = drain(queue);
+        for (int i = 1; i < drained.size(); i++) {
+            assertTrue(index(drained.get(i - 1)) < index(drained.get(i)));
+        }
+    }
+
+    @Test
+    public void testBlockWaitsForSpace() throws InterruptedException {
+        IngestionQueue queue = queue(2, OverflowPolicy.BLOCK, 1);
+        queue.offer(triple(0));
+        queue.offer(triple(1));
+        CountDownLatch done = new CountDownLatch(1);
+        Thread producer = new Thread(() -> {
+            try {
+                queue.offer(triple(2));
+                done.countDown();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        producer.start();
+        assertFalse(done.await(100, TimeUnit.MILLISECONDS));
+        assertEquals(1, queue.drainTo(new ArrayList<>(), 1));
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertEquals(0, queue.getDropped());
+        assertEquals(3, queue.getAccepted());
+        assertEquals(triples(1, 2), drain(queue));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidCapacity() {
+        queue(0, OverflowPolicy.BLOCK, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidSampleRate() {
+        queue(10, OverflowPolicy.SAMPLE, 0);
+    }
+
+    private IngestionQueue queue(int capacity, OverflowPolicy policy, int sampleRate) {
+        return new IngestionQueue(STREAM, capacity, policy, sampleRate, offered::incrementAndGet);
+    }
+
+    private static List<Triple> drain(IngestionQueue queue) {
+        List<Triple> result = new ArrayList<>();
+        queue.drainTo(result, Integer.MAX_VALUE);
+        return result;
+    }
+
+    private static int index(Triple triple) {
+        return Integer.parseInt(triple.getSubject().getLocalName().substring(1));
+    }
+
+    private static Triple triple(int i) {
+        return new Triple(NodeFactory.createURI("http://ex.org/s" + i), NodeFactory.createURI("http://ex.org/p"), NodeFactory.createURI("http://ex.org/o"));
+    }
+
+    private static List<Triple> triples(int... values) {
+        List<Triple> result = new ArrayList<>();
+        for (int value : values) {
+            result.add(triple(value));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ *  Copyright (C) 2016 Michael Jacoby.
+ *
+ *  This library is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation, either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.ecqels.stream;
+
+import com.github.ecqels.Engine;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MicroBatcherTest {
+
+    private static final Node STREAM = NodeFactory.createURI("http://ex.org/st1");
+    private static final Node OTHER_STREAM = NodeFactory.createURI("http://ex.org/st2");
+
+    private final BlockingQueue<Batch> batches = new LinkedBlockingQueue<>();
+    private Engine engine;
+
+    @Before
+    public void setUp() {
+        engine = new Engine() {
+            @Override
+            public void sendBatch(Node graph, List<Triple> triples) {
+                batches.add(new Batch(graph, triples));
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        engine.shutdown();
+    }
+
+    @Test
+    public void testFlushesFullBatchImmediately() throws InterruptedException {
+        MicroBatcher batcher = new MicroBatcher(engine, 3, 10000);
+        batcher.send(STREAM, triple(1));
+        batcher.send(STREAM, triple(2));
+        assertNull(batches.poll(50, TimeUnit.MILLISECONDS));
+        batcher.send(STREAM, triple(3));
+        Batch batch = batches.poll(1, TimeUnit.SECONDS);
+        assertNotNull(batch);
+        assertEquals(STREAM, batch.graph);
+        assertEquals(triples(1, 2, 3), batch.triples);
+    }
+
+    @Test
+    public void testFlushesAfterMaxDelay() throws InterruptedException {
+        MicroBatcher batcher = new MicroBatcher(engine, 100, 50);
+        batcher.send(STREAM, triple(1));
+        batcher.send(STREAM, triple(2));
+        Batch batch = batches.poll(1, TimeUnit.SECONDS);
+        assertNotNull(batch);
+        assertEquals(triples(1, 2), batch.triples);
+        assertNull(batches.poll(150, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testKeepsOrderWithinStream() throws InterruptedException {
+        MicroBatcher batcher = new MicroBatcher(engine, 2, 10000);
+        for (int i = 0; i < 10; i++) {
+            batcher.send(STREAM, triple(i));
+        }
+        List<Triple> received = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Batch batch = batches.poll(1, TimeUnit.SECONDS);
+            assertNotNull(batch);
+            assertEquals(2, batch.triples.size());
+            received.addAll(batch.triples);
+        }
+        assertEquals(triples(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), received);
+    }
+
+    @Test
+    public void testBatchesPerStream() throws InterruptedException {
+        MicroBatcher batcher = new MicroBatcher(engine, 2, 10000);
+        batcher.send(STREAM, triple(1));
+        batcher.send(OTHER_STREAM, triple(2));
+        assertNull(batches.poll(50, TimeUnit.MILLISECONDS));
+        batcher.send(OTHER_STREAM, triple(3));
+        Batch batch = batches.poll(1, TimeUnit.SECONDS);
+        assertNotNull(batch);
+        assertEquals(OTHER_STREAM, batch.graph);
+        assertEquals(triples(2, 3), batch.triples);
+    }
+
+    @Test
+    public void testStopFlushesPendingTriples() throws InterruptedException {
+        MicroBatcher batcher = new MicroBatcher(engine, 100, 10000);
+        batcher.send(STREAM, triple(1));
+        batcher.stop();
+        Batch batch = batches.poll(1, TimeUnit.SECONDS);
+        assertNotNull(batch);
+        assertEquals(triples(1), batch.triples);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidBatchSize() {
+        new MicroBatcher(engine, 0, 10);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidDelay() {
+        new MicroBatcher(engine, 10, 0);
+    }
+
+    private static Triple triple(int i) {
+        return new Triple(NodeFactory.createURI("http://ex.org/s" + i), NodeFactory.createURI("http://ex.org/p"), NodeFactory.createURI("http://ex.org/o"));
+    }
+
+    private static List<Triple> triples(int... values) {
+        List<Triple> result = new ArrayList<>();
+        for (int value : values) {
+            result.add(triple(value));
+        }
+        return result;
+    }
+
+    private static class Batch {
+
+        private final Node graph;
+        private final List<Triple> triples;
+
+        Batch(Node graph, List<Triple> triples) {
+            this.graph = graph;
+            this.triples = triples;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ *  Copyright (C) 2016 Michael Jacoby.
+ *
+ *  This library is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation, either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.ecqels.window;
+
+import com.github.ecqels.Engine;
+import com.github.ecqels.window.AlphaNetwork.Routing;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.sparql.core.BasicPattern;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.sparql.core.Var;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AlphaNetworkTest {
+
+    private static final Node STREAM = uri("st1");
+    private static final Node OTHER_STREAM = uri("st2");
+    private static final Node VAL = uri("val");
+    private static final Node LOC = uri("loc");
+
+    private final Quad s1Val1 = quad(STREAM, uri("s1"), VAL, uri("v1"));
+    private final Quad s2Val2 = quad(STREAM, uri("s2"), VAL, uri("v2"));
+    private final Quad s1LocA = quad(STREAM, uri("s1"), LOC, uri("roomA"));
+    private final Quad s3LocS3 = quad(STREAM, uri("s3"), LOC, uri("s3"));
+    private final List<Quad> quads = Arrays.asList(s1Val1, s2Val2, s1LocA, s3LocS3);
+    private Engine engine;
+    private AlphaNetwork network;
+
+    @Before
+    public void setUp() {
+        engine = new Engine();
+        network = new AlphaNetwork();
+    }
+
+    @After
+    public void tearDown() {
+        engine.shutdown();
+    }
+
+    @Test
+    public void testRouteByPredicate() {
+        Window window = window(STREAM, pattern(Var.alloc("s"), VAL, Var.alloc("v")));
+        network.register(window);
+        assertTrue(network.isRegistered(window));
+        assertEquals(Arrays.asList(s1Val1, s2Val2), network.route(STREAM, quads).getQuads(window));
+    }
+
+    @Test
+    public void testRouteByObject() {
+        Window window = window(STREAM, pattern(Var.alloc("s"), Var.alloc("p"), uri("roomA")));
+        network.register(window);
+        assertEquals(Collections.singletonList(s1LocA), network.route(STREAM, quads).getQuads(window));
+    }
+
+    @Test
+    public void testRouteByConstantSubjectAndRepeatedVariable() {
+        Window subject = window(STREAM, pattern(uri("s2"), Var.alloc("p"), Var.alloc("o")));
+        Window repeated = window(STREAM, pattern(Var.alloc("x"), LOC, Var.alloc("x")));
+        network.register(subject);
+        network.register(repeated);
+        Routing routing = network.route(STREAM, quads);
+        assertEquals(Collections.singletonList(s2Val2), routing.getQuads(subject));
+        assertEquals(Collections.singletonList(s3LocS3), routing.getQuads(repeated));
+    }
+
+    @Test
+    public void testRouteToAnyPatternOfWindow() {
+        BasicPattern pattern = pattern(Var.alloc("s"), VAL, Var.alloc("v"));
+        pattern.add(new Triple(Var.alloc("s"), LOC, Var.alloc("l")));
+        Window window = window(STREAM, pattern);
+        network.register(window);
+        assertEquals(Arrays.asList(s1Val1, s2Val2, s1LocA, s3LocS3), network.route(STREAM, quads).getQuads(window));
+    }
+
+    @Test
+    public void testUnregisteredWindowsReceiveAllQuads() {
+        Window registered = window(STREAM, pattern(Var.alloc("s"), VAL, Var.alloc("v")));
+        Window unregistered = window(STREAM, pattern(Var.alloc("s"), LOC, Var.alloc("l")));
+        network.register(registered);
+        assertFalse(network.isRegistered(unregistered));
+        assertEquals(quads, network.route(STREAM, quads).getQuads(unregistered));
+        assertEquals(quads, network.route(OTHER_STREAM, quads).getQuads(registered));
+    }
+
+    @Test
+    public void testUnregister() {
+        Window window = window(STREAM, pattern(Var.alloc("s"), VAL, Var.alloc("v")));
+        network.register(window);
+        network.unregister(window);
+        assertFalse(network.isRegistered(window));
+        assertEquals(quads, network.route(STREAM, quads).getQuads(window));
+    }
+
+    private Window window(Node stream, BasicPattern pattern) {
+        return new All(engine, stream, pattern);
+    }
+
+    private static BasicPattern pattern(Node s, Node p, Node o) {
+        BasicPattern result = new BasicPattern();
+        result.add(new Triple(s, p, o));
+        return result;
+    }
+
+    private static Quad quad(Node graph, Node s, Node p, Node o) {
+        return new Quad(graph, s, p, o);
+    }
+
+    private static Node uri(String localName) {
+        return NodeFactory.createURI("http://ex.org/" + localName);
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ *  Copyright (C) 2016 Michael Jacoby.
+ *
+ *  This library is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation, either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.ecqels.window;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.query.ARQ;
+import org.apache.jena.query.DatasetFactory;
+import org.apache.jena.sparql.algebra.Algebra;
+import org.apache.jena.sparql.algebra.op.OpBGP;
+import org.apache.jena.sparql.algebra.op.OpGraph;
+import org.apache.jena.sparql.core.BasicPattern;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.engine.ExecutionContext;
+import org.apache.jena.sparql.engine.QueryIterator;
+import org.apache.jena.sparql.engine.binding.Binding;
+import static org.junit.Assert.assertEquals;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compares the matches maintained by {@link IncrementalEvaluator} with a full
+ * evaluation of the pattern after every change.
+ */
+public class IncrementalEvaluatorTest {
+
+    private static final Node STREAM = uri("st1");
+
+    private DatasetGraph datasetGraph;
+    private IncrementalEvaluator evaluator;
+    private BasicPattern pattern;
+
+    @Before
+    public void setUp() {
+        pattern = new BasicPattern();
+        pattern.add(new Triple(Var.alloc("s"), uri("p"), Var.alloc("o")));
+        pattern.add(new Triple(Var.alloc("o"), uri("q"), Var.alloc("x")));
+        datasetGraph = DatasetFactory.create().asDatasetGraph();
+        ExecutionContext context = new ExecutionContext(ARQ.getContext(), null, datasetGraph, null);
+        evaluator = new IncrementalEvaluator(STREAM, pattern, datasetGraph, context);
+    }
+
+    @Test
+    public void testAddAndRemove() {
+        Quad first = quad("a", "p", "b");
+        Quad second = quad("b", "q", "c");
+        add(first);
+        assertEquals(0, evaluator.size());
+        add(second);
+        assertMatchesFullEvaluation();
+        assertEquals(1, evaluator.size());
+        remove(first);
+        assertMatchesFullEvaluation();
+        assertEquals(0, evaluator.size());
+    }
+
+    @Test
+    public void testRandomChanges() {
+        Random random = new Random(42);
+        List<Quad> present = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            if (!present.isEmpty() && random.nextInt(3) == 0) {
+                remove(present.remove(random.nextInt(present.size())));
+            } else {
+                Quad quad = quad("n" + random.nextInt(8), random.nextBoolean() ? "p" : "q", "n" + random.nextInt(8));
+                if (!datasetGraph.contains(quad)) {
+                    add(quad);
+                    present.add(quad);
+                }
+            }
+            assertMatchesFullEvaluation();
+        }
+    }
+
+    @Test
+    public void testClear() {
+        add(quad("a", "p", "b"));
+        add(quad("b", "q", "c"));
+        evaluator.clear();
+        assertEquals(0, evaluator.size());
+        assertEquals(0, evaluator.getMatches().size());
+    }
+
+    private void add(Quad quad) {
+        datasetGraph.add(quad);
+        evaluator.added(quad);
+    }
+
+    private void remove(Quad quad) {
+        evaluator.removing(quad);
+        datasetGraph.delete(quad);
+    }
+
+    private void assertMatchesFullEvaluation() {
+        Set<Binding> expected = new HashSet<>();
+        QueryIterator iterator = Algebra.exec(new OpGraph(STREAM, new OpBGP(pattern)), datasetGraph);
+        while (iterator.hasNext()) {
+            expected.add(iterator.nextBinding());
+        }
+        iterator.close();
+        assertEquals(expected, new HashSet<>(evaluator.getMatches()));
+    }
+
+    private static Quad quad(String s, String p, String o) {
+        return new Quad(STREAM, uri(s), uri(p), uri(o));
+    }
+
+    private static Node uri(String localName) {
+        return NodeFactory.createURI("http://ex.org/" + localName);
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ *  Copyright (C) 2016 Michael Jacoby.
+ *
+ *  This library is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation, either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.ecqels.window;
+
+import com.github.ecqels.Engine;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.sparql.core.BasicPattern;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.engine.ExecutionContext;
+import org.apache.jena.sparql.engine.QueryIterator;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.engine.binding.BindingFactory;
+import org.apache.jena.sparql.engine.iterator.QueryIterPlainWrapper;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compares the direct matching of {@link Now} with evaluating the same
+ * pattern over a count window of one triple.
+ */
+public class NowTest {
+
+    private static final Node STREAM = uri("st1");
+    private static final Var S = Var.alloc("s");
+    private static final Var O = Var.alloc("o");
+
+    private Engine engine;
+    private BasicPattern pattern;
+
+    @Before
+    public void setUp() {
+        engine = new Engine();
+        pattern = new BasicPattern();
+        pattern.add(new Triple(S, uri("p"), O));
+    }
+
+    @After
+    public void tearDown() {
+        engine.shutdown();
+    }
+
+    @Test
+    public void testMatchesNewestQuad() {
+        Now window = new Now(engine, STREAM, pattern);
+        assertEquals(set(), evaluate(window, root()));
+        window.add(quad("a", "p", "b"));
+        window.add(quad("c", "p", "d"));
+        assertEquals(set(binding("c", "d")), evaluate(window, root()));
+        window.add(quad("c", "q", "d"));
+        assertEquals(set(), evaluate(window, root()));
+    }
+
+    @Test
+    public void testAddAllKeepsLast() {
+        Now window = new Now(engine, STREAM, pattern);
+        window.addAll(Arrays.asList(quad("a", "p", "b"), quad("c", "p", "d")));
+        assertEquals(set(binding("c", "d")), evaluate(window, root()));
+    }
+
+    @Test
+    public void testDoesNotUseStore() {
+        Now window = new Now(engine, STREAM, pattern);
+        window.add(quad("a", "p", "b"));
+        assertTrue(window.store.isEmpty());
+    }
+
+    @Test
+    public void testExtendsInputBindings() {
+        Now window = new Now(engine, STREAM, pattern);
+        window.add(quad("a", "p", "b"));
+        Binding compatible = BindingFactory.binding(S, uri("a"));
+        Binding incompatible = BindingFactory.binding(S, uri("x"));
+        Binding unrelated = BindingFactory.binding(Var.alloc("z"), uri("z"));
+        assertEquals(set(binding("a", "b"), BindingFactory.binding(binding("a", "b"), Var.alloc("z"), uri("z"))),
+                evaluate(window, compatible, incompatible, unrelated));
+    }
+
+    /**
+     * Patterns of several triples over a NOW window can only match if all of
+     * them match the single triple, e.g. through repeated variables.
+     */
+    @Test
+    public void testRandomPatternsMatchCountWindow() {
+        Random random = new Random(42);
+        Var[] vars = {S, O, Var.alloc("x")};
+        Node[] constants = {uri("a"), uri("b"), uri("p")};
+        for (int i = 0; i < 500; i++) {
+            BasicPattern randomPattern = new BasicPattern();
+            for (int j = 0, size = random.nextInt(3) + 1; j < size; j++) {
+                randomPattern.add(new Triple(node(random, vars, constants), node(random, vars, constants), node(random, vars, constants)));
+            }
+            Now now = new Now(engine, STREAM, randomPattern);
+            TripleWindow reference = new TripleWindow(engine, STREAM, randomPattern, 1);
+            for (int j = 0; j < 5; j++) {
+                Quad quad = new Quad(STREAM, constants[random.nextInt(3)], constants[random.nextInt(3)], constants[random.nextInt(3)]);
+                now.add(quad);
+                reference.add(quad);
+                assertEquals(randomPattern.toString(), evaluate(reference, root()), evaluate(now, root()));
+            }
+        }
+    }
+
+    private static Node node(Random random, Var[] vars, Node[] constants) {
+        return random.nextBoolean() ? vars[random.nextInt(vars.length)] : constants[random.nextInt(constants.length)];
+    }
+
+    private Set<Binding> evaluate(Window window, Binding... input) {
+        ExecutionContext execCxt = engine.getARQExecutionContext();
+        QueryIterator result = window.evaluate(new QueryIterPlainWrapper(Arrays.asList(input).iterator(), execCxt), execCxt);
+        Set<Binding> bindings = new HashSet<>();
+        while (result.hasNext()) {
+            bindings.add(result.nextBinding());
+        }
+        result.close();
+        return bindings;
+    }
+
+    private static Binding root() {
+        return BindingFactory.root();
+    }
+
+    private static Set<Binding> set(Binding... bindings) {
+        return new HashSet<>(Arrays.asList(bindings));
+    }
+
+    private static Binding binding(String s, String o) {
+        return BindingFactory.binding(BindingFactory.binding(S, uri(s)), O, uri(o));
+    }
+
+    private static Quad quad(String s, String p, String o) {
+        return new Quad(STREAM, uri(s), uri(p), uri(o));
+    }
+
+    private static Node uri(String localName) {
+        return NodeFactory.createURI("http://ex.org/" + localName);
+    }
+}
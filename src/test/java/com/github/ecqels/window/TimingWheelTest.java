@@ -0,0 +1,112 @@
+/*
+ *  Copyright (C) 2016 Michael Jacoby.
+ *
+ *  This library is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation, either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.ecqels.window;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TimingWheelTest {
+
+    private static final long TICK = 10;
+    private static final int WHEEL_SIZE = 8;
+
+    private ScheduledExecutorService scheduler;
+    private ExecutorService executor;
+    private TimingWheel wheel;
+
+    @Before
+    public void setUp() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        executor = Executors.newSingleThreadExecutor();
+        wheel = new TimingWheel(TICK, WHEEL_SIZE, scheduler, executor);
+    }
+
+    @After
+    public void tearDown() {
+        wheel.stop();
+        scheduler.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testExpiresNotBeforeDelay() throws InterruptedException {
+        assertExpiresAfter(50);
+    }
+
+    @Test
+    public void testDelayLongerThanOneRotation() throws InterruptedException {
+        assertExpiresAfter(3 * TICK * WHEEL_SIZE);
+    }
+
+    @Test
+    public void testItemsDueOnSameTickAreBatched() throws InterruptedException {
+        List<List<String>> calls = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch latch = new CountDownLatch(3);
+        TimingWheel.ExpirationListener<String> listener = items -> {
+            calls.add(items);
+            items.forEach(item -> latch.countDown());
+        };
+        wheel.schedule(listener, "a", 50);
+        wheel.schedule(listener, "b", 50);
+        wheel.schedule(listener, "c", 50);
+        assertTrue(latch.await(1, TimeUnit.SECONDS));
+        List<String> items = new ArrayList<>();
+        calls.forEach(items::addAll);
+        Collections.sort(items);
+        assertEquals(Arrays.asList("a", "b", "c"), items);
+        // at most split by one tick boundary while scheduling
+        assertTrue(calls.size() <= 2);
+    }
+
+    @Test
+    public void testStop() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        wheel.schedule(items -> latch.countDown(), "a", 20);
+        wheel.stop();
+        assertFalse(latch.await(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWheelSizeMustBePowerOfTwo() {
+        new TimingWheel(TICK, 6, scheduler, executor);
+    }
+
+    private void assertExpiresAfter(long delay) throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        long[] expired = new long[1];
+        long start = System.nanoTime();
+        wheel.schedule(items -> {
+            expired[0] = System.nanoTime();
+            latch.countDown();
+        }, "a", delay);
+        assertTrue(latch.await(delay + 1000, TimeUnit.MILLISECONDS));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(expired[0] - start) >= delay);
+    }
+}
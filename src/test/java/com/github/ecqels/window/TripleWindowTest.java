@@ -0,0 +1,146 @@
+/*
+ *  Copyright (C) 2016 Michael Jacoby.
+ *
+ *  This library is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation, either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.ecqels.window;
+
+import com.github.ecqels.Engine;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.Set;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.sparql.core.BasicPattern;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.sparql.core.Var;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compares the content of count windows with the distinct quads among the
+ * last count quads added.
+ */
+public class TripleWindowTest {
+
+    private static final Node STREAM = uri("st1");
+
+    private Engine engine;
+    private BasicPattern pattern;
+
+    @Before
+    public void setUp() {
+        engine = new Engine();
+        pattern = new BasicPattern();
+        pattern.add(new Triple(Var.alloc("s"), uri("p"), Var.alloc("o")));
+    }
+
+    @After
+    public void tearDown() {
+        engine.shutdown();
+    }
+
+    @Test
+    public void testEvictsOldest() {
+        TripleWindow window = new TripleWindow(engine, STREAM, pattern, 3);
+        for (int i = 0; i < 5; i++) {
+            window.add(quad("s" + i));
+        }
+        assertEquals(set(quad("s2"), quad("s3"), quad("s4")), content(window));
+    }
+
+    @Test
+    public void testDuplicateStaysUntilLastOccurrenceIsEvicted() {
+        TripleWindow window = new TripleWindow(engine, STREAM, pattern, 3);
+        window.add(quad("a"));
+        window.add(quad("b"));
+        window.add(quad("a"));
+        window.add(quad("c"));
+        // the first a was evicted, the second one is still in the window
+        assertEquals(set(quad("a"), quad("b"), quad("c")), content(window));
+        window.add(quad("d"));
+        assertEquals(set(quad("a"), quad("c"), quad("d")), content(window));
+        window.add(quad("e"));
+        assertEquals(set(quad("c"), quad("d"), quad("e")), content(window));
+    }
+
+    @Test
+    public void testResendingContainedQuadDoesNotChangeStore() {
+        TripleWindow window = new TripleWindow(engine, STREAM, pattern, 3);
+        window.add(quad("a"));
+        window.add(quad("b"));
+        long version = window.version;
+        window.add(quad("a"));
+        window.add(quad("a"));
+        assertEquals(version, window.version);
+        assertEquals(set(quad("a"), quad("b")), content(window));
+    }
+
+    @Test
+    public void testAddAll() {
+        TripleWindow window = new TripleWindow(engine, STREAM, pattern, 2);
+        window.addAll(Arrays.asList(quad("a"), quad("b"), quad("c")));
+        assertEquals(set(quad("b"), quad("c")), content(window));
+    }
+
+    @Test
+    public void testRandomQuads() {
+        Random random = new Random(42);
+        for (int count : new int[]{1, 2, 7, 50}) {
+            TripleWindow window = new TripleWindow(engine, STREAM, pattern, count);
+            Deque<Quad> expected = new ArrayDeque<>();
+            for (int i = 0; i < 2000; i++) {
+                Quad quad = quad("s" + random.nextInt(count + 3));
+                window.add(quad);
+                expected.addLast(quad);
+                if (expected.size() > count) {
+                    expected.removeFirst();
+                }
+                assertEquals(new HashSet<>(expected), content(window));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidCount() {
+        new TripleWindow(engine, STREAM, pattern, 0);
+    }
+
+    private static Set<Quad> content(TripleWindow window) {
+        Set<Quad> result = new HashSet<>();
+        for (Iterator<Quad> iterator = window.getDatasetGraph().find(STREAM, Node.ANY, Node.ANY, Node.ANY); iterator.hasNext();) {
+            result.add(iterator.next());
+        }
+        return result;
+    }
+
+    private static Set<Quad> set(Quad... quads) {
+        return new HashSet<>(Arrays.asList(quads));
+    }
+
+    private static Quad quad(String subject) {
+        return new Quad(STREAM, uri(subject), uri("p"), uri("o"));
+    }
+
+    private static Node uri(String localName) {
+        return NodeFactory.createURI("http://ex.org/" + localName);
+    }
+}
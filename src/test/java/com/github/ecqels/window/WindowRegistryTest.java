@@ -0,0 +1,104 @@
+/*
+ *  Copyright (C) 2016 Michael Jacoby.
+ *
+ *  This library is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation, either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.ecqels.window;
+
+import com.github.ecqels.Engine;
+import com.github.ecqels.lang.window.Duration;
+import com.github.ecqels.lang.window.WindowInfo;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.sparql.core.BasicPattern;
+import org.apache.jena.sparql.core.Var;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WindowRegistryTest {
+
+    private static final Node STREAM = NodeFactory.createURI("http://ex.org/st1");
+    private static final Node OTHER_STREAM = NodeFactory.createURI("http://ex.org/st2");
+
+    private Engine engine;
+    private WindowRegistry registry;
+
+    @Before
+    public void setUp() {
+        engine = new Engine();
+        registry = new WindowRegistry(engine);
+    }
+
+    @After
+    public void tearDown() {
+        engine.shutdown();
+    }
+
+    @Test
+    public void testSameDefinitionIsShared() {
+        Window first = registry.acquire(null, STREAM, pattern("p"), new WindowInfo(10));
+        Window second = registry.acquire(null, STREAM, pattern("p"), new WindowInfo(10));
+        assertSame(first, second);
+        assertTrue(registry.isShared(first));
+        assertEquals(1, registry.getWindows(STREAM).size());
+    }
+
+    @Test
+    public void testDifferentDefinitionsAreNotShared() {
+        Window window = registry.acquire(null, STREAM, pattern("p"), new WindowInfo(10));
+        assertNotSame(window, registry.acquire(null, STREAM, pattern("q"), new WindowInfo(10)));
+        assertNotSame(window, registry.acquire(null, STREAM, pattern("p"), new WindowInfo(20)));
+        assertNotSame(window, registry.acquire(null, OTHER_STREAM, pattern("p"), new WindowInfo(10)));
+        assertEquals(3, registry.getWindows(STREAM).size());
+        assertEquals(1, registry.getWindows(OTHER_STREAM).size());
+    }
+
+    @Test
+    public void testWindowIsKeptUntilLastRelease() {
+        Window window = registry.acquire(null, STREAM, pattern("p"), new WindowInfo(10));
+        registry.acquire(null, STREAM, pattern("p"), new WindowInfo(10));
+        registry.release(window);
+        assertTrue(registry.isShared(window));
+        assertEquals(1, registry.getWindows(STREAM).size());
+        registry.release(window);
+        assertFalse(registry.isShared(window));
+        assertTrue(registry.getWindows(STREAM).isEmpty());
+        assertNotSame(window, registry.acquire(null, STREAM, pattern("p"), new WindowInfo(10)));
+    }
+
+    @Test
+    public void testTumblingWindowsAreNotShared() {
+        WindowInfo info = new WindowInfo(new Duration("1s"), null, true);
+        Window first = registry.acquire(null, STREAM, pattern("p"), info);
+        Window second = registry.acquire(null, STREAM, pattern("p"), info);
+        assertNotSame(first, second);
+        assertFalse(registry.isShared(first));
+        assertTrue(registry.getWindows(STREAM).isEmpty());
+        registry.release(first);
+        registry.release(second);
+    }
+
+    private static BasicPattern pattern(String predicate) {
+        BasicPattern result = new BasicPattern();
+        result.add(new Triple(Var.alloc("s"), NodeFactory.createURI("http://ex.org/" + predicate), Var.alloc("o")));
+        return result;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ *  Copyright (C) 2016 Michael Jacoby.
+ *
+ *  This library is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation, either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.ecqels.window.store;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import org.junit.Test;
+
+public class CountingNodeDictionaryTest {
+
+    private final CountingNodeDictionary dictionary = new CountingNodeDictionary();
+
+    @Test
+    public void testEncodeReturnsSameId() {
+        long id = dictionary.encode(uri("a"));
+        assertEquals(id, dictionary.encode(uri("a")));
+        assertEquals(id, dictionary.lookup(uri("a")));
+        assertEquals(uri("a"), dictionary.decode(id));
+        assertEquals(1, dictionary.size());
+    }
+
+    @Test
+    public void testLookupUnknownNode() {
+        assertEquals(NodeDictionary.NO_ID, dictionary.lookup(uri("a")));
+    }
+
+    @Test
+    public void testReleaseFreesIdAfterLastReference() {
+        long id = dictionary.encode(uri("a"));
+        dictionary.encode(uri("a"));
+        dictionary.release(id);
+        assertEquals(id, dictionary.lookup(uri("a")));
+        dictionary.release(id);
+        assertEquals(NodeDictionary.NO_ID, dictionary.lookup(uri("a")));
+        assertNull(dictionary.decode(id));
+        assertEquals(0, dictionary.size());
+    }
+
+    @Test
+    public void testFreedIdIsReused() {
+        long first = dictionary.encode(uri("a"));
+        dictionary.encode(uri("b"));
+        dictionary.release(first);
+        long reused = dictionary.encode(uri("c"));
+        assertEquals(first, reused);
+        assertEquals(uri("c"), dictionary.decode(reused));
+    }
+
+    @Test
+    public void testIdsStayDenseWhenNodesChange() {
+        for (int i = 0; i < 1000; i++) {
+            long id = dictionary.encode(uri("n" + i));
+            assertEquals(0, id);
+            dictionary.release(id);
+        }
+        assertEquals(0, dictionary.size());
+    }
+
+    private static Node uri(String localName) {
+        return NodeFactory.createURI("http://ex.org/" + localName);
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ *  Copyright (C) 2016 Michael Jacoby.
+ *
+ *  This library is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation, either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.ecqels.window.store;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WindowStoreTest {
+
+    private CountingNodeDictionary dictionary;
+    private WindowStore store;
+
+    @Before
+    public void setUp() {
+        dictionary = new CountingNodeDictionary();
+        store = new WindowStore(dictionary, 4);
+    }
+
+    @Test
+    public void testAddContainsDelete() {
+        store.add(triple("a", "p", "b"), 1);
+        store.add(triple("a", "p", "c"), 2);
+        assertEquals(2, store.size());
+        assertTrue(store.contains(triple("a", "p", "b")));
+        assertFalse(store.contains(triple("b", "p", "a")));
+        assertTrue(store.delete(triple("a", "p", "b")));
+        assertFalse(store.delete(triple("a", "p", "b")));
+        assertFalse(store.contains(triple("a", "p", "b")));
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    public void testFind() {
+        store.add(triple("a", "p", "b"), 1);
+        store.add(triple("a", "q", "c"), 2);
+        store.add(triple("d", "p", "b"), 3);
+        assertEquals(set(triple("a", "p", "b"), triple("a", "q", "c")), find(uri("a"), Node.ANY, Node.ANY));
+        assertEquals(set(triple("a", "p", "b"), triple("d", "p", "b")), find(Node.ANY, uri("p"), Node.ANY));
+        assertEquals(set(triple("a", "p", "b"), triple("d", "p", "b")), find(Node.ANY, Node.ANY, uri("b")));
+        assertEquals(set(triple("a", "q", "c")), find(uri("a"), uri("q"), Node.ANY));
+        assertEquals(3, find(Node.ANY, Node.ANY, Node.ANY).size());
+        assertEquals(0, find(uri("unknown"), Node.ANY, Node.ANY).size());
+    }
+
+    @Test
+    public void testAddingAgainStoresOnce() {
+        store.add(triple("a", "p", "b"), 1);
+        store.add(triple("a", "p", "b"), 2);
+        assertEquals(1, store.size());
+        assertEquals(1, find(Node.ANY, Node.ANY, Node.ANY).size());
+    }
+
+    @Test
+    public void testAddingAgainRefreshesTimestamp() {
+        store.add(triple("a", "p", "b"), 1);
+        store.add(triple("c", "p", "d"), 2);
+        store.add(triple("a", "p", "b"), 3);
+        assertEquals(1, store.expireBefore(3, null));
+        assertTrue(store.contains(triple("a", "p", "b")));
+        assertFalse(store.contains(triple("c", "p", "d")));
+    }
+
+    @Test
+    public void testExpireBefore() {
+        for (int i = 0; i < 10; i++) {
+            store.add(triple("s" + i, "p", "o"), i);
+        }
+        List<Triple> expired = new ArrayList<>();
+        assertEquals(6, store.expireBefore(6, expired::add));
+        assertEquals(6, expired.size());
+        assertEquals(triple("s0", "p", "o"), expired.get(0));
+        assertEquals(4, store.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i >= 6, store.contains(triple("s" + i, "p", "o")));
+        }
+        assertEquals(0, store.expireBefore(6, null));
+        assertEquals(4, store.expireBefore(Long.MAX_VALUE, null));
+        assertTrue(store.isEmpty());
+    }
+
+    @Test
+    public void testExpireSkipsDeletedRows() {
+        store.add(triple("a", "p", "b"), 1);
+        store.add(triple("c", "p", "d"), 2);
+        store.delete(triple("a", "p", "b"));
+        List<Triple> expired = new ArrayList<>();
+        assertEquals(1, store.expireBefore(3, expired::add));
+        assertEquals(set(triple("c", "p", "d")), new HashSet<>(expired));
+    }
+
+    @Test
+    public void testClear() {
+        store.add(triple("a", "p", "b"), 1);
+        store.clear();
+        assertTrue(store.isEmpty());
+        assertFalse(store.contains(triple("a", "p", "b")));
+        store.add(triple("a", "p", "b"), 2);
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    public void testReleasesNodesOfRemovedRows() {
+        store.add(triple("a", "p", "b"), 1);
+        store.add(triple("a", "p", "c"), 2);
+        store.add(triple("d", "q", "e"), 3);
+        assertEquals(7, dictionary.size());
+        store.add(triple("a", "p", "b"), 4);
+        assertEquals(7, dictionary.size());
+        store.delete(triple("d", "q", "e"));
+        assertEquals(4, dictionary.size());
+        store.expireBefore(3, null);
+        assertEquals(3, dictionary.size());
+        store.clear();
+        assertEquals(0, dictionary.size());
+    }
+
+    @Test
+    public void testDictionaryIsBoundedByWindow() {
+        for (int i = 0; i < 10000; i++) {
+            store.add(triple("s" + i, "p", "o" + i), i);
+            store.expireBefore(i - 9, null);
+        }
+        assertEquals(10, store.size());
+        assertEquals(21, dictionary.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidSegmentSize() {
+        new WindowStore(new CountingNodeDictionary(), 3);
+    }
+
+    /**
+     * Applies random adds, deletes and expiries to the store and to a map of
+     * the latest timestamp per triple and compares both after each step.
+     */
+    @Test
+    public void testRandomChanges() {
+        Random random = new Random(42);
+        Map<Triple, Long> expected = new HashMap<>();
+        long time = 0;
+        for (int i = 0; i < 5000; i++) {
+            Triple triple = triple("s" + random.nextInt(20), "p" + random.nextInt(2), "o" + random.nextInt(20));
+            int operation = random.nextInt(10);
+            if (operation < 6) {
+                time++;
+                store.add(triple, time);
+                expected.put(triple, time);
+            } else if (operation < 9) {
+                assertEquals(expected.remove(triple) != null, store.delete(triple));
+            } else {
+                long timestamp = time - random.nextInt(50);
+                int count = (int) expected.values().stream().filter(t -> t < timestamp).count();
+                expected.values().removeIf(t -> t < timestamp);
+                assertEquals(count, store.expireBefore(timestamp, null));
+            }
+            assertEquals(expected.size(), store.size());
+            assertEquals(expected.keySet(), find(Node.ANY, Node.ANY, Node.ANY));
+            assertTrue(store.contains(triple) == expected.containsKey(triple));
+        }
+        store.clear();
+        assertEquals(0, dictionary.size());
+    }
+
+    private Set<Triple> find(Node s, Node p, Node o) {
+        Set<Triple> result = new HashSet<>();
+        for (Iterator<Triple> iterator = store.find(s, p, o); iterator.hasNext();) {
+            result.add(iterator.next());
+        }
+        return result;
+    }
+
+    private static Set<Triple> set(Triple... triples) {
+        Set<Triple> result = new HashSet<>();
+        for (Triple triple : triples) {
+            result.add(triple);
+        }
+        return result;
+    }
+
+    private static Triple triple(String s, String p, String o) {
+        return new Triple(uri(s), uri(p), uri(o));
+    }
+
+    private static Node uri(String localName) {
+        return NodeFactory.createURI("http://ex.org/" + localName);
+    }
+}